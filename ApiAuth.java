@@ -0,0 +1,141 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Bearer tokens for AttendanceServer. They are the HS256 JWTs server.js signs at
+// /api/auth/login ({id, role, name, exp}) with the shared JWT_SECRET, so one login works
+// against both servers, and the roles are server.js's: admin, teacher and student. A
+// student token can only self-mark when it also carries a studentId claim naming the
+// student, since the user id alone does not say which student it is.
+public final class ApiAuth {
+    // What server.js falls back to without JWT_SECRET; anyone can sign tokens with it.
+    public static final String DEV_SECRET = "dev-secret-change-me";
+    
+    public enum Role {
+        ADMIN,
+        TEACHER,
+        STUDENT
+    }
+    
+    public static final class Principal {
+        private final String userId;
+        private final Role role;
+        private final String studentId;
+        
+        private Principal(String userId, Role role, String studentId) {
+            this.userId = userId;
+            this.role = role;
+            this.studentId = studentId;
+        }
+        
+        public String getUserId() {
+            return userId;
+        }
+        
+        public Role getRole() {
+            return role;
+        }
+        
+        // The student a student token checks in as, or null.
+        public String getStudentId() {
+            return studentId;
+        }
+        
+        public boolean hasRole(Role... roles) {
+            for (Role allowed : roles) {
+                if (role == allowed) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    private final SecretKeySpec key;
+    private final boolean devSecret;
+    
+    public ApiAuth(String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Token secret must not be empty");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.devSecret = secret.equals(DEV_SECRET);
+    }
+    
+    // JWT_SECRET from the environment, like server.js, or its development fallback.
+    public static ApiAuth fromEnvironment() {
+        String secret = System.getenv("JWT_SECRET");
+        if (secret == null || secret.isEmpty()) {
+            System.err.println("JWT_SECRET is not set; using the server.js development secret");
+            secret = DEV_SECRET;
+        }
+        return new ApiAuth(secret);
+    }
+    
+    public boolean usesDevSecret() {
+        return devSecret;
+    }
+    
+    // The caller named by a "Bearer <token>" header, or null when the token is missing,
+    // malformed, signed with another secret or expired.
+    public Principal authenticate(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        String[] parts = authorization.substring("Bearer ".length()).trim().split("\\.", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            Map<?, ?> header = decodeJson(parts[0]);
+            if (header == null || !"HS256".equals(header.get("alg"))) {
+                return null;
+            }
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            byte[] expected = mac.doFinal((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!MessageDigest.isEqual(expected, Base64.getUrlDecoder().decode(parts[2]))) {
+                return null;
+            }
+            Map<?, ?> payload = decodeJson(parts[1]);
+            if (payload == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis() / 1000;
+            Object expires = payload.get("exp");
+            Object notBefore = payload.get("nbf");
+            if ((expires instanceof Number && ((Number) expires).longValue() <= now)
+                    || (notBefore instanceof Number && ((Number) notBefore).longValue() > now)) {
+                return null;
+            }
+            Object role = payload.get("role");
+            Object userId = payload.get("id");
+            Object studentId = payload.get("studentId");
+            if (!(role instanceof String) || userId == null) {
+                return null;
+            }
+            return new Principal(idString(userId), Role.valueOf(((String) role).toUpperCase(Locale.ROOT)),
+                    studentId instanceof String ? (String) studentId : null);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null; // bad base64, bad JSON or an unknown role
+        }
+    }
+    
+    private static Map<?, ?> decodeJson(String part) {
+        Object value = Json.parse(new String(Base64.getUrlDecoder().decode(part), StandardCharsets.UTF_8));
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+    
+    // server.js user ids are integers, which the JSON parser reads as doubles.
+    private static String idString(Object id) {
+        if (id instanceof Double && (Double) id == Math.rint((Double) id)) {
+            return Long.toString(((Double) id).longValue());
+        }
+        return String.valueOf(id);
+    }
+}
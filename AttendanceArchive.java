@@ -0,0 +1,463 @@
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Closed terms of attendance history, kept out of memory and out of the snapshot. Each
+// term is one immutable gzip-compressed segment holding the bitset words of every student
+// with days in it. The manifest lists the terms with their per-class day tallies, and
+// that is all startup reads: term aggregates and timeline trends need no segment. A
+// segment is inflated only when a query reaches into its days, and held through a
+// SoftReference so the collector can take it back. Segments are never rewritten: a removed
+// student is withdrawn in the manifest instead (version 2), which drops their days from
+// the tallies and hides their history.
+public class AttendanceArchive {
+    private static final int MAGIC = 0x414d5341; // "AMSA"
+    private static final int VERSION = 1; // segments
+    private static final int MANIFEST_VERSION = 2;
+    private static final String MANIFEST = "manifest";
+    
+    private final File directory;
+    private volatile List<Term> terms;
+    
+    public AttendanceArchive(File directory) {
+        this.directory = directory;
+        this.terms = Collections.emptyList();
+    }
+    
+    // Reads the manifest, if there is one. A segment it does not list (left by an archive
+    // run that failed before committing) is ignored and overwritten by the next run.
+    public void open() throws IOException {
+        File manifest = new File(directory, MANIFEST);
+        if (!manifest.exists()) {
+            terms = Collections.emptyList();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(manifest))))) {
+            int version = checkHeader(in, manifest, MANIFEST_VERSION);
+            int count = in.readInt();
+            List<Term> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                loaded.add(Term.read(in, version));
+            }
+            terms = Collections.unmodifiableList(loaded);
+        }
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    // Oldest first.
+    public List<Term> getTerms() {
+        return terms;
+    }
+    
+    // First day still held in memory: every day before it is archived. Integer.MIN_VALUE
+    // until the first term is closed.
+    public int getBoundary() {
+        List<Term> current = terms;
+        return current.isEmpty() ? Integer.MIN_VALUE : current.get(current.size() - 1).toDay;
+    }
+    
+    public boolean isArchived(int epochDay) {
+        return epochDay < getBoundary();
+    }
+    
+    // Writes the students' days from the current boundary up to (not including)
+    // boundaryDay as a new term and commits it to the manifest. The students are left as
+    // they are: the caller moves the days out with AttendanceRecord.archiveBefore, and
+    // must keep marks out until it has.
+    public Term archive(int boundaryDay, Collection<Student> students) throws IOException {
+        int fromDay = getBoundary();
+        if (boundaryDay <= fromDay) {
+            throw new IllegalArgumentException("Attendance before " + AttendanceRecord.toDate(fromDay)
+                    + " is already archived");
+        }
+        if (fromDay == Integer.MIN_VALUE) {
+            fromDay = boundaryDay;
+            for (Student student : students) {
+                int first = student.getAttendanceRecord().firstRecordedDay();
+                if (first != AttendanceRecord.NO_DAY) {
+                    fromDay = Math.min(fromDay, first);
+                }
+            }
+        }
+        Files.createDirectories(directory.toPath());
+        Term term = new Term(fromDay, boundaryDay);
+        File segment = new File(directory, term.getFileName());
+        File tempFile = new File(directory, term.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(file, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fromDay);
+            out.writeInt(boundaryDay);
+            for (Student student : students) {
+                writeStudent(out, student, term);
+            }
+            out.writeBoolean(false);
+            out.flush();
+            gzip.finish();
+            file.getChannel().force(true);
+        }
+        AttendanceMetrics.PERSISTED_BYTES.add(tempFile.length());
+        Files.move(tempFile.toPath(), segment.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        List<Term> updated = new ArrayList<>(terms);
+        updated.add(term);
+        writeManifest(updated);
+        terms = Collections.unmodifiableList(updated);
+        return term;
+    }
+    
+    // Takes a removed student's days out of every term and commits that to the manifest:
+    // they stop counting in the term aggregates and class day tallies, and get and
+    // addHistory no longer return them, so a later student with the same id starts clean.
+    // Returns the {recorded, present} tallies taken out of the class, by day.
+    public synchronized Map<Integer, int[]> withdraw(String studentId, String className) throws IOException {
+        Map<Integer, int[]> withdrawnDays = new TreeMap<>();
+        List<Term> updated = new ArrayList<>(terms.size());
+        boolean changed = false;
+        for (Term term : terms) {
+            AttendanceRecord record = term.withdrawn.contains(studentId) ? null : histories(term).get(studentId);
+            if (record == null) {
+                updated.add(term);
+                continue;
+            }
+            updated.add(term.without(studentId, className, record, withdrawnDays));
+            changed = true;
+        }
+        if (changed) {
+            writeManifest(updated);
+            terms = Collections.unmodifiableList(updated);
+        }
+        return withdrawnDays;
+    }
+    
+    // The student's state on an archived day: PRESENT, ABSENT or UNRECORDED.
+    public int get(String studentId, int epochDay) throws IOException {
+        Term term = termOf(epochDay);
+        if (term == null || term.withdrawn.contains(studentId)) {
+            return AttendanceRecord.UNRECORDED;
+        }
+        AttendanceRecord record = histories(term).get(studentId);
+        return record != null ? record.get(epochDay) : AttendanceRecord.UNRECORDED;
+    }
+    
+    // Marks the student's archived days within [fromDay, toDay] into target.
+    public void addHistory(String studentId, int fromDay, int toDay, AttendanceRecord target) throws IOException {
+        for (Term term : terms) {
+            if (term.toDay <= fromDay || term.fromDay > toDay) {
+                continue;
+            }
+            AttendanceRecord record = term.withdrawn.contains(studentId) ? null : histories(term).get(studentId);
+            if (record == null) {
+                continue;
+            }
+            for (int day = record.nextRecordedDay(Math.max(fromDay, term.fromDay));
+                    day != AttendanceRecord.NO_DAY && day <= toDay; day = record.nextRecordedDay(day + 1)) {
+                target.mark(day, record.get(day) == AttendanceRecord.PRESENT);
+            }
+        }
+    }
+    
+    private Term termOf(int epochDay) {
+        for (Term term : terms) {
+            if (epochDay >= term.fromDay && epochDay < term.toDay) {
+                return term;
+            }
+        }
+        return null;
+    }
+    
+    // The term's histories by student id, inflated on first use and kept while memory allows.
+    private Map<String, AttendanceRecord> histories(Term term) throws IOException {
+        synchronized (term) {
+            Map<String, AttendanceRecord> loaded = term.histories != null ? term.histories.get() : null;
+            if (loaded == null) {
+                loaded = readSegment(term);
+                term.histories = new SoftReference<>(loaded);
+                AttendanceMetrics.ARCHIVE_LOADS.increment();
+            }
+            return loaded;
+        }
+    }
+    
+    private Map<String, AttendanceRecord> readSegment(Term term) throws IOException {
+        File segment = new File(directory, term.getFileName());
+        Map<String, AttendanceRecord> histories = new HashMap<>(Math.max(16, term.students * 4 / 3 + 1));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(segment), 1 << 16), 1 << 16))) {
+            checkHeader(in, segment, VERSION);
+            if (in.readInt() != term.fromDay || in.readInt() != term.toDay) {
+                throw new IOException("Archive segment does not match its manifest entry: " + segment);
+            }
+            while (in.readBoolean()) {
+                String studentId = in.readUTF();
+                int firstDay = in.readInt();
+                int words = in.readInt();
+                long[] recorded = new long[words];
+                long[] present = new long[words];
+                for (int i = 0; i < words; i++) {
+                    recorded[i] = in.readLong();
+                    present[i] = in.readLong();
+                }
+                histories.put(studentId, AttendanceRecord.fromWords(firstDay, recorded, present));
+            }
+        }
+        return histories;
+    }
+    
+    // Writes the student's words covering the term, if any of its days are recorded, and
+    // tallies them into the term.
+    private static void writeStudent(DataOutputStream out, Student student, Term term) throws IOException {
+        AttendanceRecord record = student.getAttendanceRecord();
+        int firstDay;
+        long[] recorded;
+        long[] present;
+        synchronized (record) {
+            firstDay = record.getFirstDay();
+            recorded = record.getRecordedWords();
+            present = record.getPresentWords();
+        }
+        int first = -1;
+        int last = -1;
+        for (int word = 0; word < recorded.length; word++) {
+            long base = firstDay + ((long) word << 6);
+            if (base + 64 <= term.fromDay || base >= term.toDay) {
+                recorded[word] = 0;
+                continue;
+            }
+            if (base < term.fromDay) {
+                recorded[word] &= -1L << (term.fromDay - base);
+            }
+            if (base + 64 > term.toDay) {
+                recorded[word] &= (1L << (term.toDay - base)) - 1;
+            }
+            present[word] &= recorded[word];
+            if (recorded[word] != 0) {
+                first = first < 0 ? word : first;
+                last = word;
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+        
+        Map<Integer, int[]> classTallies = term.classDays.computeIfAbsent(student.getClassName(), k -> new TreeMap<>());
+        out.writeBoolean(true);
+        out.writeUTF(student.getStudentId());
+        out.writeInt(firstDay + (first << 6));
+        out.writeInt(last - first + 1);
+        for (int word = first; word <= last; word++) {
+            out.writeLong(recorded[word]);
+            out.writeLong(present[word]);
+            for (long bits = recorded[word]; bits != 0; bits &= bits - 1) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                int[] tally = classTallies.computeIfAbsent(firstDay + (word << 6) + bit, k -> new int[2]);
+                tally[0]++;
+                tally[1] += (int) (present[word] >>> bit) & 1;
+            }
+            term.recordedDays += Long.bitCount(recorded[word]);
+            term.presentDays += Long.bitCount(present[word]);
+        }
+        term.students++;
+    }
+    
+    private void writeManifest(List<Term> manifestTerms) throws IOException {
+        File manifest = new File(directory, MANIFEST);
+        File tempFile = new File(directory, MANIFEST + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+            out.writeInt(MAGIC);
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(manifestTerms.size());
+            for (Term term : manifestTerms) {
+                term.write(out);
+            }
+            out.flush();
+            gzip.finish();
+            file.getChannel().force(true);
+        }
+        AttendanceMetrics.PERSISTED_BYTES.add(tempFile.length());
+        Files.move(tempFile.toPath(), manifest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can sync a directory; the rename is still atomic
+        }
+    }
+    
+    private static int checkHeader(DataInputStream in, File file, int maxVersion) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an attendance archive file: " + file);
+        }
+        int version = in.readInt();
+        if (version < 1 || version > maxVersion) {
+            throw new IOException("Unsupported archive version " + version + ": " + file);
+        }
+        return version;
+    }
+    
+    // One closed term: days [fromDay, toDay) with their aggregates and per-class day
+    // tallies, which stay in memory for reports and trends.
+    public static final class Term {
+        private final int fromDay;
+        private final int toDay;
+        private final Map<String, Map<Integer, int[]>> classDays; // class -> day -> {recorded, present}
+        private final Set<String> withdrawn; // removed students whose days no longer count
+        private int students;
+        private long recordedDays;
+        private long presentDays;
+        private SoftReference<Map<String, AttendanceRecord>> histories;
+        
+        private Term(int fromDay, int toDay) {
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.classDays = new TreeMap<>();
+            this.withdrawn = new HashSet<>();
+        }
+        
+        public int getFromDay() {
+            return fromDay;
+        }
+        
+        // Exclusive: the first day after the term.
+        public int getToDay() {
+            return toDay;
+        }
+        
+        public String getFromDate() {
+            return AttendanceRecord.toDate(fromDay);
+        }
+        
+        // The last day of the term.
+        public String getToDate() {
+            return AttendanceRecord.toDate(toDay - 1);
+        }
+        
+        public String getFileName() {
+            return "term-" + fromDay + "-" + toDay + ".seg";
+        }
+        
+        // Students with at least one recorded day in the term.
+        public int getStudents() {
+            return students;
+        }
+        
+        public long getRecordedDays() {
+            return recordedDays;
+        }
+        
+        public long getPresentDays() {
+            return presentDays;
+        }
+        
+        public double getPercentage() {
+            return recordedDays > 0 ? (double) presentDays / recordedDays * 100 : 0.0;
+        }
+        
+        // Day tallies of each class; read-only.
+        public Map<String, Map<Integer, int[]>> getClassDays() {
+            return Collections.unmodifiableMap(classDays);
+        }
+        
+        // A copy with the student's days in this term taken out, which are added to
+        // withdrawnDays; the term itself stays as it is for readers holding it.
+        private Term without(String studentId, String className, AttendanceRecord record, Map<Integer, int[]> withdrawnDays) {
+            Term term = new Term(fromDay, toDay);
+            term.classDays.putAll(classDays);
+            term.withdrawn.addAll(withdrawn);
+            term.withdrawn.add(studentId);
+            term.students = students - 1;
+            term.recordedDays = recordedDays;
+            term.presentDays = presentDays;
+            term.histories = histories;
+            Map<Integer, int[]> classTallies = new TreeMap<>();
+            Map<Integer, int[]> existing = classDays.get(className);
+            if (existing != null) {
+                for (Map.Entry<Integer, int[]> day : existing.entrySet()) {
+                    classTallies.put(day.getKey(), day.getValue().clone());
+                }
+            }
+            for (int day = record.nextRecordedDay(fromDay); day != AttendanceRecord.NO_DAY && day < toDay;
+                    day = record.nextRecordedDay(day + 1)) {
+                int present = record.get(day) == AttendanceRecord.PRESENT ? 1 : 0;
+                term.recordedDays--;
+                term.presentDays -= present;
+                int[] tally = classTallies.get(day);
+                if (tally != null) {
+                    tally[0]--;
+                    tally[1] -= present;
+                    if (tally[0] <= 0) {
+                        classTallies.remove(day);
+                    }
+                    int[] withdrawnTally = withdrawnDays.computeIfAbsent(day, k -> new int[2]);
+                    withdrawnTally[0]++;
+                    withdrawnTally[1] += present;
+                }
+            }
+            if (existing != null) {
+                term.classDays.put(className, classTallies);
+            }
+            return term;
+        }
+        
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(fromDay);
+            out.writeInt(toDay);
+            out.writeInt(students);
+            out.writeLong(recordedDays);
+            out.writeLong(presentDays);
+            out.writeInt(classDays.size());
+            for (Map.Entry<String, Map<Integer, int[]>> classEntry : classDays.entrySet()) {
+                out.writeUTF(classEntry.getKey());
+                out.writeInt(classEntry.getValue().size());
+                for (Map.Entry<Integer, int[]> day : classEntry.getValue().entrySet()) {
+                    out.writeInt(day.getKey());
+                    out.writeInt(day.getValue()[0]);
+                    out.writeInt(day.getValue()[1]);
+                }
+            }
+            out.writeInt(withdrawn.size());
+            for (String studentId : withdrawn) {
+                out.writeUTF(studentId);
+            }
+        }
+        
+        private static Term read(DataInputStream in, int version) throws IOException {
+            Term term = new Term(in.readInt(), in.readInt());
+            term.students = in.readInt();
+            term.recordedDays = in.readLong();
+            term.presentDays = in.readLong();
+            int classes = in.readInt();
+            for (int c = 0; c < classes; c++) {
+                String className = ClassDictionary.canonical(in.readUTF());
+                int dayCount = in.readInt();
+                Map<Integer, int[]> days = new TreeMap<>();
+                for (int d = 0; d < dayCount; d++) {
+                    days.put(in.readInt(), new int[] {in.readInt(), in.readInt()});
+                }
+                term.classDays.put(className, days);
+            }
+            if (version >= 2) {
+                int withdrawn = in.readInt();
+                for (int i = 0; i < withdrawn; i++) {
+                    term.withdrawn.add(in.readUTF());
+                }
+            }
+            return term;
+        }
+    }
+}
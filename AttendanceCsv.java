@@ -0,0 +1,466 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+// Bulk CSV import and export of students and attendance history.
+//
+//   students:   studentId,name,email,className
+//   attendance: studentId,date,status   (date dd-MM-yyyy or yyyy-MM-dd; status
+//                                        present/absent, p/a, true/false, 1/0, late/excused)
+//
+// Imports stream the input in chunks of lines that are parsed and validated in parallel on
+// the common fork-join pool, with a bounded number of chunks in flight. Rows are checked
+// against existing ids and earlier rows, and bad rows are reported by line number. Students
+// are committed in one bulk call at the end; attendance is committed in bulk calls of up to
+// CHUNK_LINES marks as the chunks are drained, so memory and the pause for other writers stay
+// bounded. A header row is skipped when present.
+// Fields may be quoted, and a quoted field may span lines, so exported names and emails with
+// line breaks import back unchanged. Errors name the line a record starts on.
+public class AttendanceCsv {
+    private static final int CHUNK_LINES = 8192;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    
+    private final AttendanceManager manager;
+    
+    public AttendanceCsv(AttendanceManager manager) {
+        this.manager = manager;
+    }
+    
+    public static final class ImportResult {
+        private final int rows;
+        private final int imported;
+        private final int errorCount;
+        private final List<String> errors;
+        
+        private ImportResult(int rows, int imported, int errorCount, List<String> errors) {
+            this.rows = rows;
+            this.imported = imported;
+            this.errorCount = errorCount;
+            this.errors = errors;
+        }
+        
+        public int getRows() {
+            return rows;
+        }
+        
+        public int getImported() {
+            return imported;
+        }
+        
+        public int getErrorCount() {
+            return errorCount;
+        }
+        
+        // "line N: message", the first MAX_REPORTED_ERRORS of them.
+        public List<String> getErrors() {
+            return errors;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d rows, %d imported, %d errors", rows, imported, errorCount);
+        }
+    }
+    
+    public ImportResult importStudents(Reader in) throws IOException {
+        Set<String> seenIds = new HashSet<>();
+        List<Student> students = new ArrayList<>();
+        Errors errors = new Errors();
+        int rows = parse(in, "studentId", (line, fields, chunkErrors) -> {
+            if (fields.length < 4) {
+                chunkErrors.add(line, "expected studentId,name,email,className");
+                return null;
+            }
+            String studentId = fields[0].trim();
+            String name = fields[1].trim();
+            String className = fields[3].trim();
+            if (studentId.isEmpty() || name.isEmpty() || className.isEmpty()) {
+                chunkErrors.add(line, "studentId, name and className are required");
+                return null;
+            }
+            if (manager.getStudentById(studentId) != null) {
+                chunkErrors.add(line, "student " + studentId + " already exists");
+                return null;
+            }
+            String email = fields[2].trim();
+            return new Student(studentId, name, email.isEmpty() ? null : email, className);
+        }, (line, student) -> {
+            if (seenIds.add(student.getStudentId())) {
+                students.add(student);
+            } else {
+                errors.add(line, "duplicate student " + student.getStudentId());
+            }
+        }, errors);
+        
+        int imported = manager.addStudents(students).size();
+        return errors.result(rows, imported);
+    }
+    
+    public ImportResult importAttendance(Reader in) throws IOException {
+        PendingMarks pending = new PendingMarks();
+        Errors errors = new Errors();
+        int rows = parse(in, "studentId", (line, fields, chunkErrors) -> {
+            if (fields.length < 3) {
+                chunkErrors.add(line, "expected studentId,date,status");
+                return null;
+            }
+            String studentId = fields[0].trim();
+            if (manager.getStudentById(studentId) == null) {
+                chunkErrors.add(line, "unknown student " + studentId);
+                return null;
+            }
+            String date = toDate(fields[1].trim());
+            Boolean present = toPresent(fields[2].trim());
+            if (date == null) {
+                chunkErrors.add(line, "invalid date " + fields[1].trim());
+                return null;
+            }
+            if (present == null) {
+                chunkErrors.add(line, "invalid status " + fields[2].trim());
+                return null;
+            }
+            if (manager.isArchivedDate(date)) {
+                chunkErrors.add(line, "attendance before " + manager.getArchiveBoundary() + " is archived");
+                return null;
+            }
+            return new String[] {studentId, date, present.toString()};
+        }, (line, mark) -> pending.add(mark[0], mark[1], Boolean.parseBoolean(mark[2])), errors);
+        
+        pending.flush();
+        return errors.result(rows, pending.imported);
+    }
+    
+    public void exportStudents(Writer out) throws IOException {
+        out.write("studentId,name,email,className\n");
+        for (String className : manager.getAllClasses()) {
+            for (Student student : manager.getStudentsByClass(className)) {
+                out.write(escape(student.getStudentId()) + "," + escape(student.getName()) + ","
+                        + escape(student.getEmail()) + "," + escape(student.getClassName()) + "\n");
+            }
+        }
+        out.flush();
+    }
+    
+    // One row per recorded day, archived terms included, student by student in date order.
+    public void exportAttendance(Writer out) throws IOException {
+        out.write("studentId,date,status\n");
+        for (String className : manager.getAllClasses()) {
+            for (Student student : manager.getStudentsByClass(className)) {
+                String studentId = escape(student.getStudentId());
+                AttendanceRecord record = manager.getAttendanceHistory(student);
+                for (int day = record.firstRecordedDay(); day != AttendanceRecord.NO_DAY; day = record.nextRecordedDay(day + 1)) {
+                    out.write(studentId + "," + AttendanceRecord.toDate(day) + ","
+                            + (record.get(day) == AttendanceRecord.PRESENT ? "present" : "absent") + "\n");
+                }
+            }
+        }
+        out.flush();
+    }
+    
+    private interface RowParser<T> {
+        // Returns the parsed row, or null after adding an error.
+        T parse(int line, String[] fields, Errors errors);
+    }
+    
+    private interface RowSink<T> {
+        void accept(int line, T row);
+    }
+    
+    // Reads chunks of records and parses each chunk on the common pool; results are handed to
+    // the sink in file order on the calling thread. Returns the number of data rows.
+    private <T> int parse(Reader in, String headerField, RowParser<T> parser, RowSink<T> sink, Errors errors) throws IOException {
+        RecordReader reader = new RecordReader(in);
+        int maxInFlight = ForkJoinPool.getCommonPoolParallelism() * 2;
+        Deque<CompletableFuture<Chunk<T>>> inFlight = new ArrayDeque<>();
+        int rows = 0;
+        boolean first = true;
+        
+        while (true) {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            int[] lineNumbers = new int[CHUNK_LINES];
+            String line;
+            while (lines.size() < CHUNK_LINES) {
+                int lineNumber = reader.getLineNumber() + 1;
+                if ((line = reader.next()) == null) {
+                    break;
+                }
+                if (first) {
+                    first = false;
+                    if (line.startsWith("\uFEFF")) {
+                        line = line.substring(1);
+                    }
+                    if (line.trim().toLowerCase(Locale.ROOT).startsWith(headerField.toLowerCase(Locale.ROOT))) {
+                        continue;
+                    }
+                }
+                lineNumbers[lines.size()] = lineNumber;
+                lines.add(line);
+            }
+            if (lines.isEmpty()) {
+                break;
+            }
+            inFlight.add(CompletableFuture.supplyAsync(() -> parseChunk(lines, lineNumbers, parser)));
+            if (inFlight.size() >= maxInFlight) {
+                rows += drain(inFlight.removeFirst(), sink, errors);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            rows += drain(inFlight.removeFirst(), sink, errors);
+        }
+        return rows;
+    }
+    
+    private static <T> Chunk<T> parseChunk(List<String> lines, int[] lineNumbers, RowParser<T> parser) {
+        Chunk<T> chunk = new Chunk<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            chunk.rows++;
+            int lineNumber = lineNumbers[i];
+            try {
+                T row = parser.parse(lineNumber, split(line), chunk.errors);
+                if (row != null) {
+                    chunk.lines.add(lineNumber);
+                    chunk.values.add(row);
+                }
+            } catch (IllegalArgumentException e) {
+                chunk.errors.add(lineNumber, e.getMessage());
+            }
+        }
+        return chunk;
+    }
+    
+    private static <T> int drain(CompletableFuture<Chunk<T>> future, RowSink<T> sink, Errors errors) {
+        Chunk<T> chunk = future.join();
+        errors.addAll(chunk.errors);
+        for (int i = 0; i < chunk.values.size(); i++) {
+            sink.accept(chunk.lines.get(i), chunk.values.get(i));
+        }
+        return chunk.rows;
+    }
+    
+    // Splits one CSV record; quoted fields may contain commas, doubled quotes and line breaks.
+    // A quote opens a quoted field only at the start of the field, as RecordReader expects.
+    private static String[] split(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+                continue;
+            } else {
+                field.append(c);
+            }
+            fieldStart = false;
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+    
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    // dd-MM-yyyy as used everywhere else, or an ISO yyyy-MM-dd date (as stored by server.js).
+    private static String toDate(String value) {
+        try {
+            return AttendanceRecord.toDate(AttendanceRecord.toEpochDay(value));
+        } catch (IllegalArgumentException e) {
+            try {
+                return AttendanceRecord.toDate((int) LocalDate.parse(value).toEpochDay());
+            } catch (DateTimeParseException e2) {
+                return null;
+            }
+        }
+    }
+    
+    // Late and excused count as not present, as in the server.js reports and as
+    // SqliteAttendanceStore loads them.
+    private static Boolean toPresent(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "present":
+            case "p":
+            case "true":
+            case "1":
+            case "y":
+            case "yes":
+                return Boolean.TRUE;
+            case "absent":
+            case "a":
+            case "false":
+            case "0":
+            case "n":
+            case "no":
+            case "late":
+            case "excused":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+    
+    // Attendance rows waiting for the next bulk commit, keyed by date.
+    private final class PendingMarks {
+        private final Map<String, Map<String, Boolean>> marksByDate = new TreeMap<>(Comparator.comparingInt(AttendanceRecord::toEpochDay));
+        private int size;
+        private int imported;
+        
+        private void add(String studentId, String date, boolean present) {
+            marksByDate.computeIfAbsent(date, k -> new LinkedHashMap<>()).put(studentId, present);
+            if (++size >= CHUNK_LINES) {
+                flush();
+            }
+        }
+        
+        private void flush() {
+            if (size > 0) {
+                imported += manager.markAttendanceBulk(marksByDate);
+                marksByDate.clear();
+                size = 0;
+            }
+        }
+    }
+    
+    // Reads records ending at a line break (\n, \r\n or \r) outside quotes, keeping the
+    // quotes for split. A quote opens a quoted field only at the start of a field, so a stray
+    // quote inside a value cannot swallow the lines after it. Buffers on its own rather than
+    // reading the BufferedReader a char at a time, which locks on every call.
+    private static final class RecordReader {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private int position;
+        private int limit;
+        private int lineNumber; // physical lines read so far
+        
+        private RecordReader(Reader in) {
+            this.in = in;
+        }
+        
+        int getLineNumber() {
+            return lineNumber;
+        }
+        
+        // The next record without its line break, or null at the end of the input.
+        String next() throws IOException {
+            StringBuilder record = new StringBuilder();
+            boolean quoted = false;
+            boolean fieldStart = true;
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == '\r' || c == '\n') {
+                    if (c == '\r' && peek() == '\n') {
+                        position++;
+                        if (quoted) {
+                            record.append('\r');
+                            c = '\n';
+                        }
+                    }
+                    lineNumber++;
+                    if (!quoted) {
+                        return record.toString();
+                    }
+                } else if (quoted && c == '"') {
+                    if (peek() == '"') {
+                        position++;
+                        record.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"' && fieldStart) {
+                    quoted = true;
+                }
+                record.append((char) c);
+                fieldStart = !quoted && c == ',';
+            }
+            if (record.length() == 0) {
+                return null;
+            }
+            lineNumber++;
+            return record.toString();
+        }
+        
+        private int read() throws IOException {
+            return peek() < 0 ? -1 : buffer[position++];
+        }
+        
+        private int peek() throws IOException {
+            while (position == limit) {
+                int n = in.read(buffer, 0, buffer.length);
+                if (n < 0) {
+                    return -1;
+                }
+                position = 0;
+                limit = n;
+            }
+            return buffer[position];
+        }
+    }
+    
+    private static final class Chunk<T> {
+        private final List<Integer> lines;
+        private final List<T> values;
+        private final Errors errors;
+        private int rows;
+        
+        private Chunk(int capacity) {
+            this.lines = new ArrayList<>(capacity);
+            this.values = new ArrayList<>(capacity);
+            this.errors = new Errors();
+        }
+    }
+    
+    private static final class Errors {
+        private final List<String> messages = new ArrayList<>();
+        private int count;
+        
+        private void add(int line, String message) {
+            count++;
+            if (messages.size() < MAX_REPORTED_ERRORS) {
+                messages.add("line " + line + ": " + message);
+            }
+        }
+        
+        private void addAll(Errors other) {
+            count += other.count;
+            for (String message : other.messages) {
+                if (messages.size() < MAX_REPORTED_ERRORS) {
+                    messages.add(message);
+                }
+            }
+        }
+        
+        private ImportResult result(int rows, int imported) {
+            return new ImportResult(rows, imported, count, Collections.unmodifiableList(messages));
+        }
+    }
+}
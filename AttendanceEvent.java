@@ -0,0 +1,222 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// One change published by AttendanceManager to its event subscribers. Each mark carries
+// the student's state for the day before and after it, so consumers can apply it as a
+// delta. The tallies are the running recorded/present counts for the day just after the
+// change, campus-wide and for every class the event touched. THRESHOLD_CROSSED follows
+// a mark that took a student across a watched attendance percentage (see
+// AttendanceRanking). Sequence numbers increase in publication order.
+public final class AttendanceEvent {
+    public enum Type {
+        STUDENT_ADDED, STUDENT_REMOVED, ATTENDANCE_MARKED, BATCH_COMMITTED, THRESHOLD_CROSSED
+    }
+    
+    private final Type type;
+    private final long sequence;
+    private final long timestamp;
+    private final String studentId;
+    private final String className;
+    private final String date;
+    private final List<Mark> marks;
+    private final Tally dayTally;
+    private final Map<String, Tally> classTallies;
+    private final Crossing crossing;
+    
+    private AttendanceEvent(Type type, long sequence, String studentId, String className, String date,
+            List<Mark> marks, Tally dayTally, Map<String, Tally> classTallies) {
+        this(type, sequence, studentId, className, date, marks, dayTally, classTallies, null);
+    }
+    
+    private AttendanceEvent(Type type, long sequence, String studentId, String className, String date,
+            List<Mark> marks, Tally dayTally, Map<String, Tally> classTallies, Crossing crossing) {
+        this.type = type;
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        this.studentId = studentId;
+        this.className = className;
+        this.date = date;
+        this.marks = marks;
+        this.dayTally = dayTally;
+        this.classTallies = classTallies;
+        this.crossing = crossing;
+    }
+    
+    static AttendanceEvent studentAdded(long sequence, Student student) {
+        return new AttendanceEvent(Type.STUDENT_ADDED, sequence, student.getStudentId(), student.getClassName(),
+                null, Collections.emptyList(), null, Collections.emptyMap());
+    }
+    
+    static AttendanceEvent studentRemoved(long sequence, Student student) {
+        return new AttendanceEvent(Type.STUDENT_REMOVED, sequence, student.getStudentId(), student.getClassName(),
+                null, Collections.emptyList(), null, Collections.emptyMap());
+    }
+    
+    static AttendanceEvent marked(long sequence, String date, Mark mark, Tally dayTally, Tally classTally) {
+        return new AttendanceEvent(Type.ATTENDANCE_MARKED, sequence, mark.studentId, mark.className, date,
+                Collections.singletonList(mark), dayTally, Collections.singletonMap(mark.className, classTally));
+    }
+    
+    static AttendanceEvent batch(long sequence, String date, List<Mark> marks, Tally dayTally,
+            Map<String, Tally> classTallies) {
+        return new AttendanceEvent(Type.BATCH_COMMITTED, sequence, null, null, date,
+                Collections.unmodifiableList(marks), dayTally, Collections.unmodifiableMap(classTallies));
+    }
+    
+    static AttendanceEvent thresholdCrossed(long sequence, Crossing crossing) {
+        return new AttendanceEvent(Type.THRESHOLD_CROSSED, sequence, crossing.studentId, crossing.className, null,
+                Collections.emptyList(), null, Collections.emptyMap(), crossing);
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    // Wall-clock milliseconds when the change was applied.
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    // The student added, removed or marked; null for batches.
+    public String getStudentId() {
+        return studentId;
+    }
+    
+    public String getClassName() {
+        return className;
+    }
+    
+    // "dd-MM-yyyy" for marks and batches; null otherwise.
+    public String getDate() {
+        return date;
+    }
+    
+    public List<Mark> getMarks() {
+        return marks;
+    }
+    
+    // Campus-wide counts for the day after this change; null unless marks or a batch.
+    public Tally getDayTally() {
+        return dayTally;
+    }
+    
+    // Class name -> counts for the day after this change, for the classes it touched.
+    public Map<String, Tally> getClassTallies() {
+        return classTallies;
+    }
+    
+    // The threshold crossed; null unless THRESHOLD_CROSSED.
+    public Crossing getCrossing() {
+        return crossing;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("AttendanceEvent{#%d %s, student=%s, class=%s, date=%s, marks=%d}",
+                sequence, type, studentId, className, date, marks.size());
+    }
+    
+    public static final class Mark {
+        private final String studentId;
+        private final String className;
+        private final int previousState;
+        private final boolean present;
+        
+        Mark(String studentId, String className, int previousState, boolean present) {
+            this.studentId = studentId;
+            this.className = className;
+            this.previousState = previousState;
+            this.present = present;
+        }
+        
+        public String getStudentId() {
+            return studentId;
+        }
+        
+        public String getClassName() {
+            return className;
+        }
+        
+        // AttendanceRecord.UNRECORDED, ABSENT or PRESENT
+        public int getPreviousState() {
+            return previousState;
+        }
+        
+        public boolean isPresent() {
+            return present;
+        }
+        
+        // Present now and not already present before: a new check-in.
+        public boolean isCheckIn() {
+            return present && previousState != AttendanceRecord.PRESENT;
+        }
+    }
+    
+    public static final class Crossing {
+        private final String studentId;
+        private final String className;
+        private final double threshold;
+        private final double previousPercentage;
+        private final double percentage;
+        
+        Crossing(String studentId, String className, double threshold, double previousPercentage, double percentage) {
+            this.studentId = studentId;
+            this.className = className;
+            this.threshold = threshold;
+            this.previousPercentage = previousPercentage;
+            this.percentage = percentage;
+        }
+        
+        public String getStudentId() {
+            return studentId;
+        }
+        
+        public String getClassName() {
+            return className;
+        }
+        
+        public double getThreshold() {
+            return threshold;
+        }
+        
+        public double getPreviousPercentage() {
+            return previousPercentage;
+        }
+        
+        public double getPercentage() {
+            return percentage;
+        }
+        
+        // True when the student fell below the threshold, false when they recovered.
+        public boolean isBelow() {
+            return percentage < threshold;
+        }
+    }
+    
+    public static final class Tally {
+        private final int recorded;
+        private final int present;
+        
+        Tally(int recorded, int present) {
+            this.recorded = recorded;
+            this.present = present;
+        }
+        
+        public int getRecorded() {
+            return recorded;
+        }
+        
+        public int getPresent() {
+            return present;
+        }
+        
+        public double getPercentage() {
+            return recorded == 0 ? 0.0 : (double) present / recorded * 100;
+        }
+    }
+}
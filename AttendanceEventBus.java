@@ -0,0 +1,68 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fan-out of AttendanceEvents to Flow subscribers. Every subscriber gets its own bounded
+// buffer, drained on the bus's daemon threads as it signals demand. Publishing never
+// waits for a consumer: when a subscriber's buffer is full the event is dropped for that
+// subscriber alone, counted, and reported to it if it implements DropAware so it can
+// resynchronize from the manager.
+public class AttendanceEventBus implements Flow.Publisher<AttendanceEvent> {
+    public static final int BUFFER_SIZE = 1024;
+    
+    public interface DropAware {
+        // Called on the publishing thread; must not block.
+        void eventsDropped();
+    }
+    
+    private final ExecutorService executor;
+    private final SubmissionPublisher<AttendanceEvent> publisher;
+    private final AtomicLong sequence;
+    
+    public AttendanceEventBus() {
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "attendance-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = new SubmissionPublisher<>(executor, BUFFER_SIZE);
+        this.sequence = new AtomicLong();
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super AttendanceEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+    
+    // Publishers check this first so nothing is built when nobody listens.
+    public boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+    
+    public int getSubscriberCount() {
+        return publisher.getNumberOfSubscribers();
+    }
+    
+    public long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+    
+    public void publish(AttendanceEvent event) {
+        publisher.offer(event, (subscriber, dropped) -> {
+            AttendanceMetrics.EVENTS_DROPPED.increment();
+            if (subscriber instanceof DropAware) {
+                ((DropAware) subscriber).eventsDropped();
+            }
+            return false;
+        });
+        AttendanceMetrics.EVENTS_PUBLISHED.increment();
+    }
+    
+    // Completes every subscription.
+    public void close() {
+        publisher.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,711 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Append-only log of student/attendance mutations on top of a snapshot and a chain of
+// delta segments. A checkpoint writes only the students changed since the previous one
+// to <snapshot>.seg<generation> and starts a fresh log; once the segments add up to half
+// the snapshot (or MAX_SEGMENTS files) the next checkpoint is a full snapshot instead.
+// Recovery loads the snapshot, applies the segments in order and replays the log.
+public class AttendanceJournal implements AttendanceStore {
+    private static final int LOG_MAGIC = 0x414d534c; // "AMSL"
+    private static final int MAX_SEGMENTS = 64;
+    private static final long MIN_COMPACTION_BYTES = 1L << 20;
+    private static final byte ADD_STUDENT = 1;
+    private static final byte REMOVE_STUDENT = 2;
+    private static final byte MARK = 3;
+    private static final byte MARK_BATCH = 4;
+    private static final byte ADD_STUDENT_NULLABLE = 5; // ADD_STUDENT with a presence flag on name and email
+    
+    private final File snapshotFile;
+    private final File logFile;
+    private final int checkpointInterval;
+    
+    private final List<byte[]> pending;
+    private FileOutputStream logOut;
+    private DataOutputStream logData;
+    private long logLength; // bytes of the log up to the last whole, fsynced frame
+    private boolean logBroken; // a torn frame could not be cut off; appends wait for a new log
+    private Thread writer;
+    private boolean closing;
+    private long generation;
+    private long appendedRecords;
+    private long durableRecords;
+    private long failedRecords;
+    private IOException writeFailure;
+    private long recordsSinceCheckpoint;
+    private long snapshotBytes;
+    private int segmentCount;
+    private long segmentBytes;
+    
+    public AttendanceJournal(String snapshotPath, String logPath, int checkpointInterval) {
+        this.snapshotFile = new File(snapshotPath);
+        this.logFile = new File(logPath);
+        this.checkpointInterval = checkpointInterval;
+        this.pending = new ArrayList<>();
+    }
+    
+    // Loads the snapshot and segments, replays the log and starts the writer. Replayed log
+    // records are folded into a new segment straight away, since the caller only tracks
+    // changes made from here on. A legacy Java-serialized snapshot is rewritten in the
+    // binary format instead.
+    @Override
+    public synchronized List<Student> recover() throws IOException {
+        Map<String, Student> students = new LinkedHashMap<>();
+        generation = 0;
+        snapshotBytes = snapshotFile.length();
+        boolean legacy = false;
+        if (AttendanceSnapshot.isSnapshot(snapshotFile)) {
+            generation = readSnapshot(students);
+        } else if (snapshotFile.exists()) {
+            generation = readLegacySnapshot(students);
+            legacy = true;
+        }
+        readSegments(students);
+        
+        Set<String> replayedIds = new LinkedHashSet<>();
+        long validLength = replayLog(students, replayedIds);
+        openLog(validLength);
+        writer = new Thread(this::writeLoop, "attendance-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        
+        List<Student> recovered = new ArrayList<>(students.values());
+        if (legacy) {
+            snapshot(recovered); // one-time migration to the binary format
+        } else if (!replayedIds.isEmpty()) {
+            List<Student> changed = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (String studentId : replayedIds) {
+                Student student = students.get(studentId);
+                if (student != null) {
+                    changed.add(student);
+                } else {
+                    removed.add(studentId);
+                }
+            }
+            checkpoint(changed, removed);
+        }
+        deleteSegmentsThrough(generation - segmentCount);
+        return recovered;
+    }
+    
+    // Reads single students from the snapshot and segments through their indexes, with the
+    // log's records for that student applied on top. Legacy Java-serialized snapshots have
+    // no index, so there is no lookup for them.
+    @Override
+    public Lookup openLookup() throws IOException {
+        if (snapshotFile.exists() && !AttendanceSnapshot.isSnapshot(snapshotFile)) {
+            return null;
+        }
+        return new SnapshotLookup();
+    }
+    
+    @Override
+    public long logAddStudent(Student student) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ADD_STUDENT_NULLABLE);
+        out.writeUTF(student.getStudentId());
+        writeNullable(out, student.getName());
+        writeNullable(out, student.getEmail());
+        out.writeUTF(student.getClassName());
+        Map<String, Boolean> attendance = student.getAttendance();
+        out.writeInt(attendance.size());
+        for (Map.Entry<String, Boolean> entry : attendance.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(entry.getValue());
+        }
+        return append(bytes.toByteArray());
+    }
+    
+    @Override
+    public long logRemoveStudent(String studentId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVE_STUDENT);
+        out.writeUTF(studentId);
+        return append(bytes.toByteArray());
+    }
+    
+    @Override
+    public long logMark(String studentId, String date, boolean present) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(studentId.length() + date.length() + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MARK);
+        out.writeUTF(studentId);
+        out.writeUTF(date);
+        out.writeBoolean(present);
+        return append(bytes.toByteArray());
+    }
+    
+    // A whole roll call as one record: on recovery it is replayed entirely or not at all.
+    @Override
+    public long logMarkBatch(String date, Map<String, Boolean> marks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + marks.size() * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MARK_BATCH);
+        out.writeUTF(date);
+        out.writeInt(marks.size());
+        for (Map.Entry<String, Boolean> entry : marks.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(entry.getValue());
+        }
+        return append(bytes.toByteArray());
+    }
+    
+    // Blocks until every record appended so far is on disk.
+    public void commit() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appendedRecords;
+        }
+        awaitDurable(target);
+    }
+    
+    // Blocks until the record with the given sequence number is on disk. The writer
+    // thread fsyncs whole groups of records, so concurrent callers share one fsync.
+    @Override
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        while (durableRecords < sequence && failedRecords < sequence) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal");
+            }
+        }
+        if (durableRecords < sequence) {
+            throw new IOException("Journal write failed: " + writeFailure.getMessage(), writeFailure);
+        }
+    }
+    
+    // Waits until the writer has finished with every appended record, written or failed. A
+    // checkpoint holds the in-memory state, so it also covers records whose write failed.
+    private synchronized void awaitWritten() throws IOException {
+        while (durableRecords < appendedRecords && failedRecords < appendedRecords) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal");
+            }
+        }
+    }
+    
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        return recordsSinceCheckpoint >= checkpointInterval;
+    }
+    
+    @Override
+    public synchronized boolean needsSnapshot() {
+        return segmentCount >= MAX_SEGMENTS || segmentBytes > Math.max(snapshotBytes / 2, MIN_COMPACTION_BYTES);
+    }
+    
+    // Writes the changed students and removed ids as the next delta segment and starts a
+    // fresh, empty log. The caller must keep other threads from appending until this returns.
+    @Override
+    public void checkpoint(Collection<Student> changed, Collection<String> removed) throws IOException {
+        awaitWritten();
+        long nextGeneration = generation + 1;
+        File segment = segmentFile(nextGeneration);
+        long bytes = writeFile(segment, nextGeneration, changed, removed);
+        AttendanceMetrics.CHECKPOINTS.increment();
+        
+        synchronized (this) {
+            startGeneration(nextGeneration);
+            segmentCount++;
+            segmentBytes += bytes;
+        }
+    }
+    
+    // Writes a compacted snapshot of the given state, drops the segments and starts a
+    // fresh, empty log. The caller must keep other threads from appending until this returns.
+    @Override
+    public void snapshot(List<Student> students) throws IOException {
+        awaitWritten();
+        long nextGeneration = generation + 1;
+        long bytes = writeFile(snapshotFile, nextGeneration, students, Collections.emptyList());
+        AttendanceMetrics.SNAPSHOTS.increment();
+        
+        synchronized (this) {
+            startGeneration(nextGeneration);
+            snapshotBytes = bytes;
+            segmentCount = 0;
+            segmentBytes = 0;
+        }
+        deleteSegmentsThrough(nextGeneration);
+    }
+    
+    @Override
+    public File getArchiveDirectory() {
+        return new File(snapshotFile.getPath() + ".archive");
+    }
+    
+    @Override
+    public void close() throws IOException {
+        Thread writerThread;
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+            writerThread = writer;
+            writer = null;
+        }
+        try {
+            commit();
+        } finally {
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                closeLog();
+            }
+        }
+    }
+    
+    private synchronized long append(byte[] payload) throws IOException {
+        if (writer == null) {
+            throw new IOException("Journal is closed");
+        }
+        if (logBroken) {
+            throw new IOException("Journal log is unwritable until the next snapshot", writeFailure);
+        }
+        pending.add(payload);
+        recordsSinceCheckpoint++;
+        notifyAll();
+        return ++appendedRecords;
+    }
+    
+    // Single writer: drains everything queued since the last round, writes it and
+    // fsyncs once for the whole group.
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        while (true) {
+            long lastRecord;
+            long goodLength;
+            DataOutputStream out;
+            FileOutputStream file;
+            synchronized (this) {
+                while (pending.isEmpty() && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch.addAll(pending);
+                pending.clear();
+                lastRecord = appendedRecords;
+                goodLength = logLength;
+                out = logData;
+                file = logOut;
+                if (logBroken) {
+                    failedRecords = lastRecord;
+                    notifyAll();
+                    batch.clear();
+                    continue;
+                }
+            }
+            
+            long bytes = 0;
+            try {
+                for (byte[] payload : batch) {
+                    writeFrame(out, payload);
+                    bytes += 8 + payload.length;
+                }
+                out.flush();
+                long syncStart = System.nanoTime();
+                file.getChannel().force(false);
+                AttendanceMetrics.STORE_SYNC.recordSince(syncStart);
+                AttendanceMetrics.STORE_SYNCS.increment();
+                AttendanceMetrics.PERSISTED_BYTES.add(bytes);
+                AttendanceMetrics.PERSISTED_RECORDS.add(batch.size());
+                synchronized (this) {
+                    durableRecords = lastRecord;
+                    logLength = goodLength + bytes;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failedRecords = lastRecord;
+                    writeFailure = e;
+                    discardTornFrames(goodLength);
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    // After a failed write, cuts the log back to its last whole frame so later records are
+    // not appended behind a torn one (replay stops at the first bad frame). If even that
+    // fails, appends are refused until the next snapshot starts a fresh log.
+    private void discardTornFrames(long goodLength) {
+        try {
+            logOut.getChannel().truncate(goodLength);
+            logData = new DataOutputStream(new BufferedOutputStream(logOut)); // drops buffered bytes
+        } catch (IOException e) {
+            logBroken = true;
+            AttendanceMetrics.ERRORS.increment();
+            System.err.println("Journal log left unwritable until the next snapshot: " + e.getMessage());
+        }
+    }
+    
+    private static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+    
+    // Writes the file through a temporary copy that is fsynced and then renamed over the
+    // target, so a crash leaves either the old or the new file. Returns its length.
+    private long writeFile(File target, long fileGeneration, Collection<Student> students,
+            Collection<String> removed) throws IOException {
+        File tempFile = new File(target.getPath() + ".tmp");
+        AttendanceSnapshot.write(tempFile, fileGeneration, students, removed);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        long bytes = tempFile.length();
+        AttendanceMetrics.PERSISTED_BYTES.add(bytes);
+        Files.move(tempFile.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes;
+    }
+    
+    private void startGeneration(long nextGeneration) throws IOException {
+        generation = nextGeneration;
+        closeLog();
+        openLog(-1);
+        recordsSinceCheckpoint = 0;
+    }
+    
+    private File segmentFile(long segmentGeneration) {
+        return new File(snapshotFile.getPath() + ".seg" + segmentGeneration);
+    }
+    
+    // Removes segments already folded into the snapshot (left behind if a compaction was
+    // interrupted, or by this one).
+    private void deleteSegmentsThrough(long lastGeneration) {
+        File directory = snapshotFile.getAbsoluteFile().getParentFile();
+        String prefix = snapshotFile.getName() + ".seg";
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                if (Long.parseLong(file.getName().substring(prefix.length())) <= lastGeneration && !file.delete()) {
+                    System.err.println("Could not delete old segment " + file);
+                }
+            } catch (NumberFormatException e) {
+                // a .tmp file or something else; not ours to remove
+            }
+        }
+    }
+    
+    // Applies the segments written after the snapshot, in generation order: each one's
+    // removed ids and then its students.
+    private void readSegments(Map<String, Student> students) throws IOException {
+        segmentCount = 0;
+        segmentBytes = 0;
+        for (File file = segmentFile(generation + 1); file.exists(); file = segmentFile(generation + 1)) {
+            try (AttendanceSnapshot segment = AttendanceSnapshot.open(file)) {
+                if (segment.getGeneration() != generation + 1) {
+                    throw new IOException("Segment out of sequence: " + file);
+                }
+                for (String studentId : segment.getRemoved()) {
+                    students.remove(studentId);
+                }
+                for (Student student : segment.readAll()) {
+                    students.put(student.getStudentId(), student);
+                }
+            }
+            generation++;
+            segmentCount++;
+            segmentBytes += file.length();
+        }
+    }
+    
+    private long readSnapshot(Map<String, Student> students) throws IOException {
+        try (AttendanceSnapshot snapshot = AttendanceSnapshot.open(snapshotFile)) {
+            for (Student student : snapshot.readAll()) {
+                students.put(student.getStudentId(), student);
+            }
+            return snapshot.getGeneration();
+        }
+    }
+    
+    // Snapshots written before the binary format are Java-serialized student lists.
+    @SuppressWarnings("unchecked")
+    private long readLegacySnapshot(Map<String, Student> students) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            for (Student student : (List<Student>) ois.readObject()) {
+                students.put(student.getStudentId(), student);
+            }
+            try {
+                return ois.readLong();
+            } catch (EOFException e) {
+                return 0; // snapshot written before the journal existed
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable snapshot: " + e.getMessage(), e);
+        }
+    }
+    
+    // Applies every intact record of the current generation, collecting the ids it touches,
+    // and returns the length of the valid prefix, or -1 when the log must be started over.
+    private long replayLog(Map<String, Student> students, Set<String> replayedIds) throws IOException {
+        return readLog(generation, payload -> {
+            apply(students, payload, replayedIds);
+            recordsSinceCheckpoint++;
+        });
+    }
+    
+    private interface RecordHandler {
+        void accept(byte[] payload) throws IOException;
+    }
+    
+    // Hands every intact record of the given generation's log to the handler and returns the
+    // length of the valid prefix, or -1 when there is no log for that generation.
+    private long readLog(long logGeneration, RecordHandler handler) throws IOException {
+        if (!logFile.exists() || logFile.length() < 12) {
+            return -1;
+        }
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            if (in.readInt() != LOG_MAGIC || in.readLong() != logGeneration) {
+                return -1; // left over from before the last snapshot
+            }
+            long validLength = 12;
+            long fileLength = logFile.length();
+            while (validLength + 8 <= fileLength) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || validLength + 8 + length > fileLength) {
+                    break; // torn tail
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                handler.accept(payload);
+                validLength += 8 + length;
+            }
+            return validLength;
+        }
+    }
+    
+    private static void apply(Map<String, Student> students, byte[] payload, Set<String> replayedIds) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_STUDENT:
+            case ADD_STUDENT_NULLABLE: {
+                Student student = type == ADD_STUDENT
+                        ? new Student(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF())
+                        : new Student(in.readUTF(), readNullable(in), readNullable(in), in.readUTF());
+                int entries = in.readInt();
+                for (int i = 0; i < entries; i++) {
+                    String date = in.readUTF();
+                    if (in.readBoolean()) {
+                        student.markPresent(date);
+                    } else {
+                        student.markAbsent(date);
+                    }
+                }
+                students.putIfAbsent(student.getStudentId(), student);
+                replayedIds.add(student.getStudentId());
+                break;
+            }
+            case REMOVE_STUDENT: {
+                String studentId = in.readUTF();
+                students.remove(studentId);
+                replayedIds.add(studentId);
+                break;
+            }
+            case MARK: {
+                String studentId = in.readUTF();
+                Student student = students.get(studentId);
+                String date = in.readUTF();
+                boolean present = in.readBoolean();
+                if (student != null) {
+                    if (present) {
+                        student.markPresent(date);
+                    } else {
+                        student.markAbsent(date);
+                    }
+                    replayedIds.add(studentId);
+                }
+                break;
+            }
+            case MARK_BATCH: {
+                String date = in.readUTF();
+                int marks = in.readInt();
+                for (int i = 0; i < marks; i++) {
+                    String studentId = in.readUTF();
+                    Student student = students.get(studentId);
+                    boolean present = in.readBoolean();
+                    if (student != null) {
+                        if (present) {
+                            student.markPresent(date);
+                        } else {
+                            student.markAbsent(date);
+                        }
+                        replayedIds.add(studentId);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+    
+    private void openLog(long validLength) throws IOException {
+        if (validLength < 0) {
+            logOut = new FileOutputStream(logFile);
+            logData = new DataOutputStream(new BufferedOutputStream(logOut));
+            logData.writeInt(LOG_MAGIC);
+            logData.writeLong(generation);
+            logData.flush();
+            logOut.getChannel().force(true);
+            logLength = 12;
+        } else {
+            logOut = new FileOutputStream(logFile, true);
+            logOut.getChannel().truncate(validLength);
+            logData = new DataOutputStream(new BufferedOutputStream(logOut));
+            logLength = validLength;
+        }
+        logBroken = false;
+    }
+    
+    private void closeLog() throws IOException {
+        if (logBroken) {
+            logOut.close(); // the buffer may hold part of a torn frame
+        } else {
+            logData.close();
+        }
+        logData = null;
+        logOut = null;
+    }
+    
+    // The ids a log record touches.
+    private static List<String> studentIds(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        if (type != MARK_BATCH) {
+            return Collections.singletonList(in.readUTF());
+        }
+        in.readUTF(); // date
+        String[] studentIds = new String[in.readInt()];
+        for (int i = 0; i < studentIds.length; i++) {
+            studentIds[i] = in.readUTF();
+            in.readBoolean();
+        }
+        return Arrays.asList(studentIds);
+    }
+    
+    // The files recover() will read, opened for by-id reads: the snapshot and its segments
+    // through their indexes, and the log's records grouped by student. Nothing here is
+    // shared with recover(), which may run at the same time.
+    private final class SnapshotLookup implements Lookup {
+        private final List<AttendanceSnapshot> files; // newest first
+        private final List<Set<String>> removed; // per file
+        private final Map<String, List<byte[]>> logRecords;
+        
+        private SnapshotLookup() throws IOException {
+            this.files = new ArrayList<>();
+            this.removed = new ArrayList<>();
+            this.logRecords = new HashMap<>();
+            try {
+                long fileGeneration = 0;
+                if (snapshotFile.exists()) {
+                    AttendanceSnapshot snapshot = AttendanceSnapshot.open(snapshotFile);
+                    files.add(snapshot);
+                    removed.add(Collections.emptySet());
+                    fileGeneration = snapshot.getGeneration();
+                }
+                for (File file = segmentFile(fileGeneration + 1); file.exists(); file = segmentFile(fileGeneration + 1)) {
+                    AttendanceSnapshot segment = AttendanceSnapshot.open(file);
+                    files.add(0, segment);
+                    removed.add(0, new HashSet<>(segment.getRemoved()));
+                    if (segment.getGeneration() != fileGeneration + 1) {
+                        throw new IOException("Segment out of sequence: " + file);
+                    }
+                    fileGeneration++;
+                }
+                readLog(fileGeneration, payload -> {
+                    for (String studentId : studentIds(payload)) {
+                        logRecords.computeIfAbsent(studentId, k -> new ArrayList<>()).add(payload);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        
+        @Override
+        public Student find(String studentId) throws IOException {
+            Student student = null;
+            for (int i = 0; i < files.size(); i++) {
+                student = files.get(i).find(studentId);
+                if (student != null || removed.get(i).contains(studentId)) {
+                    break;
+                }
+            }
+            List<byte[]> records = logRecords.get(studentId);
+            if (records == null) {
+                return student;
+            }
+            Map<String, Student> replayed = new HashMap<>();
+            if (student != null) {
+                replayed.put(studentId, student);
+            }
+            Set<String> touched = new HashSet<>();
+            for (byte[] payload : records) {
+                apply(replayed, payload, touched);
+            }
+            return replayed.get(studentId);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            for (AttendanceSnapshot file : files) {
+                file.close();
+            }
+        }
+    }
+    
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -1,153 +1,899 @@
 import java.io.*;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class AttendanceManager {
-    private List<Student> students;
-    private String dataFile;
-    private DateTimeFormatter dateFormatter;
+    private static final int CHECKPOINT_INTERVAL = 50000;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long FLUSH_MAX_LATENCY_MILLIS = 30000;
+    private static final long CLEAN = Long.MIN_VALUE;
+    private static final int LOCK_STRIPES = 64;
+    private static final long REPORT_CACHE_BYTES = 16L << 20;
+    private static final double AT_RISK_THRESHOLD = 75.0;
+    
+    private StudentRegistry students;
+    private AttendanceTotals totals;
+    private AttendanceRanking ranking;
+    private AttendanceTimeline timeline;
+    private StudentSearchIndex searchIndex;
+    private final ReportCache reportCache;
+    private final AttendanceEventBus events;
+    private AttendanceStore store;
+    private final AttendanceArchive archive;
+    // Mutations lock the stripe of the student they touch and share the checkpoint lock;
+    // snapshots take it exclusively. Reads take no locks.
+    private final ReentrantLock[] stripes;
+    private final ReentrantReadWriteLock checkpointLock;
+    // Students changed or removed since the last checkpoint, and when the oldest of those
+    // changes was made (CLEAN when there are none).
+    private final Set<String> dirtyIds;
+    private final Set<String> removedIds;
+    private final AtomicLong dirtySince;
+    // Counted down once loadData is done. Until then getStudentById reads through the
+    // store's lookup (null when loading synchronously) and every other call waits.
+    private final CountDownLatch loaded;
+    private volatile AttendanceStore.Lookup lookup;
+    private volatile ScheduledExecutorService flusher;
+    private long maxFlushLatencyNanos;
     
     public AttendanceManager() {
-        this.students = new ArrayList<>();
-        this.dataFile = "attendance_data.ser";
-        this.dateFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-        loadData();
+        this("attendance_data.ser");
+    }
+    
+    public AttendanceManager(String dataFile) {
+        this(new AttendanceJournal(dataFile, dataFile + ".log", CHECKPOINT_INTERVAL));
+    }
+    
+    public AttendanceManager(AttendanceStore store) {
+        this.students = new StudentRegistry();
+        this.totals = new AttendanceTotals();
+        this.ranking = new AttendanceRanking();
+        ranking.watch(AT_RISK_THRESHOLD);
+        this.timeline = new AttendanceTimeline();
+        this.searchIndex = new StudentSearchIndex();
+        this.reportCache = new ReportCache(REPORT_CACHE_BYTES);
+        this.events = new AttendanceEventBus();
+        this.store = store;
+        this.archive = new AttendanceArchive(store.getArchiveDirectory());
+        this.stripes = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.dirtyIds = ConcurrentHashMap.newKeySet();
+        this.removedIds = ConcurrentHashMap.newKeySet();
+        this.dirtySince = new AtomicLong(CLEAN);
+        this.loaded = new CountDownLatch(1);
+        startLoad();
+        setFlushPolicy(FLUSH_INTERVAL_MILLIS, FLUSH_MAX_LATENCY_MILLIS);
     }
     
+    // Loads on a background thread when the store can read single students meanwhile, so
+    // by-id lookups are served before the whole data set is decoded; otherwise loads here.
+    // The loader holds the checkpoint lock exclusively until it is done.
+    private void startLoad() {
+        AttendanceStore.Lookup opened = null;
+        try {
+            opened = store.openLookup();
+        } catch (IOException e) {
+            reportError("Error opening data for lookups", e);
+        }
+        if (opened == null) {
+            loadData();
+            loaded.countDown();
+            return;
+        }
+        lookup = opened;
+        CountDownLatch started = new CountDownLatch(1);
+        AttendanceStore.Lookup loadingLookup = opened;
+        Thread loader = new Thread(() -> {
+            checkpointLock.writeLock().lock();
+            started.countDown();
+            try {
+                loadData();
+            } finally {
+                lookup = null;
+                loaded.countDown();
+                checkpointLock.writeLock().unlock();
+                try {
+                    loadingLookup.close();
+                } catch (IOException e) {
+                    reportError("Error closing data files", e);
+                }
+            }
+        }, "attendance-loader");
+        loader.setDaemon(true);
+        loader.start();
+        awaitUninterruptibly(started);
+    }
+    
+    private void awaitLoaded() {
+        awaitUninterruptibly(loaded);
+    }
+    
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Name and email may be null; the id and class are required, as the indexes key on them.
     public boolean addStudent(Student student) {
-        if (getStudentById(student.getStudentId()) != null) {
-            return false;
+        awaitLoaded();
+        requireKeys(student);
+        long start = System.nanoTime();
+        try {
+            return applyAddStudent(student);
+        } finally {
+            AttendanceMetrics.ADD_STUDENT.recordSince(start);
+        }
+    }
+    
+    private boolean applyAddStudent(Student student) {
+        long record;
+        checkpointLock.readLock().lock();
+        try {
+            Lock lock = stripeFor(student.getStudentId());
+            lock.lock();
+            try {
+                if (!students.add(student)) {
+                    return false;
+                }
+                totals.studentAdded(student);
+                ranking.studentAdded(student);
+                timeline.studentAdded(student);
+                searchIndex.add(student);
+                markDirty(student);
+                reportCache.invalidateStudent(student.getStudentId(), student.getClassName());
+                if (events.hasSubscribers()) {
+                    events.publish(AttendanceEvent.studentAdded(events.nextSequence(), student));
+                }
+                record = store.logAddStudent(student);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+            return true;
+        } finally {
+            checkpointLock.readLock().unlock();
         }
-        students.add(student);
-        saveData();
+        commit(record);
         return true;
     }
     
+    private static void requireKeys(Student student) {
+        if (student.getStudentId() == null || student.getClassName() == null) {
+            throw new IllegalArgumentException("Student id and class name are required");
+        }
+    }
+    
+    // While loading in the background, a detached copy read from the store.
     public Student getStudentById(String studentId) {
-        return students.stream()
-                .filter(student -> student.getStudentId().equals(studentId))
-                .findFirst()
-                .orElse(null);
+        AttendanceStore.Lookup loading = lookup;
+        if (loading != null) {
+            try {
+                return loading.find(studentId);
+            } catch (IOException e) {
+                reportError("Error reading student", e);
+                awaitLoaded();
+            }
+        }
+        return students.get(studentId);
     }
     
     public List<Student> getAllStudents() {
-        return new ArrayList<>(students);
+        awaitLoaded();
+        return new ArrayList<>(students.getAll());
     }
     
     public List<Student> getStudentsByClass(String className) {
-        return students.stream()
-                .filter(student -> student.getClassName().equals(className))
-                .collect(Collectors.toList());
+        awaitLoaded();
+        return new ArrayList<>(students.getByClass(className));
+    }
+    
+    // Roster sizes without copying the roster.
+    public int getStudentCount() {
+        awaitLoaded();
+        return students.size();
+    }
+    
+    public int getStudentCount(String className) {
+        awaitLoaded();
+        return students.classSize(className);
+    }
+    
+    // Students strictly below the attendance percentage, lowest first, campus-wide or (with a
+    // className) in one class; at most limit. Students with no recorded classes are left out.
+    public List<Student> getStudentsBelow(double percentage, String className, int limit) {
+        awaitLoaded();
+        return ranking.below(percentage, className, limit);
+    }
+    
+    public List<Student> getLowestAttendance(String className, int limit) {
+        awaitLoaded();
+        return ranking.lowest(className, limit);
+    }
+    
+    public List<Student> getHighestAttendance(String className, int limit) {
+        awaitLoaded();
+        return ranking.highest(className, limit);
+    }
+    
+    // Subscribers get a THRESHOLD_CROSSED event whenever a mark takes a student across a
+    // watched percentage, either way. AT_RISK_THRESHOLD (75%) is watched from the start.
+    public void watchThreshold(double percentage) {
+        awaitLoaded();
+        ranking.watch(percentage);
+    }
+    
+    public void unwatchThreshold(double percentage) {
+        awaitLoaded();
+        ranking.unwatch(percentage);
+    }
+    
+    public double[] getWatchedThresholds() {
+        awaitLoaded();
+        return ranking.getWatchedThresholds();
+    }
+    
+    // Keyset-paged roster in student id order, for one class or (className null) all of
+    // them. pageToken is null for the first page, then the previous page's next token.
+    public StudentPage listStudents(String className, String pageToken, int limit, Set<StudentPage.Field> fields) {
+        awaitLoaded();
+        requirePageLimit(limit);
+        long start = System.nanoTime();
+        try {
+            String afterId = StudentPage.decodeToken(pageToken);
+            int totalCount = className != null ? getStudentCount(className) : getStudentCount();
+            return StudentPage.of(students.page(className, afterId, limit + 1), limit, fields, totalCount);
+        } finally {
+            AttendanceMetrics.LIST_STUDENTS.recordSince(start);
+        }
+    }
+    
+    // Keyset-paged search: the same matches as searchStudents, unranked and in student id
+    // order. Each page walks the matches once, keeping the lowest ids after the token in a
+    // heap of limit + 1 and counting the matches as it goes.
+    public StudentPage searchStudents(String query, String pageToken, int limit, Set<StudentPage.Field> fields) {
+        awaitLoaded();
+        requirePageLimit(limit);
+        long start = System.nanoTime();
+        try {
+            String afterId = StudentPage.decodeToken(pageToken);
+            Comparator<Student> byId = Comparator.comparing(Student::getStudentId);
+            PriorityQueue<Student> lowest = new PriorityQueue<>(Math.min(limit + 1, 1024), byId.reversed());
+            int[] matches = new int[1];
+            searchIndex.forEachMatch(query, student -> {
+                matches[0]++;
+                String studentId = student.getStudentId();
+                if (afterId != null && studentId.compareTo(afterId) <= 0) {
+                    return true;
+                }
+                if (lowest.size() <= limit) {
+                    lowest.add(student);
+                } else if (studentId.compareTo(lowest.peek().getStudentId()) < 0) {
+                    lowest.poll();
+                    lowest.add(student);
+                }
+                return true;
+            });
+            List<Student> page = new ArrayList<>(lowest);
+            page.sort(byId);
+            return StudentPage.of(page, limit, fields, matches[0]);
+        } finally {
+            AttendanceMetrics.SEARCH_STUDENTS.recordSince(start);
+        }
+    }
+    
+    private static void requirePageLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be at least 1");
+        }
     }
     
     public Set<String> getAllClasses() {
-        return students.stream()
-                .map(Student::getClassName)
-                .collect(Collectors.toSet());
+        awaitLoaded();
+        return new LinkedHashSet<>(students.getClassNames());
     }
     
     public boolean removeStudent(String studentId) {
-        boolean removed = students.removeIf(student -> student.getStudentId().equals(studentId));
-        if (removed) {
-            saveData();
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return applyRemoveStudent(studentId);
+        } finally {
+            AttendanceMetrics.REMOVE_STUDENT.recordSince(start);
+        }
+    }
+    
+    private boolean applyRemoveStudent(String studentId) {
+        long record;
+        checkpointLock.readLock().lock();
+        try {
+            Lock lock = stripeFor(studentId);
+            lock.lock();
+            try {
+                Student removedStudent = students.remove(studentId);
+                if (removedStudent == null) {
+                    return false;
+                }
+                totals.studentRemoved(removedStudent);
+                ranking.studentRemoved(removedStudent);
+                timeline.studentRemoved(removedStudent);
+                withdrawArchived(removedStudent);
+                searchIndex.remove(studentId);
+                markRemoved(studentId);
+                reportCache.invalidateStudent(studentId, removedStudent.getClassName());
+                if (events.hasSubscribers()) {
+                    events.publish(AttendanceEvent.studentRemoved(events.nextSequence(), removedStudent));
+                }
+                record = store.logRemoveStudent(studentId);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+            return true;
+        } finally {
+            checkpointLock.readLock().unlock();
         }
-        return removed;
+        commit(record);
+        return true;
     }
     
     public void markAttendance(String studentId, String date, boolean present) {
-        Student student = getStudentById(studentId);
-        if (student != null) {
-            if (present) {
-                student.markPresent(date);
-            } else {
-                student.markAbsent(date);
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            applyMark(studentId, date, present);
+        } finally {
+            AttendanceMetrics.MARK_ATTENDANCE.recordSince(start);
+        }
+    }
+    
+    private void applyMark(String studentId, String date, boolean present) {
+        long record;
+        checkpointLock.readLock().lock();
+        try {
+            Lock lock = stripeFor(studentId);
+            lock.lock();
+            try {
+                Student student = getStudentById(studentId);
+                if (student == null) {
+                    return;
+                }
+                int epochDay = AttendanceRecord.toEpochDay(date);
+                requireOpenTerm(epochDay);
+                double previousPercentage = student.getAttendancePercentage();
+                int previousTotalClasses = student.getTotalClasses();
+                int previousState = student.getAttendanceRecord().mark(epochDay, present);
+                totals.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                ranking.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                timeline.attendanceChanged(student.getClassName(), epochDay, previousState, present);
+                markDirty(student);
+                reportCache.invalidateStudent(studentId, student.getClassName());
+                if (events.hasSubscribers()) {
+                    AttendanceEvent.Mark mark = new AttendanceEvent.Mark(studentId, student.getClassName(), previousState, present);
+                    events.publish(AttendanceEvent.marked(events.nextSequence(), date, mark,
+                            timeline.getTally(null, epochDay), timeline.getTally(student.getClassName(), epochDay)));
+                    publishCrossings(addCrossings(null, student, previousPercentage, previousTotalClasses));
+                }
+                record = store.logMark(studentId, date, present);
+            } finally {
+                lock.unlock();
             }
-            saveData();
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+            return;
+        } finally {
+            checkpointLock.readLock().unlock();
         }
+        commit(record);
     }
     
     public void markAttendanceForClass(String className, String date, Map<String, Boolean> attendanceMap) {
-        List<Student> classStudents = getStudentsByClass(className);
-        for (Student student : classStudents) {
+        awaitLoaded();
+        Map<String, Boolean> classMarks = new LinkedHashMap<>();
+        for (Student student : students.getByClass(className)) {
             Boolean attendance = attendanceMap.get(student.getStudentId());
             if (attendance != null) {
-                markAttendance(student.getStudentId(), date, attendance);
+                classMarks.put(student.getStudentId(), attendance);
             }
         }
+        markAttendanceBatch(date, classMarks);
+    }
+    
+    // Marks many students (from any number of classes) for one date with a single store
+    // commit. Nothing is applied unless the date and every student id are valid and the
+    // batch was written durably.
+    public boolean markAttendanceBatch(String date, Map<String, Boolean> marks) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return applyMarkBatch(date, marks);
+        } finally {
+            AttendanceMetrics.MARK_ATTENDANCE_BATCH.recordSince(start);
+        }
+    }
+    
+    private boolean applyMarkBatch(String date, Map<String, Boolean> marks) {
+        if (!isValidDate(date)) {
+            return false;
+        }
+        if (marks.isEmpty()) {
+            return true;
+        }
+        int epochDay = AttendanceRecord.toEpochDay(date);
+        if (archive.isArchived(epochDay)) {
+            return false;
+        }
+        
+        // Hold every affected stripe (in index order) so no other mark on these students
+        // can slip between the stored record and the in-memory update.
+        SortedSet<Integer> stripeIndexes = new TreeSet<>();
+        for (String studentId : marks.keySet()) {
+            stripeIndexes.add(stripeIndex(studentId));
+        }
+        
+        long record;
+        checkpointLock.readLock().lock();
+        List<Lock> held = new ArrayList<>(stripeIndexes.size());
+        try {
+            for (int index : stripeIndexes) {
+                stripes[index].lock();
+                held.add(stripes[index]);
+            }
+            
+            List<Student> batchStudents = new ArrayList<>(marks.size());
+            for (Map.Entry<String, Boolean> entry : marks.entrySet()) {
+                Student student = students.get(entry.getKey());
+                if (student == null || entry.getValue() == null) {
+                    return false;
+                }
+                batchStudents.add(student);
+            }
+            
+            // Logged under the locks so the store sees marks in the order they are applied;
+            // the wait for the disk happens after the locks are released.
+            try {
+                record = store.logMarkBatch(date, marks);
+            } catch (IOException e) {
+                reportError("Error saving data", e);
+                return false;
+            }
+            
+            List<AttendanceEvent.Mark> published = events.hasSubscribers() ? new ArrayList<>(batchStudents.size()) : null;
+            List<AttendanceEvent.Crossing> crossings = null;
+            for (Student student : batchStudents) {
+                double previousPercentage = student.getAttendancePercentage();
+                int previousTotalClasses = student.getTotalClasses();
+                boolean present = marks.get(student.getStudentId());
+                int previousState = student.getAttendanceRecord().mark(epochDay, present);
+                totals.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                ranking.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                timeline.attendanceChanged(student.getClassName(), epochDay, previousState, present);
+                markDirty(student);
+                reportCache.invalidateStudent(student.getStudentId(), student.getClassName());
+                if (published != null) {
+                    published.add(new AttendanceEvent.Mark(student.getStudentId(), student.getClassName(), previousState, present));
+                    crossings = addCrossings(crossings, student, previousPercentage, previousTotalClasses);
+                }
+            }
+            if (published != null) {
+                publishBatch(date, epochDay, published);
+                publishCrossings(crossings);
+            }
+        } finally {
+            for (Lock lock : held) {
+                lock.unlock();
+            }
+            checkpointLock.readLock().unlock();
+        }
+        try {
+            store.awaitDurable(record);
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+            return false;
+        }
+        maybeCheckpoint();
+        return true;
+    }
+    
+    // Bulk add for imports: every student whose id is free is added, with one wait for the
+    // store at the end instead of one per student. Other mutations are paused meanwhile.
+    // Returns the students that were added.
+    public List<Student> addStudents(Collection<Student> newStudents) {
+        awaitLoaded();
+        for (Student student : newStudents) {
+            requireKeys(student);
+        }
+        List<Student> added = new ArrayList<>(newStudents.size());
+        long record = 0;
+        checkpointLock.writeLock().lock();
+        try {
+            for (Student student : newStudents) {
+                if (!students.add(student)) {
+                    continue;
+                }
+                totals.studentAdded(student);
+                ranking.studentAdded(student);
+                timeline.studentAdded(student);
+                searchIndex.add(student);
+                markDirty(student);
+                added.add(student);
+                if (events.hasSubscribers()) {
+                    events.publish(AttendanceEvent.studentAdded(events.nextSequence(), student));
+                }
+                record = store.logAddStudent(student);
+            }
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+        } finally {
+            reportCache.clear();
+            checkpointLock.writeLock().unlock();
+        }
+        commit(record);
+        return added;
+    }
+    
+    // Bulk roll calls for imports, keyed by date: one store record per date and a single
+    // wait at the end. Marks for unknown students or archived dates are skipped. Returns
+    // the marks applied.
+    public int markAttendanceBulk(Map<String, Map<String, Boolean>> marksByDate) {
+        awaitLoaded();
+        int applied = 0;
+        long record = 0;
+        checkpointLock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Map<String, Boolean>> day : marksByDate.entrySet()) {
+                int epochDay = AttendanceRecord.toEpochDay(day.getKey());
+                if (archive.isArchived(epochDay)) {
+                    continue;
+                }
+                Map<String, Boolean> dayMarks = new LinkedHashMap<>();
+                List<AttendanceEvent.Mark> published = events.hasSubscribers() ? new ArrayList<>() : null;
+                List<AttendanceEvent.Crossing> crossings = null;
+                for (Map.Entry<String, Boolean> mark : day.getValue().entrySet()) {
+                    Student student = students.get(mark.getKey());
+                    if (student == null || mark.getValue() == null) {
+                        continue;
+                    }
+                    double previousPercentage = student.getAttendancePercentage();
+                    int previousTotalClasses = student.getTotalClasses();
+                    int previousState = student.getAttendanceRecord().mark(epochDay, mark.getValue());
+                    totals.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                    ranking.attendanceChanged(student, previousPercentage, previousTotalClasses);
+                    timeline.attendanceChanged(student.getClassName(), epochDay, previousState, mark.getValue());
+                    markDirty(student);
+                    dayMarks.put(mark.getKey(), mark.getValue());
+                    if (published != null) {
+                        published.add(new AttendanceEvent.Mark(mark.getKey(), student.getClassName(), previousState, mark.getValue()));
+                        crossings = addCrossings(crossings, student, previousPercentage, previousTotalClasses);
+                    }
+                }
+                if (published != null && !published.isEmpty()) {
+                    publishBatch(day.getKey(), epochDay, published);
+                    publishCrossings(crossings);
+                }
+                if (!dayMarks.isEmpty()) {
+                    record = store.logMarkBatch(day.getKey(), dayMarks);
+                    applied += dayMarks.size();
+                }
+            }
+        } catch (IOException e) {
+            reportError("Error saving data", e);
+        } finally {
+            reportCache.clear();
+            checkpointLock.writeLock().unlock();
+        }
+        commit(record);
+        return applied;
+    }
+    
+    private void publishBatch(String date, int epochDay, List<AttendanceEvent.Mark> marks) {
+        Map<String, AttendanceEvent.Tally> classTallies = new LinkedHashMap<>();
+        for (AttendanceEvent.Mark mark : marks) {
+            if (!classTallies.containsKey(mark.getClassName())) {
+                classTallies.put(mark.getClassName(), timeline.getTally(mark.getClassName(), epochDay));
+            }
+        }
+        events.publish(AttendanceEvent.batch(events.nextSequence(), date, marks, timeline.getTally(null, epochDay), classTallies));
+    }
+    
+    // One alert per watched threshold the mark took the student across, appended to
+    // crossings (created on the first alert).
+    private List<AttendanceEvent.Crossing> addCrossings(List<AttendanceEvent.Crossing> crossings, Student student,
+            double previousPercentage, int previousTotalClasses) {
+        for (double threshold : ranking.crossings(student, previousPercentage, previousTotalClasses)) {
+            if (crossings == null) {
+                crossings = new ArrayList<>();
+            }
+            crossings.add(new AttendanceEvent.Crossing(student.getStudentId(), student.getClassName(), threshold,
+                    previousPercentage, student.getAttendancePercentage()));
+        }
+        return crossings;
+    }
+    
+    private void publishCrossings(List<AttendanceEvent.Crossing> crossings) {
+        if (crossings != null) {
+            for (AttendanceEvent.Crossing crossing : crossings) {
+                events.publish(AttendanceEvent.thresholdCrossed(events.nextSequence(), crossing));
+            }
+        }
+    }
+    
+    // Push API: every add, removal, mark and batch is published to the subscriber as an
+    // AttendanceEvent, in the order the changes were applied (see AttendanceEventBus for
+    // buffering and drops). Events are published as soon as a change is applied in
+    // memory, before the store has made it durable.
+    public void subscribe(Flow.Subscriber<? super AttendanceEvent> subscriber) {
+        events.subscribe(subscriber);
+    }
+    
+    public int getSubscriberCount() {
+        return events.getSubscriberCount();
+    }
+    
+    // A check-in view of one date, kept current by events; a null className covers every
+    // class. Close it to unsubscribe.
+    public LiveAttendanceView openLiveView(String date, String className) {
+        awaitLoaded();
+        if (!isValidDate(date)) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        LiveAttendanceView view = new LiveAttendanceView(this, DateDictionary.date(DateDictionary.epochDay(date)), className);
+        events.subscribe(view);
+        return view;
     }
     
     public boolean getAttendance(String studentId, String date) {
+        awaitLoaded();
         Student student = getStudentById(studentId);
-        return student != null ? student.isPresent(date) : false;
+        if (student == null) {
+            return false;
+        }
+        return isArchivedDate(date) ? isPresentArchived(student, AttendanceRecord.toEpochDay(date)) : student.isPresent(date);
     }
     
     public Map<String, Boolean> getAttendanceForDate(String date) {
-        Map<String, Boolean> attendanceMap = new HashMap<>();
-        for (Student student : students) {
-            attendanceMap.put(student.getStudentId(), student.isPresent(date));
-        }
-        return attendanceMap;
+        awaitLoaded();
+        return attendanceForDate(students.getAll(), date);
     }
     
     public Map<String, Boolean> getClassAttendanceForDate(String className, String date) {
+        awaitLoaded();
+        return attendanceForDate(students.getByClass(className), date);
+    }
+    
+    private Map<String, Boolean> attendanceForDate(Collection<Student> dayStudents, String date) {
         Map<String, Boolean> attendanceMap = new HashMap<>();
-        List<Student> classStudents = getStudentsByClass(className);
-        for (Student student : classStudents) {
-            attendanceMap.put(student.getStudentId(), student.isPresent(date));
+        boolean archived = isArchivedDate(date);
+        int epochDay = archived ? AttendanceRecord.toEpochDay(date) : AttendanceRecord.NO_DAY;
+        for (Student student : dayStudents) {
+            attendanceMap.put(student.getStudentId(), archived ? isPresentArchived(student, epochDay) : student.isPresent(date));
         }
         return attendanceMap;
     }
     
-    public double getOverallAttendancePercentage() {
-        if (students.isEmpty()) {
-            return 0.0;
+    // Whether the date falls in an archived term and so can no longer be marked.
+    public boolean isArchivedDate(String date) {
+        awaitLoaded();
+        return archive.getBoundary() != Integer.MIN_VALUE && isValidDate(date)
+                && archive.isArchived(AttendanceRecord.toEpochDay(date));
+    }
+    
+    // Drops a removed student's archived days from the archive's term tallies (persisted in
+    // its manifest, so they stay out after a restart) and from the timeline. Reads the
+    // student's term segments, which removal accepts to keep the tallies exact.
+    private void withdrawArchived(Student student) {
+        if (student.getAttendanceRecord().getArchivedRecordedCount() == 0) {
+            return;
+        }
+        try {
+            timeline.archivedDaysRemoved(student.getClassName(),
+                    archive.withdraw(student.getStudentId(), student.getClassName()));
+        } catch (IOException e) {
+            reportError("Error updating archive", e);
         }
-        
-        double totalPercentage = students.stream()
-                .mapToDouble(Student::getAttendancePercentage)
-                .sum();
-        
-        return totalPercentage / students.size();
     }
     
-    public double getClassAttendancePercentage(String className) {
-        List<Student> classStudents = getStudentsByClass(className);
-        if (classStudents.isEmpty()) {
-            return 0.0;
+    private boolean isPresentArchived(Student student, int epochDay) {
+        if (student.getAttendanceRecord().getArchivedRecordedCount() == 0) {
+            return false;
         }
-        
-        double totalPercentage = classStudents.stream()
-                .mapToDouble(Student::getAttendancePercentage)
-                .sum();
-        
-        return totalPercentage / classStudents.size();
+        try {
+            return archive.get(student.getStudentId(), epochDay) == AttendanceRecord.PRESENT;
+        } catch (IOException e) {
+            reportError("Error reading archive", e);
+            return false;
+        }
+    }
+    
+    public double getOverallAttendancePercentage() {
+        awaitLoaded();
+        return totals.getOverallPercentage();
+    }
+    
+    public double getClassAttendancePercentage(String className) {
+        awaitLoaded();
+        return totals.getClassPercentage(className);
     }
     
     public double getTodayAttendancePercentage() {
-        String today = LocalDate.now().format(dateFormatter);
-        Map<String, Boolean> todayAttendance = getAttendanceForDate(today);
-        
-        if (todayAttendance.isEmpty()) {
-            return 0.0;
+        awaitLoaded();
+        int studentCount = students.size();
+        int presentCount = timeline.getPresentCount((int) LocalDate.now().toEpochDay());
+        return studentCount == 0 ? 0.0 : (double) presentCount / studentCount * 100;
+    }
+    
+    // Attendance percentage of each recorded day between the two dates (inclusive), in date
+    // order. A null className covers every class. Returns null if either date is invalid.
+    public Map<String, Double> getDailyAttendance(String className, String fromDate, String toDate) {
+        return getAttendanceTrend(className, fromDate, toDate, ChronoUnit.DAYS);
+    }
+    
+    // Like getDailyAttendance, but grouped into DAYS, WEEKS (keyed by their Monday) or MONTHS
+    // (keyed by their first day).
+    public Map<String, Double> getAttendanceTrend(String className, String fromDate, String toDate, ChronoUnit period) {
+        awaitLoaded();
+        if (!isValidDate(fromDate) || !isValidDate(toDate)) {
+            return null;
+        }
+        return timeline.getPercentages(className, AttendanceRecord.toEpochDay(fromDate),
+                AttendanceRecord.toEpochDay(toDate), period);
+    }
+    
+    // Present days in a row up to today, skipping days with no record. Archived terms are
+    // only read when the streak runs back through every day still in memory.
+    public int getCurrentStreak(String studentId) {
+        awaitLoaded();
+        Student student = getStudentById(studentId);
+        if (student == null) {
+            return 0;
+        }
+        int today = (int) LocalDate.now().toEpochDay();
+        AttendanceRecord record = student.getAttendanceRecord();
+        int streak = record.currentStreak(today);
+        int archivedDays = record.getArchivedRecordedCount();
+        if (archivedDays > 0 && streak == record.getRecordedCount() - archivedDays) {
+            streak = getAttendanceHistory(student).currentStreak(today);
+        }
+        return streak;
+    }
+    
+    public int getLongestStreak(String studentId, String fromDate, String toDate) {
+        awaitLoaded();
+        Student student = getStudentById(studentId);
+        if (student == null || !isValidDate(fromDate) || !isValidDate(toDate)) {
+            return 0;
+        }
+        int fromDay = AttendanceRecord.toEpochDay(fromDate);
+        int toDay = AttendanceRecord.toEpochDay(toDate);
+        AttendanceRecord record = student.getAttendanceRecord();
+        if (archive.isArchived(fromDay) && record.getArchivedRecordedCount() > 0) {
+            record = getAttendanceHistory(student);
+        }
+        return record.longestStreak(fromDay, toDay);
+    }
+    
+    // The student's whole history, archived terms included. Without archived days this is
+    // the live record; otherwise a detached copy with the archive's days merged in.
+    public AttendanceRecord getAttendanceHistory(Student student) {
+        awaitLoaded();
+        AttendanceRecord record = student.getAttendanceRecord();
+        if (record.getArchivedRecordedCount() == 0) {
+            return record;
+        }
+        AttendanceRecord history;
+        synchronized (record) {
+            history = AttendanceRecord.fromWords(record.getFirstDay(), record.getRecordedWords(), record.getPresentWords());
+        }
+        try {
+            archive.addHistory(student.getStudentId(), Integer.MIN_VALUE, Integer.MAX_VALUE, history);
+        } catch (IOException e) {
+            reportError("Error reading archive", e);
+        }
+        return history;
+    }
+    
+    // Closes the term ending the day before the given date: every student's days before it
+    // move into a compressed archive segment and out of memory and the snapshot, while
+    // percentages, totals and trends still count them. Those days can no longer be marked.
+    // Mutations are paused meanwhile. Returns the new term, or null if it could not be
+    // written.
+    public AttendanceArchive.Term archiveTerm(String beforeDate) {
+        awaitLoaded();
+        int boundaryDay = AttendanceRecord.toEpochDay(beforeDate);
+        long start = System.nanoTime();
+        checkpointLock.writeLock().lock();
+        try {
+            List<Student> all = new ArrayList<>(students.getAll());
+            AttendanceArchive.Term term;
+            try {
+                term = archive.archive(boundaryDay, all);
+            } catch (IOException e) {
+                reportError("Error writing archive", e);
+                return null;
+            }
+            for (Student student : all) {
+                if (student.getAttendanceRecord().archiveBefore(boundaryDay) > 0) {
+                    markDirty(student);
+                }
+            }
+            // A failed snapshot leaves the days in the previous one; loadData moves them out
+            // again, since the manifest already holds the term.
+            try {
+                store.snapshot(all);
+                for (Student student : all) {
+                    student.clearDirty();
+                }
+                dirtyIds.clear();
+                removedIds.clear();
+                dirtySince.set(CLEAN);
+            } catch (IOException e) {
+                reportError("Error saving data", e);
+            }
+            reportCache.clear();
+            return term;
+        } finally {
+            checkpointLock.writeLock().unlock();
+            AttendanceMetrics.ARCHIVE_TERM.recordSince(start);
+        }
+    }
+    
+    // Archived terms, oldest first.
+    public List<AttendanceArchive.Term> getArchivedTerms() {
+        awaitLoaded();
+        return archive.getTerms();
+    }
+    
+    // First date still open for marking, or null if nothing is archived.
+    public String getArchiveBoundary() {
+        awaitLoaded();
+        int boundary = archive.getBoundary();
+        return boundary == Integer.MIN_VALUE ? null : AttendanceRecord.toDate(boundary);
+    }
+    
+    private void requireOpenTerm(int epochDay) {
+        if (archive.isArchived(epochDay)) {
+            throw new IllegalArgumentException("Attendance before " + getArchiveBoundary() + " is archived");
         }
-        
-        long presentCount = todayAttendance.values().stream()
-                .mapToLong(present -> present ? 1 : 0)
-                .sum();
-        
-        return (double) presentCount / todayAttendance.size() * 100;
     }
     
     public int getTotalClasses() {
-        return students.stream()
-                .mapToInt(Student::getTotalClasses)
-                .max()
-                .orElse(0);
+        awaitLoaded();
+        return totals.getMaxTotalClasses();
     }
     
     public Map<String, Integer> getAttendanceSummary(String studentId) {
+        awaitLoaded();
+        Map<String, Integer> summary = reportCache.get(ReportCache.studentScope(studentId), "summary",
+                () -> buildAttendanceSummary(studentId));
+        return summary != null ? new HashMap<>(summary) : null;
+    }
+    
+    private Map<String, Integer> buildAttendanceSummary(String studentId) {
         Student student = getStudentById(studentId);
         if (student == null) {
             return null;
@@ -161,6 +907,17 @@ public class AttendanceManager {
     }
     
     public String generateIndividualReport(String studentId) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return reportCache.get(ReportCache.studentScope(studentId), "individualReport",
+                    () -> buildIndividualReport(studentId));
+        } finally {
+            AttendanceMetrics.INDIVIDUAL_REPORT.recordSince(start);
+        }
+    }
+    
+    private String buildIndividualReport(String studentId) {
         Student student = getStudentById(studentId);
         if (student == null) {
             return "Student not found.";
@@ -181,88 +938,404 @@ public class AttendanceManager {
     }
     
     public String generateClassReport(String className) {
-        List<Student> classStudents = getStudentsByClass(className);
-        if (classStudents.isEmpty()) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return reportCache.get(ReportCache.classScope(className), "classReport", () -> buildClassReport(className));
+        } finally {
+            AttendanceMetrics.CLASS_REPORT.recordSince(start);
+        }
+    }
+    
+    private String buildClassReport(String className) {
+        if (totals.getClassSize(className) == 0) {
             return "No students found in class: " + className;
         }
         
-        StringBuilder report = new StringBuilder();
-        report.append("=== Class Attendance Report ===\n");
-        report.append("Class: ").append(className).append("\n");
-        report.append("Total Students: ").append(classStudents.size()).append("\n");
-        report.append("Average Attendance: ").append(String.format("%.1f%%", getClassAttendancePercentage(className))).append("\n\n");
-        
-        report.append("Student Details:\n");
-        for (Student student : classStudents) {
-            report.append("- ").append(student.getName())
-                  .append(" (").append(student.getStudentId()).append("): ")
-                  .append(String.format("%.1f%%", student.getAttendancePercentage())).append("\n");
+        StringWriter report = new StringWriter();
+        try {
+            writeClassReport(className, report, ReportWriter.Format.TEXT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter never throws
         }
-        
         return report.toString();
     }
     
-    public String generateOverallStats() {
-        StringBuilder stats = new StringBuilder();
-        stats.append("=== Overall Statistics ===\n");
-        stats.append("Total Students: ").append(students.size()).append("\n");
-        stats.append("Total Classes: ").append(getTotalClasses()).append("\n");
-        stats.append("Overall Average Attendance: ").append(String.format("%.1f%%", getOverallAttendancePercentage())).append("\n");
-        stats.append("Today's Attendance: ").append(String.format("%.1f%%", getTodayAttendancePercentage())).append("\n\n");
+    public void writeClassReport(String className, Writer out, ReportWriter.Format format) throws IOException {
+        awaitLoaded();
+        ReportWriter report = ReportWriter.create(out, format);
+        report.beginReport("Class Attendance Report");
+        report.field("Class", className);
+        report.field("Total Students", totals.getClassSize(className));
+        report.field("Average Attendance", getClassAttendancePercentage(className));
         
-        stats.append("Class-wise Statistics:\n");
-        for (String className : getAllClasses()) {
-            stats.append("- ").append(className).append(": ")
-                 .append(getStudentsByClass(className).size()).append(" students, ")
-                 .append(String.format("%.1f%%", getClassAttendancePercentage(className)))
-                 .append(" average attendance\n");
+        report.beginTable("Student Details", "- %s (%s): %.1f%%", "Name", "Student ID", "Attendance");
+        for (Student student : students.getByClass(className)) {
+            report.row(student.getName(), student.getStudentId(), student.getAttendancePercentage());
+        }
+        report.endTable();
+        report.endReport();
+    }
+    
+    // Keyed by today's date as well, since the stats include today's attendance.
+    public String generateOverallStats() {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return reportCache.get(ReportCache.GLOBAL, "overallStats:" + LocalDate.now().toEpochDay(),
+                    this::buildOverallStats);
+        } finally {
+            AttendanceMetrics.OVERALL_STATS.recordSince(start);
+        }
+    }
+    
+    private String buildOverallStats() {
+        StringWriter stats = new StringWriter();
+        try {
+            writeOverallStats(stats, ReportWriter.Format.TEXT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter never throws
         }
-        
         return stats.toString();
     }
     
-    private void saveData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(dataFile))) {
-            oos.writeObject(students);
+    // Exact statistics from one parallel pass over every student (see CampusStats), taken
+    // without pausing marks. Cached until the next change; keyed by today's date like
+    // generateOverallStats.
+    public CampusStats getCampusStats() {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            int today = (int) LocalDate.now().toEpochDay();
+            return reportCache.get(ReportCache.GLOBAL, "campusStats:" + today, () -> buildCampusStats(today));
+        } finally {
+            AttendanceMetrics.CAMPUS_STATS.recordSince(start);
+        }
+    }
+    
+    private CampusStats buildCampusStats(int today) {
+        return CampusStats.compute(students.getAll(), today);
+    }
+    
+    // Summary lines come from the running totals; the class table is one pass over the class index.
+    public void writeOverallStats(Writer out, ReportWriter.Format format) throws IOException {
+        awaitLoaded();
+        ReportWriter report = ReportWriter.create(out, format);
+        report.beginReport("Overall Statistics");
+        report.field("Total Students", students.size());
+        report.field("Total Classes", getTotalClasses());
+        report.field("Overall Average Attendance", getOverallAttendancePercentage());
+        report.field("Today's Attendance", getTodayAttendancePercentage());
+        
+        report.beginTable("Class-wise Statistics", "- %s: %d students, %.1f%% average attendance",
+                "Class", "Students", "Average Attendance");
+        for (String className : students.getClassNames()) {
+            report.row(className, totals.getClassSize(className), getClassAttendancePercentage(className));
+        }
+        report.endTable();
+        report.endReport();
+    }
+    
+    // Campus-wide listing of every student, class by class, streamed row by row.
+    public void writeStudentsReport(Writer out, ReportWriter.Format format) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            ReportWriter report = ReportWriter.create(out, format);
+            report.beginReport("Student Attendance Report");
+            report.field("Total Students", students.size());
+            report.field("Overall Average Attendance", getOverallAttendancePercentage());
+            
+            report.beginTable("Students", "%-10s %-20s %-10s %5d %5d %6.1f%%",
+                    "Student ID", "Name", "Class", "Total Classes", "Present Classes", "Attendance");
+            for (String className : students.getClassNames()) {
+                for (Student student : students.getByClass(className)) {
+                    report.row(student.getStudentId(), student.getName(), className,
+                            student.getTotalClasses(), student.getPresentClasses(), student.getAttendancePercentage());
+                }
+            }
+            report.endTable();
+            report.endReport();
+        } finally {
+            AttendanceMetrics.STUDENTS_REPORT.recordSince(start);
+        }
+    }
+    
+    // Cache for generateIndividualReport, generateClassReport, generateOverallStats,
+    // getCampusStats and getAttendanceSummary; a bound of 0 turns caching off.
+    public void setReportCacheLimit(long maxBytes) {
+        reportCache.setMaxBytes(maxBytes);
+    }
+    
+    public Map<String, Long> getReportCacheStats() {
+        return reportCache.getStats();
+    }
+    
+    // Current dataset sizes, exported as gauges next to the AttendanceMetrics counters.
+    public Map<String, Number> getGauges() {
+        Map<String, Number> gauges = new LinkedHashMap<>();
+        gauges.put("ams_students", students.size());
+        gauges.put("ams_classes", students.getClassNames().size());
+        gauges.put("ams_max_total_classes", getTotalClasses());
+        gauges.put("ams_event_subscribers", events.getSubscriberCount());
+        for (Map.Entry<String, Long> stat : reportCache.getStats().entrySet()) {
+            gauges.put("ams_report_cache_" + stat.getKey().replaceAll("([A-Z])", "_$1").toLowerCase(Locale.ROOT), stat.getValue());
+        }
+        return gauges;
+    }
+    
+    // Prometheus text format: operation latencies, persistence counters and dataset gauges.
+    public void writeMetrics(Writer out) throws IOException {
+        AttendanceMetrics.writePrometheus(out, getGauges());
+    }
+    
+    // Persists everything changed since the last checkpoint (see flush).
+    public void saveData() {
+        flush();
+    }
+    
+    // Writes the students changed since the last checkpoint as one incremental checkpoint,
+    // so the cost follows the change rather than the dataset; the store turns it into a
+    // full snapshot when its segments need compacting. Also picks up students edited
+    // directly through their setters. Mutations are paused meanwhile.
+    public void flush() {
+        awaitLoaded();
+        checkpointLock.writeLock().lock();
+        try {
+            checkpoint(true);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+    
+    // Background checkpoints: every intervalMillis the flusher checks whether the store's
+    // log has grown past its checkpoint interval or the oldest unflushed change is older
+    // than maxLatencyMillis, and if so writes the dirty students. An interval of 0 stops
+    // the flusher; mutating threads then make the same check after each commit.
+    public synchronized void setFlushPolicy(long intervalMillis, long maxLatencyMillis) {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+        maxFlushLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        if (intervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "attendance-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushIfDue, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    public void close() {
+        awaitLoaded();
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = flusher;
+            flusher = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        events.close();
+        try {
+            store.close();
+        } catch (IOException e) {
+            reportError("Error closing data files", e);
+        }
+    }
+    
+    // Waits (outside every lock) for the store to make the record durable.
+    private void commit(long record) {
+        try {
+            store.awaitDurable(record);
         } catch (IOException e) {
-            System.err.println("Error saving data: " + e.getMessage());
+            reportError("Error saving data", e);
+        }
+        maybeCheckpoint();
+    }
+    
+    // Without a background flusher, the mutating thread checkpoints when one is due.
+    private void maybeCheckpoint() {
+        if (flusher == null && isFlushDue() && checkpointLock.writeLock().tryLock()) {
+            try {
+                checkpoint(false);
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+        }
+    }
+    
+    private void flushIfDue() {
+        if (isFlushDue()) {
+            checkpointLock.writeLock().lock();
+            try {
+                checkpoint(false);
+            } catch (RuntimeException e) {
+                AttendanceMetrics.ERRORS.increment();
+                System.err.println("Error in background flush: " + e);
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+        }
+    }
+    
+    private boolean isFlushDue() {
+        long since = dirtySince.get();
+        return since != CLEAN && (store.needsCheckpoint() || System.nanoTime() - since >= maxFlushLatencyNanos);
+    }
+    
+    private void markDirty(Student student) {
+        student.markDirty();
+        dirtyIds.add(student.getStudentId());
+        dirtySince.compareAndSet(CLEAN, System.nanoTime());
+    }
+    
+    private void markRemoved(String studentId) {
+        dirtyIds.remove(studentId);
+        removedIds.add(studentId);
+        dirtySince.compareAndSet(CLEAN, System.nanoTime());
+    }
+    
+    // Hands the dirty students to the store; the caller holds the checkpoint write lock.
+    // scanAll also collects students flagged by their own setters, which the manager did
+    // not see change. On failure everything stays dirty for the next attempt.
+    private void checkpoint(boolean scanAll) {
+        long start = System.nanoTime();
+        try {
+            List<Student> changed = new ArrayList<>(dirtyIds.size());
+            if (scanAll) {
+                for (Student student : students.getAll()) {
+                    if (student.isDirty()) {
+                        changed.add(student);
+                    }
+                }
+            } else {
+                for (String studentId : dirtyIds) {
+                    Student student = students.get(studentId);
+                    if (student != null) {
+                        changed.add(student);
+                    }
+                }
+            }
+            if (changed.isEmpty() && removedIds.isEmpty()) {
+                return;
+            }
+            
+            try {
+                if (store.needsSnapshot()) {
+                    store.snapshot(new ArrayList<>(students.getAll()));
+                } else {
+                    store.checkpoint(changed, new ArrayList<>(removedIds));
+                }
+            } catch (IOException e) {
+                reportError("Error saving data", e);
+                return;
+            }
+            for (Student student : changed) {
+                student.clearDirty();
+            }
+            dirtyIds.clear();
+            removedIds.clear();
+            dirtySince.set(CLEAN);
+        } finally {
+            AttendanceMetrics.SAVE_DATA.recordSince(start);
         }
     }
     
+    private static void reportError(String context, IOException e) {
+        AttendanceMetrics.ERRORS.increment();
+        System.err.println(context + ": " + e.getMessage());
+    }
+    
+    private Lock stripeFor(String studentId) {
+        return stripes[stripeIndex(studentId)];
+    }
+    
+    private int stripeIndex(String studentId) {
+        int hash = studentId != null ? studentId.hashCode() : 0;
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+    
     private void loadData() {
-        File file = new File(dataFile);
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                students = (List<Student>) ois.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                System.err.println("Error loading data: " + e.getMessage());
-                students = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            archive.open();
+            int boundary = archive.getBoundary();
+            List<Student> loaded = new ArrayList<>();
+            List<Student> folded = new ArrayList<>();
+            for (Student student : store.recover()) {
+                student.clearDirty(); // the store has already persisted whatever it replayed
+                // Days the store still holds from an archived term (a snapshot that failed
+                // after archiving, or a database that keeps every row) leave memory here.
+                if (student.getAttendanceRecord().archiveBefore(boundary) > 0) {
+                    folded.add(student);
+                }
+                if (students.add(student)) {
+                    totals.studentAdded(student);
+                    ranking.studentAdded(student);
+                    searchIndex.add(student);
+                    loaded.add(student);
+                }
+            }
+            timeline.studentsLoaded(loaded);
+            for (AttendanceArchive.Term term : archive.getTerms()) {
+                timeline.daysLoaded(term.getClassDays());
             }
+            for (Student student : folded) {
+                markDirty(student);
+            }
+        } catch (IOException e) {
+            reportError("Error loading data", e);
+            students = new StudentRegistry();
+            totals.clear();
+            ranking.clear();
+            timeline.clear();
+            searchIndex = new StudentSearchIndex();
+            reportCache.clear();
+        } finally {
+            AttendanceMetrics.LOAD_DATA.recordSince(start);
         }
     }
     
     public String getCurrentDate() {
-        return LocalDate.now().format(dateFormatter);
+        return AttendanceRecord.toDate((int) LocalDate.now().toEpochDay());
     }
     
     public boolean isValidDate(String date) {
+        return DateDictionary.isValid(date);
+    }
+    
+    public List<Student> searchStudents(String query) {
+        awaitLoaded();
+        long start = System.nanoTime();
         try {
-            LocalDate.parse(date, dateFormatter);
-            return true;
-        } catch (Exception e) {
-            return false;
+            return searchIndex.search(query, Integer.MAX_VALUE);
+        } finally {
+            AttendanceMetrics.SEARCH_STUDENTS.recordSince(start);
         }
     }
     
-    public List<Student> searchStudents(String query) {
-        String lowerQuery = query.toLowerCase();
-        return students.stream()
-                .filter(student -> 
-                    student.getName().toLowerCase().contains(lowerQuery) ||
-                    student.getStudentId().toLowerCase().contains(lowerQuery) ||
-                    student.getEmail().toLowerCase().contains(lowerQuery) ||
-                    student.getClassName().toLowerCase().contains(lowerQuery)
-                )
-                .collect(Collectors.toList());
+    // Best matches first (exact id, then name/id prefixes, then substrings), at most limit.
+    public List<Student> searchStudents(String query, int limit) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        try {
+            return searchIndex.search(query, limit);
+        } finally {
+            AttendanceMetrics.SEARCH_STUDENTS.recordSince(start);
+        }
+    }
+    
+    public List<String> autocomplete(String prefix, int limit) {
+        awaitLoaded();
+        return searchIndex.autocomplete(prefix, limit);
     }
 }
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the hot paths. Recording a sample is
+// two array/adder increments, so timing the mark path costs a few tens of nanoseconds.
+// Histograms are HDR-style: every power of two is split into 8 linear sub-buckets, so a
+// percentile is exact to within 12.5% over the whole range from 1 ns up.
+public final class AttendanceMetrics {
+    private static final List<Timer> TIMERS = new ArrayList<>();
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    
+    public static final Timer MARK_ATTENDANCE = timer("mark_attendance");
+    public static final Timer MARK_ATTENDANCE_BATCH = timer("mark_attendance_batch");
+    public static final Timer ADD_STUDENT = timer("add_student");
+    public static final Timer REMOVE_STUDENT = timer("remove_student");
+    public static final Timer SEARCH_STUDENTS = timer("search_students");
+    public static final Timer LIST_STUDENTS = timer("list_students");
+    public static final Timer INDIVIDUAL_REPORT = timer("individual_report");
+    public static final Timer CLASS_REPORT = timer("class_report");
+    public static final Timer OVERALL_STATS = timer("overall_stats");
+    public static final Timer CAMPUS_STATS = timer("campus_stats");
+    public static final Timer STUDENTS_REPORT = timer("students_report");
+    public static final Timer SAVE_DATA = timer("save_data");
+    public static final Timer LOAD_DATA = timer("load_data");
+    public static final Timer STORE_SYNC = timer("store_sync");
+    public static final Timer ARCHIVE_TERM = timer("archive_term");
+    public static final Timer CHECK_IN = timer("check_in");
+    public static final Timer CHECK_IN_BATCH = timer("check_in_batch");
+    
+    public static final Counter PERSISTED_BYTES = counter("ams_persisted_bytes_total",
+            "Bytes written to the journal and snapshot files.");
+    public static final Counter PERSISTED_RECORDS = counter("ams_persisted_records_total",
+            "Mutation records made durable by the store.");
+    public static final Counter STORE_SYNCS = counter("ams_store_syncs_total",
+            "Group commits to disk (journal fsyncs or database commits).");
+    public static final Counter SNAPSHOTS = counter("ams_snapshots_total", "Full snapshots written.");
+    public static final Counter CHECKPOINTS = counter("ams_checkpoints_total",
+            "Incremental checkpoints (delta segments of changed students) written.");
+    public static final Counter EVENTS_PUBLISHED = counter("ams_events_published_total",
+            "Attendance events offered to subscribers.");
+    public static final Counter EVENTS_DROPPED = counter("ams_events_dropped_total",
+            "Attendance events dropped for a subscriber whose buffer was full.");
+    public static final Counter CHECK_INS = counter("ams_check_ins_total",
+            "Self check-ins accepted into the ingest queue.");
+    public static final Counter CHECK_INS_REJECTED = counter("ams_check_ins_rejected_total",
+            "Self check-ins refused because the ingest queue was full or closed.");
+    public static final Counter CHECK_INS_DEDUPLICATED = counter("ams_check_ins_deduplicated_total",
+            "Repeat check-ins for a student and date folded into one mark within a batch.");
+    public static final Counter ARCHIVE_LOADS = counter("ams_archive_loads_total",
+            "Archived terms decompressed to answer a query on closed-term days.");
+    public static final Counter ERRORS = counter("ams_errors_total", "Failed reads or writes of stored data.");
+    
+    private AttendanceMetrics() {
+    }
+    
+    private static Timer timer(String operation) {
+        Timer timer = new Timer(operation);
+        TIMERS.add(timer);
+        return timer;
+    }
+    
+    private static Counter counter(String name, String help) {
+        Counter counter = new Counter(name, help);
+        COUNTERS.add(counter);
+        return counter;
+    }
+    
+    public static List<Timer> getTimers() {
+        return Collections.unmodifiableList(TIMERS);
+    }
+    
+    public static List<Counter> getCounters() {
+        return Collections.unmodifiableList(COUNTERS);
+    }
+    
+    // Prometheus text exposition of every timer (as a summary in seconds) and counter,
+    // followed by the given gauges.
+    public static void writePrometheus(Writer out, Map<String, Number> gauges) throws IOException {
+        out.write("# HELP ams_operation_seconds Latency of AttendanceManager operations.\n");
+        out.write("# TYPE ams_operation_seconds summary\n");
+        for (Timer timer : TIMERS) {
+            String label = "operation=\"" + timer.operation + "\"";
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.write("ams_operation_seconds{" + label + ",quantile=\"" + quantile + "\"} "
+                        + seconds(timer.percentile(quantile)) + "\n");
+            }
+            out.write("ams_operation_seconds_sum{" + label + "} " + seconds(timer.getTotalNanos()) + "\n");
+            out.write("ams_operation_seconds_count{" + label + "} " + timer.getCount() + "\n");
+        }
+        for (Counter counter : COUNTERS) {
+            out.write("# HELP " + counter.name + " " + counter.help + "\n");
+            out.write("# TYPE " + counter.name + " counter\n");
+            out.write(counter.name + " " + counter.get() + "\n");
+        }
+        for (Map.Entry<String, Number> gauge : gauges.entrySet()) {
+            out.write("# TYPE " + gauge.getKey() + " gauge\n");
+            out.write(gauge.getKey() + " " + gauge.getValue() + "\n");
+        }
+    }
+    
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+    
+    public static final class Timer {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        
+        private final String operation;
+        private final AtomicLongArray buckets;
+        private final LongAdder count;
+        private final LongAdder totalNanos;
+        private final LongAccumulator maxNanos;
+        
+        private Timer(String operation) {
+            this.operation = operation;
+            this.buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+            this.count = new LongAdder();
+            this.totalNanos = new LongAdder();
+            this.maxNanos = new LongAccumulator(Math::max, 0);
+        }
+        
+        // Usage: long start = System.nanoTime(); ... timer.recordSince(start);
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+        
+        public void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            totalNanos.add(value);
+            maxNanos.accumulate(value);
+        }
+        
+        public String getOperation() {
+            return operation;
+        }
+        
+        public long getCount() {
+            return count.sum();
+        }
+        
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+        
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+        
+        // Upper bound of the bucket holding the given quantile (0.0 - 1.0), capped at the max.
+        public long percentile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(upperBound(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+        
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+        
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+    
+    public static final class Counter {
+        private final String name;
+        private final String help;
+        private final LongAdder value;
+        
+        private Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+            this.value = new LongAdder();
+        }
+        
+        public void increment() {
+            value.increment();
+        }
+        
+        public void add(long amount) {
+            value.add(amount);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public long get() {
+            return value.sum();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Students ordered by attendance percentage within each class, kept current on every
+// add/remove/mark like AttendanceTotals. "Below X%", lowest-K and highest-K read the
+// front or back of the class lists (merged across classes for the whole campus), so a
+// query costs O(answer log classes) instead of a pass over every student. Students with
+// no recorded classes are not ranked. Also decides which watched thresholds a mark
+// crossed, for at-risk alerts.
+public class AttendanceRanking {
+    private static final double[] NONE = new double[0];
+    
+    private final Map<String, ConcurrentSkipListSet<Rank>> classRanks;
+    private volatile double[] thresholds; // sorted, copy-on-write
+    
+    public AttendanceRanking() {
+        this.classRanks = new ConcurrentHashMap<>();
+        this.thresholds = NONE;
+    }
+    
+    public void studentAdded(Student student) {
+        if (student.getTotalClasses() > 0) {
+            ranksOf(student.getClassName()).add(new Rank(student.getAttendancePercentage(), student));
+        }
+    }
+    
+    public void studentRemoved(Student student) {
+        if (student.getTotalClasses() > 0) {
+            remove(student.getClassName(), new Rank(student.getAttendancePercentage(), student));
+        }
+    }
+    
+    // Called after a mark with the values the student had before it. The new position is
+    // added before the old one goes, so readers may briefly see a student twice but never
+    // miss one.
+    public void attendanceChanged(Student student, double previousPercentage, int previousTotalClasses) {
+        double percentage = student.getAttendancePercentage();
+        if (percentage == previousPercentage && previousTotalClasses > 0) {
+            return;
+        }
+        ranksOf(student.getClassName()).add(new Rank(percentage, student));
+        if (previousTotalClasses > 0) {
+            remove(student.getClassName(), new Rank(previousPercentage, student));
+        }
+    }
+    
+    // Students strictly below the percentage, lowest first; a null className covers every
+    // class.
+    public List<Student> below(double percentage, String className, int limit) {
+        Rank bound = new Rank(percentage, null);
+        List<Iterator<Rank>> sources = new ArrayList<>();
+        for (ConcurrentSkipListSet<Rank> ranks : sets(className)) {
+            sources.add(ranks.headSet(bound).iterator());
+        }
+        return merge(sources, Comparator.naturalOrder(), limit);
+    }
+    
+    public List<Student> lowest(String className, int limit) {
+        List<Iterator<Rank>> sources = new ArrayList<>();
+        for (ConcurrentSkipListSet<Rank> ranks : sets(className)) {
+            sources.add(ranks.iterator());
+        }
+        return merge(sources, Comparator.naturalOrder(), limit);
+    }
+    
+    public List<Student> highest(String className, int limit) {
+        List<Iterator<Rank>> sources = new ArrayList<>();
+        for (ConcurrentSkipListSet<Rank> ranks : sets(className)) {
+            sources.add(ranks.descendingIterator());
+        }
+        return merge(sources, Comparator.reverseOrder(), limit);
+    }
+    
+    public synchronized void watch(double threshold) {
+        if (Arrays.binarySearch(thresholds, threshold) < 0) {
+            double[] watched = Arrays.copyOf(thresholds, thresholds.length + 1);
+            watched[thresholds.length] = threshold;
+            Arrays.sort(watched);
+            thresholds = watched;
+        }
+    }
+    
+    public synchronized void unwatch(double threshold) {
+        int index = Arrays.binarySearch(thresholds, threshold);
+        if (index >= 0) {
+            double[] watched = new double[thresholds.length - 1];
+            System.arraycopy(thresholds, 0, watched, 0, index);
+            System.arraycopy(thresholds, index + 1, watched, index, watched.length - index);
+            thresholds = watched;
+        }
+    }
+    
+    public double[] getWatchedThresholds() {
+        return thresholds.clone();
+    }
+    
+    // The watched thresholds the student's last mark took them across, either way. Before
+    // their first recorded class a student counts as below none of them.
+    public double[] crossings(Student student, double previousPercentage, int previousTotalClasses) {
+        double[] watched = thresholds;
+        if (watched.length == 0) {
+            return NONE;
+        }
+        double percentage = student.getAttendancePercentage();
+        double before = previousTotalClasses > 0 ? previousPercentage : Double.POSITIVE_INFINITY;
+        double low = Math.min(before, percentage);
+        double high = Math.max(before, percentage);
+        // crossed: low < threshold <= high
+        int from = firstAbove(watched, low);
+        int to = firstAbove(watched, high);
+        return from == to ? NONE : Arrays.copyOfRange(watched, from, to);
+    }
+    
+    public void clear() {
+        classRanks.clear();
+    }
+    
+    private ConcurrentSkipListSet<Rank> ranksOf(String className) {
+        return classRanks.computeIfAbsent(className, k -> new ConcurrentSkipListSet<>());
+    }
+    
+    private void remove(String className, Rank rank) {
+        ConcurrentSkipListSet<Rank> ranks = classRanks.get(className);
+        if (ranks != null) {
+            ranks.remove(rank);
+        }
+    }
+    
+    private Collection<ConcurrentSkipListSet<Rank>> sets(String className) {
+        if (className == null) {
+            return classRanks.values();
+        }
+        ConcurrentSkipListSet<Rank> ranks = classRanks.get(className);
+        return ranks != null ? Collections.singletonList(ranks) : Collections.emptyList();
+    }
+    
+    // Index of the first threshold greater than value.
+    private static int firstAbove(double[] sorted, double value) {
+        int index = 0;
+        while (index < sorted.length && sorted[index] <= value) {
+            index++;
+        }
+        return index;
+    }
+    
+    // The first limit students of the sorted sources, in order.
+    private static List<Student> merge(List<Iterator<Rank>> sources, Comparator<Rank> order, int limit) {
+        PriorityQueue<Map.Entry<Rank, Iterator<Rank>>> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> order.compare(a.getKey(), b.getKey()));
+        for (Iterator<Rank> source : sources) {
+            if (source.hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(source.next(), source));
+            }
+        }
+        List<Student> students = new ArrayList<>(Math.min(limit, 1024));
+        while (students.size() < limit && !heads.isEmpty()) {
+            Map.Entry<Rank, Iterator<Rank>> head = heads.poll();
+            students.add(head.getKey().student);
+            if (head.getValue().hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(head.getValue().next(), head.getValue()));
+            }
+        }
+        return students;
+    }
+    
+    // Ordered by percentage, then student id; a null student sorts before every id, so it
+    // bounds "below" queries.
+    private static final class Rank implements Comparable<Rank> {
+        private final double percentage;
+        private final Student student;
+        
+        private Rank(double percentage, Student student) {
+            this.percentage = percentage;
+            this.student = student;
+        }
+        
+        @Override
+        public int compareTo(Rank other) {
+            int byPercentage = Double.compare(percentage, other.percentage);
+            if (byPercentage != 0) {
+                return byPercentage;
+            }
+            if (student == null || other.student == null) {
+                return student == other.student ? 0 : (student == null ? -1 : 1);
+            }
+            return student.getStudentId().compareTo(other.student.getStudentId());
+        }
+    }
+}
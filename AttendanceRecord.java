@@ -0,0 +1,403 @@
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// Attendance history of one student as two bitsets over epoch days: one bit says the
+// day was recorded, the other says the student was present. Bitset access is synchronized
+// on the record; the counts are volatile so percentage reads never block. Days moved to
+// the closed-term archive (AttendanceArchive) leave the bitsets but stay in the counts,
+// so percentages remain lifetime figures.
+public class AttendanceRecord {
+    public static final int NO_DAY = Integer.MIN_VALUE;
+    public static final int UNRECORDED = -1;
+    public static final int ABSENT = 0;
+    public static final int PRESENT = 1;
+    
+    private static final long[] EMPTY = new long[0];
+    
+    private int firstDay; // epoch day held by bit 0 of word 0, always a multiple of 64
+    private long[] recorded;
+    private long[] present;
+    private volatile int recordedCount;
+    private volatile int presentCount;
+    private int archivedRecordedCount; // of recordedCount, the days held by the archive
+    private int archivedPresentCount;
+    
+    public AttendanceRecord() {
+        this.recorded = EMPTY;
+        this.present = EMPTY;
+    }
+    
+    // Rebuilds a record from bitset words as returned by getRecordedWords/getPresentWords.
+    // firstDay must be a multiple of 64.
+    public static AttendanceRecord fromWords(int firstDay, long[] recorded, long[] present) {
+        AttendanceRecord record = new AttendanceRecord();
+        if (recorded.length == 0) {
+            return record;
+        }
+        int recordedCount = 0;
+        int presentCount = 0;
+        for (int i = 0; i < recorded.length; i++) {
+            present[i] &= recorded[i];
+            recordedCount += Long.bitCount(recorded[i]);
+            presentCount += Long.bitCount(present[i]);
+        }
+        record.firstDay = firstDay;
+        record.recorded = recorded;
+        record.present = present;
+        record.recordedCount = recordedCount;
+        record.presentCount = presentCount;
+        return record;
+    }
+    
+    // As fromWords, for a record some of whose days are held by the archive.
+    public static AttendanceRecord fromWords(int firstDay, long[] recorded, long[] present,
+            int archivedRecordedCount, int archivedPresentCount) {
+        AttendanceRecord record = fromWords(firstDay, recorded, present);
+        record.archivedRecordedCount = archivedRecordedCount;
+        record.archivedPresentCount = archivedPresentCount;
+        record.recordedCount += archivedRecordedCount;
+        record.presentCount += archivedPresentCount;
+        return record;
+    }
+    
+    // Both conversions go through DateDictionary, so known dates cost a hash lookup and
+    // every day has one shared String.
+    public static int toEpochDay(String date) {
+        try {
+            return DateDictionary.epochDay(date);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date (expected dd-MM-yyyy): " + date, e);
+        }
+    }
+    
+    public static String toDate(int epochDay) {
+        return DateDictionary.date(epochDay);
+    }
+    
+    // Returns the state the day had before this mark.
+    public synchronized int mark(int epochDay, boolean isPresent) {
+        ensureCapacity(epochDay);
+        int word = (epochDay - firstDay) >>> 6;
+        long bit = 1L << (epochDay - firstDay);
+        int previous = (recorded[word] & bit) == 0 ? UNRECORDED : (present[word] & bit) != 0 ? PRESENT : ABSENT;
+        recorded[word] |= bit;
+        if (isPresent) {
+            present[word] |= bit;
+        } else {
+            present[word] &= ~bit;
+        }
+        if (previous == UNRECORDED) {
+            recordedCount++;
+        }
+        presentCount += (isPresent ? 1 : 0) - (previous == PRESENT ? 1 : 0);
+        return previous;
+    }
+    
+    public synchronized int get(int epochDay) {
+        int offset = epochDay - firstDay;
+        if (offset < 0 || (offset >>> 6) >= recorded.length) {
+            return UNRECORDED;
+        }
+        long bit = 1L << offset;
+        if ((recorded[offset >>> 6] & bit) == 0) {
+            return UNRECORDED;
+        }
+        return (present[offset >>> 6] & bit) != 0 ? PRESENT : ABSENT;
+    }
+    
+    // Returns the state the day had before it was cleared.
+    public synchronized int remove(int epochDay) {
+        int previous = get(epochDay);
+        if (previous != UNRECORDED) {
+            int offset = epochDay - firstDay;
+            long bit = 1L << offset;
+            recorded[offset >>> 6] &= ~bit;
+            present[offset >>> 6] &= ~bit;
+            recordedCount--;
+            if (previous == PRESENT) {
+                presentCount--;
+            }
+        }
+        return previous;
+    }
+    
+    public synchronized void clear() {
+        recorded = EMPTY;
+        present = EMPTY;
+        firstDay = 0;
+        recordedCount = 0;
+        presentCount = 0;
+        archivedRecordedCount = 0;
+        archivedPresentCount = 0;
+    }
+    
+    // Drops every day before boundaryDay from the bitsets, keeping them in the counts as
+    // archived days. Returns the number of days moved.
+    public synchronized int archiveBefore(int boundaryDay) {
+        if (recorded.length == 0 || boundaryDay <= firstDay) {
+            return 0;
+        }
+        long offset = (long) boundaryDay - firstDay;
+        int fullWords = (int) Math.min(offset >>> 6, recorded.length);
+        int movedRecorded = 0;
+        int movedPresent = 0;
+        for (int word = 0; word < fullWords; word++) {
+            movedRecorded += Long.bitCount(recorded[word]);
+            movedPresent += Long.bitCount(present[word]);
+        }
+        if (fullWords < recorded.length && (offset & 63) != 0) {
+            long below = (1L << (offset & 63)) - 1;
+            movedRecorded += Long.bitCount(recorded[fullWords] & below);
+            movedPresent += Long.bitCount(present[fullWords] & below);
+            recorded[fullWords] &= ~below;
+            present[fullWords] &= ~below;
+        }
+        if (fullWords == recorded.length) {
+            recorded = EMPTY;
+            present = EMPTY;
+            firstDay = 0;
+        } else if (fullWords > 0) {
+            recorded = Arrays.copyOfRange(recorded, fullWords, recorded.length);
+            present = Arrays.copyOfRange(present, fullWords, present.length);
+            firstDay += fullWords << 6;
+        }
+        archivedRecordedCount += movedRecorded;
+        archivedPresentCount += movedPresent;
+        return movedRecorded;
+    }
+    
+    public synchronized int getArchivedRecordedCount() {
+        return archivedRecordedCount;
+    }
+    
+    public synchronized int getArchivedPresentCount() {
+        return archivedPresentCount;
+    }
+    
+    // Recorded days still in the bitsets, which is what the date map view iterates.
+    public synchronized int getInMemoryCount() {
+        return recordedCount - archivedRecordedCount;
+    }
+    
+    public int getRecordedCount() {
+        return recordedCount;
+    }
+    
+    public int getPresentCount() {
+        return presentCount;
+    }
+    
+    // Epoch day held by bit 0 of the first word of getRecordedWords/getPresentWords.
+    public synchronized int getFirstDay() {
+        return firstDay;
+    }
+    
+    public synchronized long[] getRecordedWords() {
+        return recorded.clone();
+    }
+    
+    public synchronized long[] getPresentWords() {
+        return present.clone();
+    }
+    
+    // First recorded day at or after fromDay, or NO_DAY.
+    public synchronized int nextRecordedDay(int fromDay) {
+        int offset = Math.max(fromDay - firstDay, 0);
+        int word = offset >>> 6;
+        if (word >= recorded.length) {
+            return NO_DAY;
+        }
+        long bits = recorded[word] & (-1L << offset);
+        while (true) {
+            if (bits != 0) {
+                return firstDay + (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word >= recorded.length) {
+                return NO_DAY;
+            }
+            bits = recorded[word];
+        }
+    }
+    
+    public synchronized int firstRecordedDay() {
+        return nextRecordedDay(firstDay);
+    }
+    
+    // Consecutive recorded days marked present, ending with the last recorded day on or
+    // before asOfDay. Unrecorded days (weekends, holidays) do not break a streak.
+    public synchronized int currentStreak(int asOfDay) {
+        int offset = asOfDay - firstDay;
+        if (offset < 0 || recorded.length == 0) {
+            return 0;
+        }
+        int word = Math.min(offset >>> 6, recorded.length - 1);
+        long mask = (offset >>> 6) < recorded.length ? -1L >>> (63 - (offset & 63)) : -1L;
+        int streak = 0;
+        for (; word >= 0; word--, mask = -1L) {
+            long absent = recorded[word] & ~present[word] & mask;
+            if (absent != 0) {
+                long afterLastAbsent = -1L << (63 - Long.numberOfLeadingZeros(absent)) << 1;
+                return streak + Long.bitCount(present[word] & mask & afterLastAbsent);
+            }
+            streak += Long.bitCount(present[word] & mask);
+        }
+        return streak;
+    }
+    
+    // Longest run of recorded days marked present within [fromDay, toDay].
+    public synchronized int longestStreak(int fromDay, int toDay) {
+        int longest = 0;
+        int streak = 0;
+        int startOffset = Math.max(fromDay - firstDay, 0);
+        long endOffset = Math.min((long) toDay - firstDay, ((long) recorded.length << 6) - 1);
+        for (int word = startOffset >>> 6; word <= (endOffset >> 6); word++) {
+            long bits = recorded[word];
+            if (word == startOffset >>> 6) {
+                bits &= -1L << startOffset;
+            }
+            if (word == (endOffset >> 6)) {
+                bits &= -1L >>> (63 - (endOffset & 63));
+            }
+            while (bits != 0) {
+                long bit = bits & -bits;
+                bits ^= bit;
+                if ((present[word] & bit) != 0) {
+                    longest = Math.max(longest, ++streak);
+                } else {
+                    streak = 0;
+                }
+            }
+        }
+        return longest;
+    }
+    
+    // Live Map view keyed by "dd-MM-yyyy" dates, in chronological order.
+    public Map<String, Boolean> asMap() {
+        return new DateMapView();
+    }
+    
+    private void ensureCapacity(int epochDay) {
+        if (recorded.length == 0) {
+            firstDay = Math.floorDiv(epochDay, 64) * 64;
+            recorded = new long[1];
+            present = new long[1];
+            return;
+        }
+        if (epochDay < firstDay) {
+            int newFirstDay = Math.floorDiv(epochDay, 64) * 64;
+            int shift = (firstDay - newFirstDay) >>> 6;
+            recorded = prepend(recorded, shift);
+            present = prepend(present, shift);
+            firstDay = newFirstDay;
+            return;
+        }
+        int word = (epochDay - firstDay) >>> 6;
+        if (word >= recorded.length) {
+            int length = Math.max(word + 1, recorded.length + (recorded.length >> 1));
+            recorded = Arrays.copyOf(recorded, length);
+            present = Arrays.copyOf(present, length);
+        }
+    }
+    
+    private static long[] prepend(long[] words, int shift) {
+        long[] grown = new long[words.length + shift];
+        System.arraycopy(words, 0, grown, shift, words.length);
+        return grown;
+    }
+    
+    private class DateMapView extends AbstractMap<String, Boolean> {
+        @Override
+        public Boolean get(Object key) {
+            int day = parseKey(key);
+            if (day == NO_DAY) {
+                return null;
+            }
+            int state = AttendanceRecord.this.get(day);
+            return state == UNRECORDED ? null : state == PRESENT;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+        
+        @Override
+        public Boolean put(String key, Boolean value) {
+            int previous = mark(toEpochDay(key), value);
+            return previous == UNRECORDED ? null : previous == PRESENT;
+        }
+        
+        @Override
+        public Boolean remove(Object key) {
+            int day = parseKey(key);
+            if (day == NO_DAY) {
+                return null;
+            }
+            int previous = AttendanceRecord.this.remove(day);
+            return previous == UNRECORDED ? null : previous == PRESENT;
+        }
+        
+        @Override
+        public int size() {
+            return getInMemoryCount();
+        }
+        
+        @Override
+        public void clear() {
+            AttendanceRecord.this.clear();
+        }
+        
+        @Override
+        public Set<Entry<String, Boolean>> entrySet() {
+            return new AbstractSet<Entry<String, Boolean>>() {
+                @Override
+                public Iterator<Entry<String, Boolean>> iterator() {
+                    return new Iterator<Entry<String, Boolean>>() {
+                        private int next = firstRecordedDay();
+                        private int last = NO_DAY;
+                        
+                        @Override
+                        public boolean hasNext() {
+                            return next != NO_DAY;
+                        }
+                        
+                        @Override
+                        public Entry<String, Boolean> next() {
+                            if (next == NO_DAY) {
+                                throw new NoSuchElementException();
+                            }
+                            last = next;
+                            next = next == Integer.MAX_VALUE ? NO_DAY : nextRecordedDay(next + 1);
+                            return new SimpleImmutableEntry<>(toDate(last), AttendanceRecord.this.get(last) == PRESENT);
+                        }
+                        
+                        @Override
+                        public void remove() {
+                            if (last == NO_DAY) {
+                                throw new IllegalStateException();
+                            }
+                            AttendanceRecord.this.remove(last);
+                            last = NO_DAY;
+                        }
+                    };
+                }
+                
+                @Override
+                public int size() {
+                    return getInMemoryCount();
+                }
+            };
+        }
+        
+        private int parseKey(Object key) {
+            if (!(key instanceof String)) {
+                return NO_DAY;
+            }
+            try {
+                return toEpochDay((String) key);
+            } catch (IllegalArgumentException e) {
+                return NO_DAY;
+            }
+        }
+    }
+}
@@ -0,0 +1,962 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+// JSON API over AttendanceManager on the JDK's built-in HTTP server. Each request runs on
+// its own virtual thread when the JDK has them (21+), otherwise on a cached thread pool.
+//
+// Every endpoint but /health takes a server.js bearer token (see ApiAuth) and checks its
+// role the way server.js does. The server listens on loopback unless --bind names another
+// address, which needs JWT_SECRET set, and only sends CORS headers for --cors-origin.
+//
+//   java AttendanceServer [port] [--bind ADDRESS] [--cors-origin ORIGIN] [--db FILE]
+//   or   java AttendanceSystem --server [port] [options]
+public class AttendanceServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final long EVENT_KEEPALIVE_SECONDS = 15;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BODY_BYTES = 1 << 20; // JSON request bodies
+    private static final long MAX_IMPORT_BYTES = 64L << 20; // CSV imports, which stream
+    
+    private final AttendanceManager manager;
+    private final ApiAuth auth;
+    private final String allowedOrigin; // null: no cross-origin access
+    private final CheckInQueue checkIns;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    // Loopback only, JWT_SECRET from the environment, no CORS.
+    public AttendanceServer(AttendanceManager manager, int port) throws IOException {
+        this(manager, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ApiAuth.fromEnvironment(), null);
+    }
+    
+    public AttendanceServer(AttendanceManager manager, InetSocketAddress address, ApiAuth auth, String allowedOrigin) throws IOException {
+        if (auth.usesDevSecret() && !address.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("Set JWT_SECRET before listening on " + address.getAddress().getHostAddress());
+        }
+        this.manager = manager;
+        this.auth = auth;
+        this.allowedOrigin = allowedOrigin;
+        this.checkIns = new CheckInQueue(manager);
+        this.server = HttpServer.create(address, 1024);
+        this.executor = newRequestExecutor();
+        server.createContext("/api/", this::handle);
+        server.setExecutor(executor);
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        String allowedOrigin = null;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--bind")) {
+                bind = InetAddress.getByName(args[i + 1]);
+            } else if (args[i].equals("--cors-origin")) {
+                allowedOrigin = args[i + 1];
+            }
+        }
+        ApiAuth auth = ApiAuth.fromEnvironment();
+        if (auth.usesDevSecret() && !bind.isLoopbackAddress()) {
+            System.err.println("Set JWT_SECRET before listening on " + bind.getHostAddress());
+            System.exit(1);
+        }
+        AttendanceManager manager = AttendanceSystem.openManager(args);
+        AttendanceServer server = new AttendanceServer(manager, new InetSocketAddress(bind, port), auth, allowedOrigin);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            manager.close();
+        }));
+        server.start();
+        System.out.println("Attendance API listening on http://" + bind.getHostAddress() + ":" + port + "/api/");
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        checkIns.close();
+    }
+    
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            List<String> path = pathSegments(exchange);
+            Map<String, String> query = queryParameters(exchange);
+            if (method.equals("OPTIONS")) {
+                preflight(exchange);
+                return;
+            }
+            if (path.size() == 1 && path.get(0).equals("health")) {
+                sendJson(exchange, 200, Map.of("status", "ok"));
+                return;
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            ApiAuth.Principal principal = auth.authenticate(authorization);
+            if (principal == null) {
+                sendJson(exchange, 401, error(authorization == null ? "Unauthorized" : "Invalid token"));
+                return;
+            }
+            route(exchange, method, path, query, principal);
+        } catch (SecurityException e) {
+            sendError(exchange, 403, e.getMessage());
+        } catch (MethodNotAllowedException e) {
+            sendError(exchange, 405, e.getMessage());
+        } catch (PayloadTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling request: " + e.getMessage());
+            sendError(exchange, 500, "Internal server error");
+        }
+        // Not in a finally: an exchange that failed with an IOException, or part-way through
+        // a streamed body, is left for the server to drop with its connection, since closing
+        // it would end a chunked body as if it were complete.
+        exchange.close();
+    }
+    
+    // Reads need any valid token; changes need admin or teacher, as in server.js, except the
+    // student self-mark and closing a term, which is admin only because it cannot be undone.
+    private void route(HttpExchange exchange, String method, List<String> path, Map<String, String> query,
+            ApiAuth.Principal principal) throws IOException {
+        String resource = path.isEmpty() ? "" : path.get(0);
+        switch (resource) {
+            case "students":
+                if (!method.equals("GET")) {
+                    requireRole(principal, ApiAuth.Role.ADMIN, ApiAuth.Role.TEACHER);
+                }
+                routeStudents(exchange, method, path, query);
+                return;
+            case "classes":
+                routeClasses(exchange, method, path, query);
+                return;
+            case "attendance":
+                if (path.size() == 2 && path.get(1).equals("self-mark")) {
+                    requireRole(principal, ApiAuth.Role.STUDENT);
+                    selfMark(exchange, method, principal);
+                } else {
+                    if (!method.equals("GET")) {
+                        requireRole(principal, ApiAuth.Role.ADMIN, ApiAuth.Role.TEACHER);
+                    }
+                    routeAttendance(exchange, method, query);
+                }
+                return;
+            case "reports":
+                routeReports(exchange, method, path, query);
+                return;
+            case "import":
+                requireRole(principal, ApiAuth.Role.ADMIN, ApiAuth.Role.TEACHER);
+                routeImport(exchange, method, path);
+                return;
+            case "export":
+                requireRole(principal, ApiAuth.Role.ADMIN, ApiAuth.Role.TEACHER);
+                routeExport(exchange, method, path);
+                return;
+            case "archive":
+                if (!method.equals("GET")) {
+                    requireRole(principal, ApiAuth.Role.ADMIN);
+                }
+                routeArchive(exchange, method, query);
+                return;
+            case "events":
+                requireMethod(method, "GET");
+                streamEvents(exchange, query.get("class"));
+                return;
+            case "autocomplete":
+                requireMethod(method, "GET");
+                sendJson(exchange, 200, manager.autocomplete(query.getOrDefault("q", ""), intParameter(query, "limit", 10)));
+                return;
+            case "metrics":
+                requireMethod(method, "GET");
+                stream(exchange, ReportWriter.Format.TEXT, manager::writeMetrics);
+                return;
+            case "stats":
+                requireMethod(method, "GET");
+                if (path.size() == 2 && path.get(1).equals("trend")) {
+                    sendJson(exchange, 200, trendJson(query));
+                } else if (path.size() == 2 && path.get(1).equals("campus")) {
+                    sendJson(exchange, 200, campusJson());
+                } else {
+                    sendJson(exchange, 200, statsJson());
+                }
+                return;
+            default:
+                sendJson(exchange, 404, error("Unknown endpoint"));
+        }
+    }
+    
+    // GET /students?class=&q=&limit=&pageToken=&fields=, POST /students,
+    // GET|DELETE /students/{id}, GET /students/{id}/streaks?from=&to=
+    private void routeStudents(HttpExchange exchange, String method, List<String> path, Map<String, String> query) throws IOException {
+        if (path.size() == 1) {
+            if (method.equals("POST")) {
+                Map<String, Object> body = readObject(exchange);
+                Student student = new Student(requireString(body, "studentId"), requireString(body, "name"),
+                        optionalString(body, "email"), requireString(body, "className"));
+                if (manager.addStudent(student)) {
+                    sendJson(exchange, 201, studentJson(student));
+                } else {
+                    sendJson(exchange, 409, error("Student with ID " + student.getStudentId() + " already exists"));
+                }
+                return;
+            }
+            requireMethod(method, "GET");
+            sendJson(exchange, 200, pageJson(studentPage(query.get("class"), query)));
+            return;
+        }
+        
+        String studentId = path.get(1);
+        if (method.equals("DELETE")) {
+            if (manager.removeStudent(studentId)) {
+                sendJson(exchange, 200, Map.of("removed", studentId));
+            } else {
+                sendJson(exchange, 404, error("Student not found"));
+            }
+            return;
+        }
+        requireMethod(method, "GET");
+        Student student = manager.getStudentById(studentId);
+        if (student == null) {
+            sendJson(exchange, 404, error("Student not found"));
+        } else if (path.size() == 3 && path.get(2).equals("streaks")) {
+            String to = query.getOrDefault("to", manager.getCurrentDate());
+            String from = query.getOrDefault("from", "01-01-1970");
+            requireDates(from, to);
+            Map<String, Object> streaks = new LinkedHashMap<>();
+            streaks.put("studentId", studentId);
+            streaks.put("currentStreak", manager.getCurrentStreak(studentId));
+            streaks.put("longestStreak", manager.getLongestStreak(studentId, from, to));
+            sendJson(exchange, 200, streaks);
+        } else {
+            sendJson(exchange, 200, studentJson(student));
+        }
+    }
+    
+    // GET /classes, GET /classes/{name}/students?limit=&pageToken=&fields=
+    private void routeClasses(HttpExchange exchange, String method, List<String> path, Map<String, String> query) throws IOException {
+        requireMethod(method, "GET");
+        if (path.size() == 1) {
+            List<Object> classes = new ArrayList<>();
+            for (String className : manager.getAllClasses()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("className", className);
+                entry.put("students", manager.getStudentCount(className));
+                entry.put("averageAttendance", manager.getClassAttendancePercentage(className));
+                classes.add(entry);
+            }
+            sendJson(exchange, 200, classes);
+        } else if (path.size() == 3 && path.get(2).equals("students")) {
+            sendJson(exchange, 200, pageJson(studentPage(path.get(1), query)));
+        } else {
+            sendJson(exchange, 404, error("Unknown endpoint"));
+        }
+    }
+    
+    // GET /attendance?date=&class=, POST /attendance {date, marks: {id: bool}}
+    // or {date, studentId, present}
+    private void routeAttendance(HttpExchange exchange, String method, Map<String, String> query) throws IOException {
+        if (method.equals("POST")) {
+            Map<String, Object> body = readObject(exchange);
+            String date = optionalString(body, "date");
+            if (date == null || date.isEmpty()) {
+                date = manager.getCurrentDate();
+            }
+            if (!manager.isValidDate(date)) {
+                throw new IllegalArgumentException("Invalid date format. Use dd-MM-yyyy");
+            }
+            
+            Map<String, Boolean> marks = new LinkedHashMap<>();
+            Object markValues = body.get("marks");
+            if (markValues instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) markValues).entrySet()) {
+                    if (!(entry.getValue() instanceof Boolean)) {
+                        throw new IllegalArgumentException("Mark for " + entry.getKey() + " must be true or false");
+                    }
+                    marks.put(String.valueOf(entry.getKey()), (Boolean) entry.getValue());
+                }
+            } else {
+                Object present = body.get("present");
+                if (!(present instanceof Boolean)) {
+                    throw new IllegalArgumentException("Expected either marks or studentId and present");
+                }
+                marks.put(requireString(body, "studentId"), (Boolean) present);
+            }
+            
+            if (manager.markAttendanceBatch(date, marks)) {
+                sendJson(exchange, 200, Map.of("date", date, "marked", marks.size()));
+            } else {
+                sendJson(exchange, 422, error("Attendance not saved: unknown student or storage failure"));
+            }
+            return;
+        }
+        
+        requireMethod(method, "GET");
+        String date = query.getOrDefault("date", manager.getCurrentDate());
+        if (!manager.isValidDate(date)) {
+            throw new IllegalArgumentException("Invalid date format. Use dd-MM-yyyy");
+        }
+        String className = query.get("class");
+        Map<String, Boolean> attendance = className != null
+                ? manager.getClassAttendanceForDate(className, date)
+                : manager.getAttendanceForDate(date);
+        sendJson(exchange, 200, Map.of("date", date, "attendance", attendance));
+    }
+    
+    // POST /attendance/self-mark {studentId?, date?}: a student checking in, through the
+    // batching ingest queue, as the student named in the token. 503 with Retry-After when
+    // the queue is full.
+    private void selfMark(HttpExchange exchange, String method, ApiAuth.Principal principal) throws IOException {
+        requireMethod(method, "POST");
+        Map<String, Object> body = readObject(exchange);
+        String studentId = principal.getStudentId();
+        if (studentId == null) {
+            throw new SecurityException("Token is not linked to a student");
+        }
+        String requested = optionalString(body, "studentId");
+        if (requested != null && !requested.trim().equals(studentId)) {
+            throw new SecurityException("Students can only mark their own attendance");
+        }
+        String date = optionalString(body, "date");
+        if (date == null || date.isEmpty()) {
+            date = manager.getCurrentDate();
+        }
+        if (!manager.isValidDate(date)) {
+            throw new IllegalArgumentException("Invalid date format. Use dd-MM-yyyy");
+        }
+        CheckInQueue.Outcome outcome = checkIns.submit(studentId, date, true).join();
+        switch (outcome) {
+            case MARKED:
+                sendJson(exchange, 200, Map.of("ok", true, "studentId", studentId, "date", date));
+                return;
+            case UNKNOWN_STUDENT:
+                sendJson(exchange, 404, error("Student not found"));
+                return;
+            case CLOSED_DATE:
+                sendJson(exchange, 422, error("Attendance before " + manager.getArchiveBoundary() + " is archived"));
+                return;
+            case REJECTED:
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendJson(exchange, 503, error("Too many check-ins, try again shortly"));
+                return;
+            default:
+                sendJson(exchange, 500, error("Attendance not saved: storage failure"));
+        }
+    }
+    
+    // GET /reports/student/{id}, and streamed: /reports/class/{name}, /reports/overall,
+    // /reports/students, each with ?format=json|csv|text (default json)
+    private void routeReports(HttpExchange exchange, String method, List<String> path, Map<String, String> query) throws IOException {
+        requireMethod(method, "GET");
+        String type = path.size() > 1 ? path.get(1) : "";
+        if (type.equals("student") && path.size() == 3) {
+            Map<String, Integer> summary = manager.getAttendanceSummary(path.get(2));
+            if (summary == null) {
+                sendJson(exchange, 404, error("Student not found"));
+                return;
+            }
+            Map<String, Object> report = new LinkedHashMap<>(summary);
+            report.put("report", manager.generateIndividualReport(path.get(2)));
+            sendJson(exchange, 200, report);
+            return;
+        }
+        
+        if (type.equals("at-risk") && path.size() == 2) {
+            sendJson(exchange, 200, atRiskJson(query));
+            return;
+        }
+        
+        ReportWriter.Format format = ReportWriter.Format.fromName(query.getOrDefault("format", "json"));
+        if (type.equals("class") && path.size() == 3) {
+            String className = path.get(2);
+            if (!manager.getAllClasses().contains(className)) {
+                sendJson(exchange, 404, error("No students found in class: " + className));
+                return;
+            }
+            stream(exchange, format, out -> manager.writeClassReport(className, out, format));
+        } else if (type.equals("overall") && path.size() == 2) {
+            stream(exchange, format, out -> manager.writeOverallStats(out, format));
+        } else if (type.equals("students") && path.size() == 2) {
+            stream(exchange, format, out -> manager.writeStudentsReport(out, format));
+        } else {
+            sendJson(exchange, 404, error("Unknown report"));
+        }
+    }
+    
+    // GET /reports/at-risk?below=75&class=&limit=100: students under the percentage, lowest
+    // first. order=lowest|highest (with limit) ranks instead of filtering.
+    private Map<String, Object> atRiskJson(Map<String, String> query) {
+        String className = query.get("class");
+        int limit = Math.min(intParameter(query, "limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+        String order = query.get("order");
+        Map<String, Object> json = new LinkedHashMap<>();
+        List<Student> students;
+        if (order == null) {
+            double below = doubleParameter(query, "below", 75.0);
+            json.put("below", below);
+            students = manager.getStudentsBelow(below, className, limit);
+        } else if (order.equals("lowest")) {
+            students = manager.getLowestAttendance(className, limit);
+        } else if (order.equals("highest")) {
+            students = manager.getHighestAttendance(className, limit);
+        } else {
+            throw new IllegalArgumentException("order must be lowest or highest");
+        }
+        List<Object> rows = new ArrayList<>(students.size());
+        for (Student student : students) {
+            rows.add(studentJson(student));
+        }
+        json.put("students", rows);
+        return json;
+    }
+    
+    // POST /import/students, POST /import/attendance with a CSV body (see AttendanceCsv)
+    private void routeImport(HttpExchange exchange, String method, List<String> path) throws IOException {
+        requireMethod(method, "POST");
+        String type = path.size() == 2 ? path.get(1) : "";
+        if (!type.equals("students") && !type.equals("attendance")) {
+            sendJson(exchange, 404, error("Unknown import"));
+            return;
+        }
+        AttendanceCsv csv = new AttendanceCsv(manager);
+        AttendanceCsv.ImportResult result;
+        try (InputStreamReader in = new InputStreamReader(limitedBody(exchange, MAX_IMPORT_BYTES), StandardCharsets.UTF_8)) {
+            result = type.equals("students") ? csv.importStudents(in) : csv.importAttendance(in);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("rows", result.getRows());
+        body.put("imported", result.getImported());
+        body.put("errorCount", result.getErrorCount());
+        body.put("errors", result.getErrors());
+        sendJson(exchange, 200, body);
+    }
+    
+    // GET /archive lists the archived terms, POST /archive?before=dd-MM-yyyy closes the term
+    // ending the day before that date
+    private void routeArchive(HttpExchange exchange, String method, Map<String, String> query) throws IOException {
+        if (method.equals("POST")) {
+            String before = query.get("before");
+            if (before == null || !manager.isValidDate(before)) {
+                throw new IllegalArgumentException("Expected before=dd-MM-yyyy");
+            }
+            AttendanceArchive.Term term = manager.archiveTerm(before);
+            if (term == null) {
+                sendJson(exchange, 500, error("Archive not written: storage failure"));
+            } else {
+                sendJson(exchange, 201, termJson(term));
+            }
+            return;
+        }
+        requireMethod(method, "GET");
+        List<Map<String, Object>> terms = new ArrayList<>();
+        for (AttendanceArchive.Term term : manager.getArchivedTerms()) {
+            terms.add(termJson(term));
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("boundary", manager.getArchiveBoundary());
+        json.put("terms", terms);
+        sendJson(exchange, 200, json);
+    }
+    
+    private static Map<String, Object> termJson(AttendanceArchive.Term term) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("from", term.getFromDate());
+        json.put("to", term.getToDate());
+        json.put("students", term.getStudents());
+        json.put("recordedDays", term.getRecordedDays());
+        json.put("presentDays", term.getPresentDays());
+        json.put("attendancePercentage", term.getPercentage());
+        return json;
+    }
+    
+    // GET /export/students, GET /export/attendance, streamed as CSV
+    private void routeExport(HttpExchange exchange, String method, List<String> path) throws IOException {
+        requireMethod(method, "GET");
+        String type = path.size() == 2 ? path.get(1) : "";
+        if (!type.equals("students") && !type.equals("attendance")) {
+            sendJson(exchange, 404, error("Unknown export"));
+            return;
+        }
+        AttendanceCsv csv = new AttendanceCsv(manager);
+        stream(exchange, ReportWriter.Format.CSV, type.equals("students") ? csv::exportStudents : csv::exportAttendance);
+    }
+    
+    private interface StreamBody {
+        void writeTo(Writer out) throws IOException;
+    }
+    
+    // Chunked response: rows reach the client as the buffer fills, before the report is done.
+    // The writer is closed only once the body is complete; see handle for a failure part-way.
+    private void stream(HttpExchange exchange, ReportWriter.Format format, StreamBody body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        allowOrigin(exchange);
+        exchange.sendResponseHeaders(200, 0);
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16384);
+        body.writeTo(out);
+        out.close();
+    }
+    
+    // GET /events?class=: server-sent events, one JSON AttendanceEvent per message, until the
+    // client disconnects. The request thread only waits and sends keep-alive comments (which
+    // is also how a silent disconnect is noticed); events are written by the bus as the
+    // client takes them, so a client that falls behind BUFFER_SIZE events misses some.
+    private void streamEvents(HttpExchange exchange, String className) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        allowOrigin(exchange);
+        exchange.sendResponseHeaders(200, 0);
+        EventStream stream = new EventStream(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), className);
+        manager.subscribe(stream);
+        try {
+            while (!stream.awaitEnd(EVENT_KEEPALIVE_SECONDS)) {
+                stream.write(": keep-alive\n\n");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stream.cancel();
+        }
+    }
+    
+    private static Map<String, Object> eventJson(AttendanceEvent event) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("sequence", event.getSequence());
+        json.put("type", event.getType().name());
+        json.put("timestamp", event.getTimestamp());
+        if (event.getStudentId() != null) {
+            json.put("studentId", event.getStudentId());
+        }
+        if (event.getClassName() != null) {
+            json.put("className", event.getClassName());
+        }
+        if (event.getDate() != null) {
+            json.put("date", event.getDate());
+            List<Object> marks = new ArrayList<>(event.getMarks().size());
+            for (AttendanceEvent.Mark mark : event.getMarks()) {
+                Map<String, Object> markJson = new LinkedHashMap<>();
+                markJson.put("studentId", mark.getStudentId());
+                markJson.put("className", mark.getClassName());
+                markJson.put("present", mark.isPresent());
+                markJson.put("checkIn", mark.isCheckIn());
+                marks.add(markJson);
+            }
+            json.put("marks", marks);
+            json.put("day", tallyJson(event.getDayTally()));
+            Map<String, Object> classes = new LinkedHashMap<>();
+            for (Map.Entry<String, AttendanceEvent.Tally> entry : event.getClassTallies().entrySet()) {
+                classes.put(entry.getKey(), tallyJson(entry.getValue()));
+            }
+            json.put("classes", classes);
+        }
+        AttendanceEvent.Crossing crossing = event.getCrossing();
+        if (crossing != null) {
+            json.put("threshold", crossing.getThreshold());
+            json.put("below", crossing.isBelow());
+            json.put("previousPercentage", crossing.getPreviousPercentage());
+            json.put("percentage", crossing.getPercentage());
+        }
+        return json;
+    }
+    
+    private static Map<String, Object> tallyJson(AttendanceEvent.Tally tally) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("recorded", tally.getRecorded());
+        json.put("present", tally.getPresent());
+        json.put("percentage", tally.getPercentage());
+        return json;
+    }
+    
+    // GET /stats/trend?from=&to=&class=&period=day|week|month (default: the last 30 days, daily)
+    private Map<String, Object> trendJson(Map<String, String> query) {
+        String to = query.getOrDefault("to", manager.getCurrentDate());
+        String from = query.get("from");
+        if (from == null && manager.isValidDate(to)) {
+            from = AttendanceRecord.toDate(AttendanceRecord.toEpochDay(to) - 29);
+        }
+        requireDates(from, to);
+        ChronoUnit period;
+        switch (query.getOrDefault("period", "day")) {
+            case "day":
+                period = ChronoUnit.DAYS;
+                break;
+            case "week":
+                period = ChronoUnit.WEEKS;
+                break;
+            case "month":
+                period = ChronoUnit.MONTHS;
+                break;
+            default:
+                throw new IllegalArgumentException("period must be day, week or month");
+        }
+        Map<String, Object> trend = new LinkedHashMap<>();
+        trend.put("from", from);
+        trend.put("to", to);
+        trend.put("className", query.get("class"));
+        trend.put("attendance", manager.getAttendanceTrend(query.get("class"), from, to, period));
+        return trend;
+    }
+    
+    private void requireDates(String... dates) {
+        for (String date : dates) {
+            if (date == null || !manager.isValidDate(date)) {
+                throw new IllegalArgumentException("Invalid date format. Use dd-MM-yyyy");
+            }
+        }
+    }
+    
+    // GET /stats/campus: exact per-class figures from one pass over every student
+    private Map<String, Object> campusJson() {
+        CampusStats campus = manager.getCampusStats();
+        Map<String, Object> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, CampusStats.ClassStats> entry : campus.getClasses().entrySet()) {
+            classes.put(entry.getKey(), entry.getValue().toMap());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("date", campus.getDate());
+        stats.put("overall", campus.getOverall().toMap());
+        stats.put("classes", classes);
+        return stats;
+    }
+    
+    private Map<String, Object> statsJson() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalStudents", manager.getStudentCount());
+        stats.put("totalClasses", manager.getTotalClasses());
+        stats.put("overallAttendance", manager.getOverallAttendancePercentage());
+        stats.put("todayAttendance", manager.getTodayAttendancePercentage());
+        stats.put("reportCache", manager.getReportCacheStats());
+        return stats;
+    }
+    
+    private static Map<String, Object> studentJson(Student student) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("studentId", student.getStudentId());
+        json.put("name", student.getName());
+        json.put("email", student.getEmail());
+        json.put("className", student.getClassName());
+        json.put("totalClasses", student.getTotalClasses());
+        json.put("presentClasses", student.getPresentClasses());
+        json.put("attendancePercentage", student.getAttendancePercentage());
+        return json;
+    }
+    
+    // Listings are paged: limit (default 100, at most MAX_PAGE_SIZE) rows in student id
+    // order, resumed with the returned nextPageToken. q filters by search; fields picks
+    // the JSON fields (studentId,name,email,className,totalClasses,presentClasses,
+    // attendancePercentage).
+    private StudentPage studentPage(String className, Map<String, String> query) {
+        int limit = Math.min(intParameter(query, "limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+        Set<StudentPage.Field> fields = StudentPage.Field.parse(query.get("fields"));
+        String search = query.get("q");
+        if (search != null) {
+            if (className != null) {
+                throw new IllegalArgumentException("Use either q or class");
+            }
+            return manager.searchStudents(search, query.get("pageToken"), limit, fields);
+        }
+        return manager.listStudents(className, query.get("pageToken"), limit, fields);
+    }
+    
+    private static Map<String, Object> pageJson(StudentPage page) {
+        List<Object> rows = new ArrayList<>(page.getRows().size());
+        for (StudentPage.Row row : page.getRows()) {
+            rows.add(row.toMap());
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("students", rows);
+        json.put("totalCount", page.getTotalCount());
+        json.put("nextPageToken", page.getNextPageToken());
+        return json;
+    }
+    
+    private static Map<String, Object> error(String message) {
+        return Map.of("error", message != null ? message : "Bad request");
+    }
+    
+    private static void requireRole(ApiAuth.Principal principal, ApiAuth.Role... roles) {
+        if (!principal.hasRole(roles)) {
+            throw new SecurityException("Forbidden");
+        }
+    }
+    
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new MethodNotAllowedException("Method " + method + " not supported here");
+        }
+    }
+    
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+    
+    private static double doubleParameter(Map<String, String> query, String name, double defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+    
+    private static String requireString(Map<String, Object> body, String field) {
+        String value = optionalString(body, field);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing field: " + field);
+        }
+        return value.trim();
+    }
+    
+    private static String optionalString(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        return value != null ? String.valueOf(value) : null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        try (InputStream in = limitedBody(exchange, MAX_BODY_BYTES)) {
+            Object body = Json.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            if (!(body instanceof Map)) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            return (Map<String, Object>) body;
+        }
+    }
+    
+    // The request body, refused with 413 past limit bytes: before reading when Content-Length
+    // is over it, otherwise once a chunked body grows past it. Import rows read before
+    // that point have already been applied.
+    private static InputStream limitedBody(HttpExchange exchange, long limit) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            long declared;
+            try {
+                declared = Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid Content-Length");
+            }
+            if (declared > limit) {
+                throw new PayloadTooLargeException(limit);
+            }
+        }
+        return new FilterInputStream(exchange.getRequestBody()) {
+            private long remaining = limit;
+            
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    take(1);
+                }
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    take(n);
+                }
+                return n;
+            }
+            
+            private void take(int n) {
+                remaining -= n;
+                if (remaining < 0) {
+                    throw new PayloadTooLargeException(limit);
+                }
+            }
+        };
+    }
+    
+    private static List<String> pathSegments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getRawPath().substring("/api/".length());
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+            }
+        }
+        return segments;
+    }
+    
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int split = pair.indexOf('=');
+                if (split > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+    
+    // Thrown by requireMethod; handle answers it with 405.
+    private static final class MethodNotAllowedException extends RuntimeException {
+        MethodNotAllowedException(String message) {
+            super(message);
+        }
+    }
+    
+    // Thrown while reading a request body over its limit; handle answers it with 413.
+    private static final class PayloadTooLargeException extends RuntimeException {
+        PayloadTooLargeException(long limit) {
+            super("Request body exceeds " + limit + " bytes");
+        }
+    }
+    
+    // One SSE client. It asks the bus for one event at a time, so a slow connection holds
+    // back only its own buffer; events for other classes are skipped.
+    private static final class EventStream implements Flow.Subscriber<AttendanceEvent> {
+        private final Writer out;
+        private final String className;
+        private final CountDownLatch ended;
+        private volatile Flow.Subscription subscription;
+        
+        EventStream(Writer out, String className) {
+            this.out = out;
+            this.className = className;
+            this.ended = new CountDownLatch(1);
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+        
+        @Override
+        public void onNext(AttendanceEvent event) {
+            if (matches(event)) {
+                write("id: " + event.getSequence() + "\ndata: " + Json.toJson(eventJson(event)) + "\n\n");
+            }
+            Flow.Subscription current = subscription;
+            if (current != null && ended.getCount() > 0) {
+                current.request(1);
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            ended.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            ended.countDown();
+        }
+        
+        boolean awaitEnd(long seconds) throws InterruptedException {
+            return ended.await(seconds, TimeUnit.SECONDS);
+        }
+        
+        synchronized void write(String message) {
+            if (ended.getCount() == 0) {
+                return;
+            }
+            try {
+                out.write(message);
+                out.flush();
+            } catch (IOException e) {
+                cancel();
+            }
+        }
+        
+        void cancel() {
+            ended.countDown();
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+        
+        private boolean matches(AttendanceEvent event) {
+            if (className == null || className.equals(event.getClassName())) {
+                return true;
+            }
+            return event.getClassTallies().containsKey(className);
+        }
+    }
+    
+    // CORS preflight: browsers ask before sending the Authorization header cross-origin.
+    private void preflight(HttpExchange exchange) throws IOException {
+        if (allowOrigin(exchange)) {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Authorization, Content-Type");
+            exchange.getResponseHeaders().set("Access-Control-Max-Age", "600");
+        }
+        exchange.sendResponseHeaders(204, -1);
+    }
+    
+    // Only the configured origin may read responses from a browser; false when there is none.
+    private boolean allowOrigin(HttpExchange exchange) {
+        if (allowedOrigin == null) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", allowedOrigin);
+        exchange.getResponseHeaders().set("Vary", "Origin");
+        return true;
+    }
+    
+    // Once stream has sent its 200 a second response is impossible, so the error aborts the
+    // exchange instead and the client sees a truncated body rather than a complete one.
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            throw new IOException("Response aborted after it started: " + message);
+        }
+        sendJson(exchange, status, error(message));
+    }
+    
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        allowOrigin(exchange);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,560 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+// Versioned binary snapshot of every student, replacing Java serialization. Layout:
+//
+//   header   magic "AMSS", version, generation, student count, section table
+//            (type, offset, length, CRC32 per section), header CRC32
+//   CLASSES  class-name string table (varint length + UTF-8 per name)
+//   STUDENTS one record per student, sorted by id: id, (version 4) a byte flagging a
+//            null name (1) or email (2), name, email (varint length + UTF-8, empty when
+//            null), varint class index, zigzag varint first bitset word,
+//            varint word count, then the recorded and present bitset words of the
+//            attendance history, then (version 3) varint days recorded and present in
+//            archived terms
+//   INDEX    per record in id order, its offset in STUDENTS and (version 5) the CRC32 of
+//            the record; offsets are 8 bytes from version 5, 4 bytes before
+//   REMOVED  (version 2) ids deleted since the previous file; empty in full snapshots
+//
+// The same format holds the journal's delta segments: the students changed since the
+// previous checkpoint plus the ids removed in that time. Version 1 to 4 files still load,
+// with empty strings for null fields before version 4.
+//
+// The file is read through memory-mapped sections; STUDENTS is mapped in windows of up to
+// MAX_WINDOW bytes cut at record boundaries, so it may exceed 2 GB. Opening the file checks
+// the header, class table and index; find() then reads one student by binary search over
+// the index, checking only that record's CRC, so lookups can be served before the rest is
+// decoded. readAll() verifies the whole section and decodes it in parallel chunks.
+public final class AttendanceSnapshot implements Closeable {
+    private static final int MAGIC = 0x414d5353; // "AMSS"
+    private static final int VERSION = 5;
+    private static final int NULL_NAME = 1;
+    private static final int NULL_EMAIL = 2;
+    private static final int CLASSES = 1;
+    private static final int STUDENTS = 2;
+    private static final int INDEX = 3;
+    private static final int REMOVED = 4;
+    private static final int SECTION_COUNT = 4;
+    private static final int HEADER_SIZE = headerSize(SECTION_COUNT);
+    private static final int DECODE_CHUNK = 4096;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    
+    private final File file;
+    private final FileChannel channel;
+    private final long generation;
+    private final int studentCount;
+    private final String[] classNames;
+    private final MappedByteBuffer[] windows; // STUDENTS, in order
+    private final long[] windowStarts; // section offset of each window
+    private final long studentsLength;
+    private final MappedByteBuffer index;
+    private final int studentsChecksum;
+    private final List<String> removed;
+    private final int version;
+    private volatile boolean studentsVerified;
+    
+    private AttendanceSnapshot(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < headerSize(3) || header.getInt() != MAGIC) {
+                throw new IOException("Not an attendance snapshot: " + file);
+            }
+            this.version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            int sectionCount = version == 1 ? 3 : SECTION_COUNT;
+            int headerSize = headerSize(sectionCount);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, headerSize - 4);
+            if (header.remaining() < headerSize - 8 || header.getInt(headerSize - 4) != (int) crc.getValue()) {
+                throw new IOException("Corrupt snapshot header: " + file);
+            }
+            this.generation = header.getLong();
+            this.studentCount = header.getInt();
+            header.getInt(); // section count
+            
+            MappedByteBuffer[] sections = new MappedByteBuffer[SECTION_COUNT + 1];
+            int[] checksums = new int[SECTION_COUNT + 1];
+            long studentsOffset = -1;
+            long studentsLength = 0;
+            for (int i = 0; i < sectionCount; i++) {
+                int type = header.getInt();
+                long offset = header.getLong();
+                long length = header.getLong();
+                int checksum = header.getInt();
+                if (type < 1 || type > sectionCount || offset < 0 || length < 0 || offset + length > channel.size()
+                        || (type != STUDENTS && length > Integer.MAX_VALUE)) {
+                    throw new IOException("Corrupt snapshot section table: " + file);
+                }
+                if (type == STUDENTS) {
+                    studentsOffset = offset;
+                    studentsLength = length;
+                } else {
+                    sections[type] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+                checksums[type] = checksum;
+            }
+            if (studentsOffset < 0 || sections[CLASSES] == null || sections[INDEX] == null) {
+                throw new IOException("Corrupt snapshot section table: " + file);
+            }
+            verify(sections[CLASSES], checksums[CLASSES], "class table");
+            verify(sections[INDEX], checksums[INDEX], "index");
+            if (sections[REMOVED] != null) {
+                verify(sections[REMOVED], checksums[REMOVED], "removed ids");
+                String[] removedIds = new String[readVarint(sections[REMOVED])];
+                for (int i = 0; i < removedIds.length; i++) {
+                    removedIds[i] = readString(sections[REMOVED]);
+                }
+                this.removed = Collections.unmodifiableList(Arrays.asList(removedIds));
+            } else {
+                this.removed = Collections.emptyList();
+            }
+            
+            this.classNames = new String[readVarint(sections[CLASSES])];
+            for (int i = 0; i < classNames.length; i++) {
+                classNames[i] = readString(sections[CLASSES]);
+            }
+            this.index = sections[INDEX];
+            int indexEntry = version >= 5 ? 12 : 4;
+            this.studentsChecksum = checksums[STUDENTS];
+            this.studentsLength = studentsLength;
+            if (index.capacity() != (long) studentCount * indexEntry) {
+                throw new IOException("Corrupt snapshot index: " + file);
+            }
+            
+            // Cut the records into windows that each fit one mapping.
+            List<Long> starts = new ArrayList<>();
+            long start = 0;
+            starts.add(start);
+            while (studentsLength - start > MAX_WINDOW) {
+                long end = offset(lastRecordAtOrBefore(start + MAX_WINDOW));
+                if (end <= start) {
+                    throw new IOException("Snapshot record larger than " + MAX_WINDOW + " bytes: " + file);
+                }
+                start = end;
+                starts.add(start);
+            }
+            this.windowStarts = new long[starts.size()];
+            this.windows = new MappedByteBuffer[starts.size()];
+            for (int i = 0; i < windows.length; i++) {
+                windowStarts[i] = starts.get(i);
+                long end = i + 1 < windows.length ? starts.get(i + 1) : studentsLength;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, studentsOffset + windowStarts[i], end - windowStarts[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    public static AttendanceSnapshot open(File file) throws IOException {
+        return new AttendanceSnapshot(file);
+    }
+    
+    // True when the file starts with the snapshot magic; false for legacy Java-serialized
+    // snapshots and empty or missing files.
+    public static boolean isSnapshot(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+    
+    // Writes the students to the file, which is created or replaced. Does not fsync.
+    public static void write(File file, long generation, Collection<Student> students) throws IOException {
+        write(file, generation, students, Collections.emptyList());
+    }
+    
+    // A delta segment: the given (changed) students plus the ids removed since the last one.
+    public static void write(File file, long generation, Collection<Student> students, Collection<String> removed) throws IOException {
+        Student[] sorted = students.toArray(new Student[0]);
+        Arrays.sort(sorted, Comparator.comparing(Student::getStudentId));
+        Map<String, Integer> classIndexes = new LinkedHashMap<>();
+        for (Student student : sorted) {
+            classIndexes.putIfAbsent(nullToEmpty(student.getClassName()), classIndexes.size());
+        }
+        
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SectionWriter writer = new SectionWriter(out, HEADER_SIZE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(sorted.length).putInt(SECTION_COUNT);
+            
+            writer.begin();
+            writer.putVarint(classIndexes.size());
+            for (String className : classIndexes.keySet()) {
+                writer.putString(className);
+            }
+            writer.end(CLASSES, header);
+            
+            long[] offsets = new long[sorted.length];
+            int[] checksums = new int[sorted.length];
+            writer.begin();
+            for (int i = 0; i < sorted.length; i++) {
+                Student student = sorted[i];
+                offsets[i] = writer.sectionPosition();
+                writer.beginRecord();
+                writer.putString(student.getStudentId());
+                writer.putByte((student.getName() == null ? NULL_NAME : 0) | (student.getEmail() == null ? NULL_EMAIL : 0));
+                writer.putString(nullToEmpty(student.getName()));
+                writer.putString(nullToEmpty(student.getEmail()));
+                writer.putVarint(classIndexes.get(nullToEmpty(student.getClassName())));
+                AttendanceRecord record = student.getAttendanceRecord();
+                long[] recorded;
+                long[] present;
+                int firstDay;
+                int archivedRecorded;
+                int archivedPresent;
+                synchronized (record) {
+                    firstDay = record.getFirstDay();
+                    recorded = record.getRecordedWords();
+                    present = record.getPresentWords();
+                    archivedRecorded = record.getArchivedRecordedCount();
+                    archivedPresent = record.getArchivedPresentCount();
+                }
+                writer.putVarint(zigzag(Math.floorDiv(firstDay, 64)));
+                writer.putVarint(recorded.length);
+                for (int word = 0; word < recorded.length; word++) {
+                    writer.putLong(recorded[word]);
+                    writer.putLong(present[word]);
+                }
+                writer.putVarint(archivedRecorded);
+                writer.putVarint(archivedPresent);
+                checksums[i] = writer.endRecord();
+            }
+            writer.end(STUDENTS, header);
+            
+            writer.begin();
+            for (int i = 0; i < sorted.length; i++) {
+                writer.putLong(offsets[i]);
+                writer.putInt(checksums[i]);
+            }
+            writer.end(INDEX, header);
+            
+            writer.begin();
+            writer.putVarint(removed.size());
+            for (String studentId : removed) {
+                writer.putString(studentId);
+            }
+            writer.end(REMOVED, header);
+            
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_SIZE - 4);
+            header.putInt((int) crc.getValue());
+            header.flip();
+            out.write(header, 0);
+        }
+    }
+    
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public int size() {
+        return studentCount;
+    }
+    
+    // Ids to drop before applying this file's students; empty for full snapshots.
+    public List<String> getRemoved() {
+        return removed;
+    }
+    
+    // Binary search over the id-sorted index; decodes only the matching record, after
+    // checking its CRC (version 5) or, for older files, the whole record section's.
+    public Student find(String studentId) throws IOException {
+        if (version < 5) {
+            verifyStudents();
+        }
+        try {
+            int low = 0;
+            int high = studentCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = readString(record(middle)).compareTo(studentId);
+                if (comparison == 0) {
+                    if (version >= 5) {
+                        verifyRecord(middle);
+                    }
+                    return decode(record(middle));
+                } else if (comparison < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return null;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot records in " + file + ": " + e.getMessage(), e);
+        }
+    }
+    
+    // Every student in id order, decoded in parallel chunks.
+    public List<Student> readAll() throws IOException {
+        verifyStudents();
+        Student[] decoded = new Student[studentCount];
+        int chunks = (studentCount + DECODE_CHUNK - 1) / DECODE_CHUNK;
+        try {
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int end = Math.min(studentCount, (chunk + 1) * DECODE_CHUNK);
+                for (int i = chunk * DECODE_CHUNK; i < end; i++) {
+                    decoded[i] = decode(record(i));
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot records in " + file + ": " + e.getMessage(), e);
+        }
+        return Arrays.asList(decoded);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    private Student decode(ByteBuffer in) {
+        String studentId = readString(in);
+        int nulls = version >= 4 ? in.get() : 0;
+        String name = readString(in);
+        String email = readString(in);
+        String className = classNames[readVarint(in)];
+        if ((nulls & NULL_NAME) != 0) {
+            name = null;
+        }
+        if ((nulls & NULL_EMAIL) != 0) {
+            email = null;
+        }
+        int firstDay = unzigzag(readVarint(in)) * 64;
+        int words = readVarint(in);
+        long[] recorded = new long[words];
+        long[] present = new long[words];
+        for (int word = 0; word < words; word++) {
+            recorded[word] = in.getLong();
+            present[word] = in.getLong();
+        }
+        if (version < 3) {
+            return new Student(studentId, name, email, className, AttendanceRecord.fromWords(firstDay, recorded, present));
+        }
+        int archivedRecorded = readVarint(in);
+        int archivedPresent = readVarint(in);
+        return new Student(studentId, name, email, className,
+                AttendanceRecord.fromWords(firstDay, recorded, present, archivedRecorded, archivedPresent));
+    }
+    
+    // A buffer positioned at the i-th record, in id order.
+    private ByteBuffer record(int i) {
+        long offset = offset(i);
+        int window = windowOf(offset);
+        ByteBuffer records = windows[window].duplicate();
+        records.position((int) (offset - windowStarts[window]));
+        return records;
+    }
+    
+    private long offset(int i) {
+        return version >= 5 ? index.getLong(i * 12) : index.getInt(i * 4);
+    }
+    
+    private int lastRecordAtOrBefore(long offset) {
+        int low = 0;
+        int high = studentCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offset(middle) <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+    
+    private int windowOf(long offset) {
+        int window = Arrays.binarySearch(windowStarts, offset);
+        return window >= 0 ? window : -window - 2;
+    }
+    
+    private void verifyRecord(int i) throws IOException {
+        long end = i + 1 < studentCount ? offset(i + 1) : studentsLength;
+        ByteBuffer record = record(i);
+        record.limit(record.position() + (int) (end - offset(i)));
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != index.getInt(i * 12 + 8)) {
+            throw new IOException("Snapshot record " + i + " failed its checksum: " + file);
+        }
+    }
+    
+    // The record section is only checksummed once it is first read, so opening stays cheap.
+    private void verifyStudents() throws IOException {
+        if (!studentsVerified) {
+            CRC32 crc = new CRC32();
+            for (MappedByteBuffer window : windows) {
+                crc.update(window.duplicate());
+            }
+            if ((int) crc.getValue() != studentsChecksum) {
+                throw new IOException("Snapshot student records failed their checksum: " + file);
+            }
+            studentsVerified = true;
+        }
+    }
+    
+    private void verify(ByteBuffer section, int checksum, String name) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(section.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot " + name + " failed its checksum: " + file);
+        }
+    }
+    
+    private static int headerSize(int sectionCount) {
+        return 24 + sectionCount * 24 + 4;
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+    
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+    
+    // Buffered sequential writer that tracks each section's offset, length and CRC32.
+    private static final class SectionWriter {
+        private final FileChannel out;
+        private final ByteBuffer buffer;
+        private final CRC32 crc;
+        private final CRC32 recordCrc;
+        private long position;
+        private long sectionStart;
+        private int recordMark = -1; // where the current record's unflushed bytes start
+        
+        private SectionWriter(FileChannel out, long position) {
+            this.out = out;
+            this.buffer = ByteBuffer.allocate(1 << 20);
+            this.crc = new CRC32();
+            this.recordCrc = new CRC32();
+            this.position = position;
+        }
+        
+        private void begin() {
+            sectionStart = position;
+            crc.reset();
+        }
+        
+        private long sectionPosition() {
+            return position + buffer.position() - sectionStart;
+        }
+        
+        private void beginRecord() {
+            recordCrc.reset();
+            recordMark = buffer.position();
+        }
+        
+        // The CRC32 of the bytes written since beginRecord.
+        private int endRecord() {
+            recordCrc.update(buffer.array(), recordMark, buffer.position() - recordMark);
+            recordMark = -1;
+            return (int) recordCrc.getValue();
+        }
+        
+        private void end(int type, ByteBuffer header) throws IOException {
+            flush();
+            header.putInt(type).putLong(sectionStart).putLong(position - sectionStart).putInt((int) crc.getValue());
+        }
+        
+        private void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            for (int written = 0; written < bytes.length; ) {
+                ensure(1);
+                int count = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, count);
+                written += count;
+            }
+        }
+        
+        private void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+        
+        private void putVarint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+        
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+        
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+        
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+        
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            if (recordMark >= 0) {
+                recordCrc.update(buffer.array(), recordMark, buffer.limit() - recordMark);
+                recordMark = 0;
+            }
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Persistence backend behind AttendanceManager. Each log call records one mutation and
+// returns its sequence number; the manager applies the mutation in memory and then waits
+// (outside its locks) for awaitDurable, so a backend may commit writes in groups.
+//
+// Implementations: AttendanceJournal (append-only log plus binary snapshots, the default)
+// and SqliteAttendanceStore (the ams.db database shared with server.js).
+public interface AttendanceStore {
+    // Loads every student and starts accepting writes. Called once, before any log call.
+    List<Student> recover() throws IOException;
+    
+    // A by-id view of the stored data, opened before recover() so lookups can be answered
+    // while recovery is still decoding everything. Null when the backend has no cheap way
+    // to read one student; the manager then serves nothing until recovery is done.
+    default Lookup openLookup() throws IOException {
+        return null;
+    }
+    
+    interface Lookup extends Closeable {
+        // The stored student as a detached copy, or null when there is none.
+        Student find(String studentId) throws IOException;
+    }
+    
+    long logAddStudent(Student student) throws IOException;
+    
+    long logRemoveStudent(String studentId) throws IOException;
+    
+    long logMark(String studentId, String date, boolean present) throws IOException;
+    
+    // A whole roll call for one date, stored entirely or not at all.
+    long logMarkBatch(String date, Map<String, Boolean> marks) throws IOException;
+    
+    // Blocks until the record with the given sequence number is stored durably.
+    void awaitDurable(long sequence) throws IOException;
+    
+    // True when enough has been logged since the last checkpoint that the backend wants one.
+    boolean needsCheckpoint();
+    
+    // True when the next checkpoint should be a full snapshot rather than an incremental one.
+    boolean needsSnapshot();
+    
+    // Stores only the students changed since the last checkpoint and drops the removed ids,
+    // so the write is proportional to the change. Same locking contract as snapshot.
+    void checkpoint(Collection<Student> changed, Collection<String> removed) throws IOException;
+    
+    // Stores the full state; the caller keeps other threads from logging until it returns.
+    void snapshot(List<Student> students) throws IOException;
+    
+    // Where AttendanceArchive keeps closed terms for this store's data.
+    File getArchiveDirectory();
+    
+    void close() throws IOException;
+}
@@ -1,19 +1,55 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 public class AttendanceSystem {
+    private static final int PAGE_SIZE = 20;
+    
     private AttendanceManager manager;
     private Scanner scanner;
     
     public AttendanceSystem() {
-        this.manager = new AttendanceManager();
+        this(new AttendanceManager());
+    }
+    
+    public AttendanceSystem(AttendanceManager manager) {
+        this.manager = manager;
         this.scanner = new Scanner(System.in);
     }
     
-    public static void main(String[] args) {
-        AttendanceSystem system = new AttendanceSystem();
+    // Options: --server [port] starts the HTTP API instead of the console (see
+    // AttendanceServer for --bind and --cors-origin); --db FILE keeps the data in that
+    // SQLite database (e.g. the ams.db shared with server.js).
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            AttendanceServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        AttendanceSystem system = new AttendanceSystem(openManager(args));
         system.run();
     }
     
+    // The SQLite store when the arguments contain --db FILE, otherwise the journal files.
+    public static AttendanceManager openManager(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--db")) {
+                return new AttendanceManager(new SqliteAttendanceStore(args[i + 1]));
+            }
+        }
+        return new AttendanceManager();
+    }
+    
     public void run() {
         System.out.println("=== Welcome to Attendance Management System ===");
         System.out.println("Note: This is a backend console interface.");
@@ -49,7 +85,14 @@ public class AttendanceSystem {
                 case 8:
                     removeStudent();
                     break;
+                case 9:
+                    viewDiagnostics();
+                    break;
+                case 10:
+                    importExport();
+                    break;
                 case 0:
+                    manager.close();
                     System.out.println("Thank you for using Attendance Management System!");
                     return;
                 default:
@@ -71,6 +114,8 @@ public class AttendanceSystem {
         System.out.println("6. View Statistics");
         System.out.println("7. Search Students");
         System.out.println("8. Remove Student");
+        System.out.println("9. Diagnostics");
+        System.out.println("10. Bulk Import/Export (CSV)");
         System.out.println("0. Exit");
         System.out.println("==================");
     }
@@ -99,9 +144,9 @@ public class AttendanceSystem {
     
     private void viewAllStudents() {
         System.out.println("\n=== All Students ===");
-        List<Student> students = manager.getAllStudents();
+        int total = manager.getStudentCount();
         
-        if (students.isEmpty()) {
+        if (total == 0) {
             System.out.println("No students found.");
             return;
         }
@@ -110,14 +155,30 @@ public class AttendanceSystem {
                          "ID", "Name", "Email", "Class", "Attendance%");
         System.out.println("-".repeat(80));
         
-        for (Student student : students) {
-            System.out.printf("%-10s %-20s %-25s %-10s %-10.1f%%%n",
-                             student.getStudentId(),
-                             student.getName(),
-                             student.getEmail(),
-                             student.getClassName(),
-                             student.getAttendancePercentage());
-        }
+        // One page at a time, so a large roster is neither copied nor dumped at once.
+        Set<StudentPage.Field> fields = EnumSet.of(StudentPage.Field.NAME, StudentPage.Field.EMAIL,
+                StudentPage.Field.CLASS, StudentPage.Field.ATTENDANCE);
+        String pageToken = null;
+        int shown = 0;
+        do {
+            StudentPage page = manager.listStudents(null, pageToken, PAGE_SIZE, fields);
+            for (StudentPage.Row row : page.getRows()) {
+                System.out.printf("%-10s %-20s %-25s %-10s %-10.1f%%%n",
+                                 row.getStudentId(),
+                                 row.get(StudentPage.Field.NAME),
+                                 row.get(StudentPage.Field.EMAIL),
+                                 row.get(StudentPage.Field.CLASS),
+                                 row.get(StudentPage.Field.ATTENDANCE));
+            }
+            shown += page.getRows().size();
+            pageToken = page.getNextPageToken();
+            if (pageToken != null) {
+                String more = getStringInput("-- " + shown + " of " + page.getTotalCount() + " shown; Enter for more, q to stop: ");
+                if (more.equalsIgnoreCase("q")) {
+                    return;
+                }
+            }
+        } while (pageToken != null);
     }
     
     private void markAttendance() {
@@ -152,18 +213,27 @@ public class AttendanceSystem {
             System.out.println("Invalid date format. Please use yyyy-mm-dd format.");
             return;
         }
+        if (manager.isArchivedDate(date)) {
+            System.out.println("Attendance before " + manager.getArchiveBoundary() + " is archived and cannot be changed.");
+            return;
+        }
         
         List<Student> students = manager.getStudentsByClass(selectedClass);
         System.out.println("\nMarking attendance for class: " + selectedClass);
         System.out.println("Date: " + date);
         
+        Map<String, Boolean> marks = new LinkedHashMap<>();
         for (Student student : students) {
             String choice = getStringInput(student.getName() + " (" + student.getStudentId() + ") - Present? (y/n): ");
             boolean present = choice.toLowerCase().startsWith("y");
-            manager.markAttendance(student.getStudentId(), date, present);
+            marks.put(student.getStudentId(), present);
         }
         
-        System.out.println("Attendance marked successfully!");
+        if (manager.markAttendanceBatch(date, marks)) {
+            System.out.println("Attendance marked successfully!");
+        } else {
+            System.out.println("Failed to save attendance. No changes were made.");
+        }
     }
     
     private void viewAttendance() {
@@ -192,6 +262,7 @@ public class AttendanceSystem {
         System.out.println("1. Individual Report");
         System.out.println("2. Class Report");
         System.out.println("3. Overall Statistics");
+        System.out.println("4. At-Risk Students");
         
         int choice = getIntInput("Select report type: ");
         
@@ -217,23 +288,54 @@ public class AttendanceSystem {
             case 3:
                 System.out.println("\n" + manager.generateOverallStats());
                 break;
+            case 4:
+                viewAtRiskStudents();
+                break;
             default:
                 System.out.println("Invalid choice.");
         }
     }
     
+    private void viewAtRiskStudents() {
+        String input = getStringInput("Show students below what percentage? [75]: ");
+        double threshold;
+        try {
+            threshold = input.isEmpty() ? 75.0 : Double.parseDouble(input);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid percentage.");
+            return;
+        }
+        List<Student> students = manager.getStudentsBelow(threshold, null, Integer.MAX_VALUE);
+        System.out.println("\n=== Students Below " + String.format("%.1f%%", threshold) + " ===");
+        if (students.isEmpty()) {
+            System.out.println("No students found.");
+            return;
+        }
+        System.out.printf("%-10s %-20s %-10s %-10s%n", "ID", "Name", "Class", "Attendance%");
+        System.out.println("-".repeat(55));
+        for (Student student : students) {
+            System.out.printf("%-10s %-20s %-10s %-10.1f%%%n",
+                             student.getStudentId(),
+                             student.getName(),
+                             student.getClassName(),
+                             student.getAttendancePercentage());
+        }
+        System.out.println(students.size() + " student(s)");
+    }
+    
     private void viewStatistics() {
+        CampusStats stats = manager.getCampusStats();
         System.out.println("\n=== Statistics ===");
-        System.out.println("Total Students: " + manager.getAllStudents().size());
-        System.out.println("Total Classes: " + manager.getTotalClasses());
-        System.out.println("Overall Average Attendance: " + String.format("%.1f%%", manager.getOverallAttendancePercentage()));
-        System.out.println("Today's Attendance: " + String.format("%.1f%%", manager.getTodayAttendancePercentage()));
+        System.out.println("Total Students: " + stats.getTotalStudents());
+        System.out.println("Total Classes: " + stats.getTotalClasses());
+        System.out.println("Overall Average Attendance: " + String.format("%.1f%%", stats.getOverallAttendancePercentage()));
+        System.out.println("Today's Attendance: " + String.format("%.1f%%", stats.getTodayAttendancePercentage()));
         
         System.out.println("\nClass-wise Statistics:");
-        for (String className : manager.getAllClasses()) {
-            System.out.println("- " + className + ": " + 
-                             manager.getStudentsByClass(className).size() + " students, " +
-                             String.format("%.1f%%", manager.getClassAttendancePercentage(className)) + " average");
+        for (Map.Entry<String, CampusStats.ClassStats> entry : stats.getClasses().entrySet()) {
+            System.out.println("- " + entry.getKey() + ": " + 
+                             entry.getValue().getStudents() + " students, " +
+                             String.format("%.1f%%", entry.getValue().getAveragePercentage()) + " average");
         }
     }
     
@@ -274,6 +376,82 @@ public class AttendanceSystem {
         }
     }
     
+    private void viewDiagnostics() {
+        System.out.println("\n=== Diagnostics ===");
+        System.out.printf("%-22s %10s %12s %12s %12s %12s%n", "Operation", "Count", "p50 (ms)", "p99 (ms)", "Max (ms)", "Total (ms)");
+        System.out.println("-".repeat(86));
+        for (AttendanceMetrics.Timer timer : AttendanceMetrics.getTimers()) {
+            System.out.printf("%-22s %10d %12.3f %12.3f %12.3f %12.1f%n",
+                             timer.getOperation(),
+                             timer.getCount(),
+                             timer.percentile(0.5) / 1e6,
+                             timer.percentile(0.99) / 1e6,
+                             timer.getMaxNanos() / 1e6,
+                             timer.getTotalNanos() / 1e6);
+        }
+        
+        System.out.println();
+        for (AttendanceMetrics.Counter counter : AttendanceMetrics.getCounters()) {
+            System.out.printf("%-32s %d%n", counter.getName(), counter.get());
+        }
+        for (Map.Entry<String, Number> gauge : manager.getGauges().entrySet()) {
+            System.out.printf("%-32s %s%n", gauge.getKey(), gauge.getValue());
+        }
+        
+        String dump = getStringInput("\nPrint Prometheus text dump? (y/n): ");
+        if (dump.toLowerCase().startsWith("y")) {
+            StringWriter out = new StringWriter();
+            try {
+                manager.writeMetrics(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // StringWriter never throws
+            }
+            System.out.print(out);
+        }
+    }
+    
+    private void importExport() {
+        System.out.println("\n=== Bulk Import/Export (CSV) ===");
+        System.out.println("1. Import Students (studentId,name,email,className)");
+        System.out.println("2. Import Attendance (studentId,date,status)");
+        System.out.println("3. Export Students");
+        System.out.println("4. Export Attendance");
+        
+        int choice = getIntInput("Enter your choice: ");
+        if (choice < 1 || choice > 4) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        String file = getStringInput("File: ");
+        AttendanceCsv csv = new AttendanceCsv(manager);
+        try {
+            if (choice <= 2) {
+                AttendanceCsv.ImportResult result;
+                try (Reader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                    result = choice == 1 ? csv.importStudents(in) : csv.importAttendance(in);
+                }
+                System.out.println("Import finished: " + result);
+                for (String error : result.getErrors().subList(0, Math.min(result.getErrors().size(), 20))) {
+                    System.out.println("  " + error);
+                }
+                if (result.getErrorCount() > 20) {
+                    System.out.println("  ... and " + (result.getErrorCount() - 20) + " more");
+                }
+            } else {
+                try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+                    if (choice == 3) {
+                        csv.exportStudents(out);
+                    } else {
+                        csv.exportAttendance(out);
+                    }
+                }
+                System.out.println("Exported to " + file);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+    
     private String getStringInput(String prompt) {
         System.out.print(prompt);
         return scanner.nextLine().trim();
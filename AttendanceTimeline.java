@@ -0,0 +1,194 @@
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Per-day attendance rollups (days recorded and days present) keyed by epoch day, overall
+// and per class. Every mark adjusts one day in two maps, so a range query or trend only
+// walks the days it covers instead of every student's history.
+public class AttendanceTimeline {
+    private final ConcurrentSkipListMap<Integer, DayTally> days;
+    private final Map<String, ConcurrentSkipListMap<Integer, DayTally>> classDays;
+    
+    public AttendanceTimeline() {
+        this.days = new ConcurrentSkipListMap<>();
+        this.classDays = new ConcurrentHashMap<>();
+    }
+    
+    public void studentAdded(Student student) {
+        addHistory(student, 1);
+    }
+    
+    // Bulk studentAdded for loading a snapshot: histories are tallied into plain maps from
+    // their bitset words and every day is then published with a single merge.
+    public void studentsLoaded(Collection<Student> students) {
+        Map<String, Map<Integer, int[]>> tallies = new HashMap<>();
+        for (Student student : students) {
+            AttendanceRecord record = student.getAttendanceRecord();
+            int firstDay;
+            long[] recorded;
+            long[] present;
+            synchronized (record) {
+                firstDay = record.getFirstDay();
+                recorded = record.getRecordedWords();
+                present = record.getPresentWords();
+            }
+            Map<Integer, int[]> classTallies = tallies.computeIfAbsent(student.getClassName(), k -> new HashMap<>());
+            for (int word = 0; word < recorded.length; word++) {
+                for (long bits = recorded[word]; bits != 0; bits &= bits - 1) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    int[] tally = classTallies.computeIfAbsent(firstDay + (word << 6) + bit, k -> new int[2]);
+                    tally[0]++;
+                    tally[1] += (int) (present[word] >>> bit) & 1;
+                }
+            }
+        }
+        daysLoaded(tallies);
+    }
+    
+    // Adds {recorded, present} day tallies by class, such as those of an archived term.
+    public void daysLoaded(Map<String, ? extends Map<Integer, int[]>> tallies) {
+        for (Map.Entry<String, ? extends Map<Integer, int[]>> classEntry : tallies.entrySet()) {
+            for (Map.Entry<Integer, int[]> day : classEntry.getValue().entrySet()) {
+                add(classEntry.getKey(), day.getKey(), day.getValue()[0], day.getValue()[1]);
+            }
+        }
+    }
+    
+    public void studentRemoved(Student student) {
+        addHistory(student, -1);
+    }
+    
+    // Takes a removed student's archived days back out of the class, as returned by
+    // AttendanceArchive.withdraw; studentRemoved only covers the days still in memory.
+    public void archivedDaysRemoved(String className, Map<Integer, int[]> tallies) {
+        for (Map.Entry<Integer, int[]> day : tallies.entrySet()) {
+            add(className, day.getKey(), -day.getValue()[0], -day.getValue()[1]);
+        }
+    }
+    
+    // Called after a mark with the state the day had before it.
+    public void attendanceChanged(String className, int epochDay, int previousState, boolean present) {
+        int recordedDelta = previousState == AttendanceRecord.UNRECORDED ? 1 : 0;
+        int presentDelta = (present ? 1 : 0) - (previousState == AttendanceRecord.PRESENT ? 1 : 0);
+        add(className, epochDay, recordedDelta, presentDelta);
+    }
+    
+    public int getRecordedCount(int epochDay) {
+        DayTally tally = days.get(epochDay);
+        return tally != null ? tally.recorded : 0;
+    }
+    
+    public int getPresentCount(int epochDay) {
+        DayTally tally = days.get(epochDay);
+        return tally != null ? tally.present : 0;
+    }
+    
+    // Recorded and present counts for one day; a null className covers all classes.
+    public AttendanceEvent.Tally getTally(String className, int epochDay) {
+        Map<Integer, DayTally> series = className != null ? classDays.get(className) : days;
+        DayTally tally = series != null ? series.get(epochDay) : null;
+        return tally != null ? new AttendanceEvent.Tally(tally.recorded, tally.present) : new AttendanceEvent.Tally(0, 0);
+    }
+    
+    // Attendance percentage of every recorded day in [fromDay, toDay], grouped by DAYS, WEEKS
+    // (starting on Monday) or MONTHS and keyed by the "dd-MM-yyyy" date each period starts on.
+    // A null className covers all classes.
+    public Map<String, Double> getPercentages(String className, int fromDay, int toDay, ChronoUnit period) {
+        if (period != ChronoUnit.DAYS && period != ChronoUnit.WEEKS && period != ChronoUnit.MONTHS) {
+            throw new IllegalArgumentException("Unsupported period: " + period);
+        }
+        Map<String, Double> percentages = new LinkedHashMap<>();
+        NavigableMap<Integer, DayTally> timeline = className != null ? classDays.get(className) : days;
+        if (timeline == null || fromDay > toDay) {
+            return percentages;
+        }
+        
+        int periodStart = AttendanceRecord.NO_DAY;
+        int periodEnd = AttendanceRecord.NO_DAY;
+        int recorded = 0;
+        int present = 0;
+        for (Map.Entry<Integer, DayTally> entry : timeline.subMap(fromDay, true, toDay, true).entrySet()) {
+            int day = entry.getKey();
+            if (periodStart == AttendanceRecord.NO_DAY || day > periodEnd) {
+                if (recorded > 0) {
+                    percentages.put(AttendanceRecord.toDate(periodStart), (double) present / recorded * 100);
+                }
+                periodStart = periodStart(day, period);
+                periodEnd = periodEnd(periodStart, period);
+                recorded = 0;
+                present = 0;
+            }
+            recorded += entry.getValue().recorded;
+            present += entry.getValue().present;
+        }
+        if (recorded > 0) {
+            percentages.put(AttendanceRecord.toDate(periodStart), (double) present / recorded * 100);
+        }
+        return percentages;
+    }
+    
+    public void clear() {
+        days.clear();
+        classDays.clear();
+    }
+    
+    private void addHistory(Student student, int sign) {
+        AttendanceRecord record = student.getAttendanceRecord();
+        for (int day = record.firstRecordedDay(); day != AttendanceRecord.NO_DAY;
+                day = day == Integer.MAX_VALUE ? AttendanceRecord.NO_DAY : record.nextRecordedDay(day + 1)) {
+            int state = record.get(day);
+            if (state != AttendanceRecord.UNRECORDED) {
+                add(student.getClassName(), day, sign, state == AttendanceRecord.PRESENT ? sign : 0);
+            }
+        }
+    }
+    
+    private void add(String className, int epochDay, int recordedDelta, int presentDelta) {
+        if (recordedDelta == 0 && presentDelta == 0) {
+            return;
+        }
+        DayTally delta = new DayTally(recordedDelta, presentDelta);
+        days.merge(epochDay, delta, DayTally::plus);
+        classDays.computeIfAbsent(className, k -> new ConcurrentSkipListMap<>()).merge(epochDay, delta, DayTally::plus);
+    }
+    
+    private static int periodStart(int epochDay, ChronoUnit period) {
+        switch (period) {
+            case WEEKS:
+                return epochDay - Math.floorMod(epochDay + 3, 7); // epoch day 0 was a Thursday
+            case MONTHS:
+                return (int) LocalDate.ofEpochDay(epochDay).withDayOfMonth(1).toEpochDay();
+            default:
+                return epochDay;
+        }
+    }
+    
+    private static int periodEnd(int periodStart, ChronoUnit period) {
+        switch (period) {
+            case WEEKS:
+                return periodStart + 6;
+            case MONTHS:
+                return (int) LocalDate.ofEpochDay(periodStart).plusMonths(1).toEpochDay() - 1;
+            default:
+                return periodStart;
+        }
+    }
+    
+    private static final class DayTally {
+        private final int recorded;
+        private final int present;
+        
+        private DayTally(int recorded, int present) {
+            this.recorded = recorded;
+            this.present = present;
+        }
+        
+        // Returning null drops days that no longer have any marks.
+        private static DayTally plus(DayTally current, DayTally delta) {
+            int recorded = current.recorded + delta.recorded;
+            return recorded > 0 ? new DayTally(recorded, current.present + delta.present) : null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Running per-class and overall sums of student attendance percentages, updated on every
+// add/remove/mark so the averages are O(1) reads instead of full rescans. Totals are
+// immutable values swapped atomically, so readers never lock and never see a torn pair.
+public class AttendanceTotals {
+    private final Map<String, Totals> classTotals;
+    private final AtomicReference<Totals> overallTotals;
+    private final ConcurrentSkipListMap<Integer, Integer> totalClassesCounts; // classes held -> number of students
+    
+    public AttendanceTotals() {
+        this.classTotals = new ConcurrentHashMap<>();
+        this.overallTotals = new AtomicReference<>(Totals.EMPTY);
+        this.totalClassesCounts = new ConcurrentSkipListMap<>();
+    }
+    
+    public void studentAdded(Student student) {
+        double percentage = student.getAttendancePercentage();
+        overallTotals.updateAndGet(totals -> totals.plus(percentage));
+        classTotals.merge(student.getClassName(), Totals.EMPTY.plus(percentage), (current, added) -> current.plus(percentage));
+        totalClassesCounts.merge(student.getTotalClasses(), 1, Integer::sum);
+    }
+    
+    public void studentRemoved(Student student) {
+        double percentage = student.getAttendancePercentage();
+        overallTotals.updateAndGet(totals -> totals.minus(percentage));
+        classTotals.computeIfPresent(student.getClassName(), (k, totals) -> totals.students > 1 ? totals.minus(percentage) : null);
+        decrementTotalClasses(student.getTotalClasses());
+    }
+    
+    // Called after a mark with the values the student had before it.
+    public void attendanceChanged(Student student, double previousPercentage, int previousTotalClasses) {
+        double delta = student.getAttendancePercentage() - previousPercentage;
+        if (delta != 0.0) {
+            overallTotals.updateAndGet(totals -> totals.shift(delta));
+            classTotals.computeIfPresent(student.getClassName(), (k, totals) -> totals.shift(delta));
+        }
+        if (student.getTotalClasses() != previousTotalClasses) {
+            totalClassesCounts.merge(student.getTotalClasses(), 1, Integer::sum);
+            decrementTotalClasses(previousTotalClasses);
+        }
+    }
+    
+    public double getOverallPercentage() {
+        return overallTotals.get().average();
+    }
+    
+    public double getClassPercentage(String className) {
+        Totals totals = classTotals.get(className);
+        return totals != null ? totals.average() : 0.0;
+    }
+    
+    public int getClassSize(String className) {
+        Totals totals = classTotals.get(className);
+        return totals != null ? totals.students : 0;
+    }
+    
+    public int getMaxTotalClasses() {
+        Map.Entry<Integer, Integer> last = totalClassesCounts.lastEntry();
+        return last != null ? last.getKey() : 0;
+    }
+    
+    public void clear() {
+        classTotals.clear();
+        overallTotals.set(Totals.EMPTY);
+        totalClassesCounts.clear();
+    }
+    
+    private void decrementTotalClasses(int totalClasses) {
+        totalClassesCounts.computeIfPresent(totalClasses, (k, count) -> count > 1 ? count - 1 : null);
+    }
+    
+    private static final class Totals {
+        private static final Totals EMPTY = new Totals(0, 0.0);
+        
+        private final int students;
+        private final double percentageSum;
+        
+        private Totals(int students, double percentageSum) {
+            this.students = students;
+            this.percentageSum = percentageSum;
+        }
+        
+        private Totals plus(double percentage) {
+            return new Totals(students + 1, percentageSum + percentage);
+        }
+        
+        private Totals minus(double percentage) {
+            return students > 1 ? new Totals(students - 1, percentageSum - percentage) : EMPTY;
+        }
+        
+        private Totals shift(double delta) {
+            return new Totals(students, percentageSum + delta);
+        }
+        
+        private double average() {
+            return students == 0 ? 0.0 : percentageSum / students;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Immutable campus-wide statistics computed exactly in one pass over every student. The
+// students are split into array ranges on the common fork-join pool; each leaf fills
+// per-class accumulators and sibling results are merged on the way back up, so the pass
+// scales with the number of cores. Unlike the running AttendanceTotals (which drift by
+// floating-point rounding over millions of updates) every figure here is recomputed from
+// the attendance records. The pass does not stop writers: each student is read in one
+// consistent step, but a mark landing during the pass may or may not be counted.
+public final class CampusStats {
+    private static final int MIN_CHUNK = 1024;
+    
+    private final int day;
+    private final ClassStats overall;
+    private final Map<String, ClassStats> classes;
+    
+    private CampusStats(int day, ClassStats overall, Map<String, ClassStats> classes) {
+        this.day = day;
+        this.overall = overall;
+        this.classes = classes;
+    }
+    
+    // "Today" for getPresentOnDay is the given epoch day.
+    public static CampusStats compute(Collection<Student> students, int day) {
+        Student[] array = students.toArray(new Student[0]);
+        int chunk = Math.max(MIN_CHUNK, array.length / (ForkJoinPool.getCommonPoolParallelism() * 8));
+        Map<String, Accumulator> partials = array.length <= chunk
+                ? new AggregateTask(array, 0, array.length, chunk, day).compute()
+                : ForkJoinPool.commonPool().invoke(new AggregateTask(array, 0, array.length, chunk, day));
+        
+        Accumulator total = new Accumulator();
+        Map<String, ClassStats> classes = new TreeMap<>();
+        for (Map.Entry<String, Accumulator> entry : partials.entrySet()) {
+            total.merge(entry.getValue());
+            classes.put(entry.getKey(), entry.getValue().toStats());
+        }
+        return new CampusStats(day, total.toStats(), Collections.unmodifiableMap(classes));
+    }
+    
+    public String getDate() {
+        return AttendanceRecord.toDate(day);
+    }
+    
+    public int getTotalStudents() {
+        return overall.students;
+    }
+    
+    // The most classes any one student has a record for (as getTotalClasses).
+    public int getTotalClasses() {
+        return overall.maxTotalClasses;
+    }
+    
+    public double getOverallAttendancePercentage() {
+        return overall.averagePercentage;
+    }
+    
+    public double getTodayAttendancePercentage() {
+        return overall.students == 0 ? 0.0 : (double) overall.presentOnDay / overall.students * 100;
+    }
+    
+    public ClassStats getOverall() {
+        return overall;
+    }
+    
+    // Class name -> stats, in class name order.
+    public Map<String, ClassStats> getClasses() {
+        return classes;
+    }
+    
+    public static final class ClassStats {
+        private final int students;
+        private final double averagePercentage;
+        private final long recordedDays;
+        private final long presentDays;
+        private final int maxTotalClasses;
+        private final int presentOnDay;
+        
+        private ClassStats(int students, double averagePercentage, long recordedDays, long presentDays,
+                int maxTotalClasses, int presentOnDay) {
+            this.students = students;
+            this.averagePercentage = averagePercentage;
+            this.recordedDays = recordedDays;
+            this.presentDays = presentDays;
+            this.maxTotalClasses = maxTotalClasses;
+            this.presentOnDay = presentOnDay;
+        }
+        
+        public int getStudents() {
+            return students;
+        }
+        
+        // Mean of the students' own percentages, as getClassAttendancePercentage.
+        public double getAveragePercentage() {
+            return averagePercentage;
+        }
+        
+        // Present days over recorded days across all the students together.
+        public double getPresentRate() {
+            return recordedDays == 0 ? 0.0 : (double) presentDays / recordedDays * 100;
+        }
+        
+        public long getRecordedDays() {
+            return recordedDays;
+        }
+        
+        public long getPresentDays() {
+            return presentDays;
+        }
+        
+        public int getMaxTotalClasses() {
+            return maxTotalClasses;
+        }
+        
+        public int getPresentOnDay() {
+            return presentOnDay;
+        }
+        
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("students", students);
+            map.put("averageAttendance", averagePercentage);
+            map.put("presentRate", getPresentRate());
+            map.put("recordedDays", recordedDays);
+            map.put("presentDays", presentDays);
+            map.put("totalClasses", maxTotalClasses);
+            map.put("presentToday", presentOnDay);
+            return map;
+        }
+    }
+    
+    private static final class AggregateTask extends RecursiveTask<Map<String, Accumulator>> {
+        private static final long serialVersionUID = 1L;
+        
+        private final Student[] students;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final int day;
+        
+        private AggregateTask(Student[] students, int from, int to, int chunk, int day) {
+            this.students = students;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.day = day;
+        }
+        
+        @Override
+        protected Map<String, Accumulator> compute() {
+            if (to - from <= chunk) {
+                Map<String, Accumulator> partials = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    Student student = students[i];
+                    partials.computeIfAbsent(student.getClassName(), k -> new Accumulator()).add(student, day);
+                }
+                return partials;
+            }
+            int middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(students, from, middle, chunk, day);
+            left.fork();
+            Map<String, Accumulator> right = new AggregateTask(students, middle, to, chunk, day).compute();
+            return merge(left.join(), right);
+        }
+        
+        // Folds the smaller map into the larger one.
+        private static Map<String, Accumulator> merge(Map<String, Accumulator> a, Map<String, Accumulator> b) {
+            Map<String, Accumulator> into = a.size() >= b.size() ? a : b;
+            Map<String, Accumulator> from = into == a ? b : a;
+            for (Map.Entry<String, Accumulator> entry : from.entrySet()) {
+                Accumulator existing = into.putIfAbsent(entry.getKey(), entry.getValue());
+                if (existing != null) {
+                    existing.merge(entry.getValue());
+                }
+            }
+            return into;
+        }
+    }
+    
+    private static final class Accumulator {
+        private int students;
+        private double percentageSum;
+        private long recordedDays;
+        private long presentDays;
+        private int maxTotalClasses;
+        private int presentOnDay;
+        
+        private void add(Student student, int day) {
+            AttendanceRecord record = student.getAttendanceRecord();
+            int recorded;
+            int present;
+            boolean presentToday;
+            synchronized (record) { // the record's own lock, so a concurrent mark is seen whole
+                recorded = record.getRecordedCount();
+                present = record.getPresentCount();
+                presentToday = record.get(day) == AttendanceRecord.PRESENT;
+            }
+            students++;
+            if (recorded > 0) {
+                percentageSum += (double) present / recorded * 100;
+            }
+            recordedDays += recorded;
+            presentDays += present;
+            maxTotalClasses = Math.max(maxTotalClasses, recorded);
+            if (presentToday) {
+                presentOnDay++;
+            }
+        }
+        
+        private void merge(Accumulator other) {
+            students += other.students;
+            percentageSum += other.percentageSum;
+            recordedDays += other.recordedDays;
+            presentDays += other.presentDays;
+            maxTotalClasses = Math.max(maxTotalClasses, other.maxTotalClasses);
+            presentOnDay += other.presentOnDay;
+        }
+        
+        private ClassStats toStats() {
+            return new ClassStats(students, students == 0 ? 0.0 : percentageSum / students, recordedDays,
+                    presentDays, maxTotalClasses, presentOnDay);
+        }
+    }
+}
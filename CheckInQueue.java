@@ -0,0 +1,302 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Ingest queue for self check-ins. Producers claim slots of a bounded ring with one CAS
+// each and never lock; a single consumer thread drains whatever has arrived (up to
+// maxBatch), drops repeat check-ins for the same student and date, and applies each date
+// with one markAttendanceBatch, so a burst of thousands costs a handful of store commits.
+// While a commit waits on the disk the next batch builds up behind it. When the ring is
+// full the Backpressure policy decides between rejecting, waiting for room, or marking
+// on the caller's thread.
+public class CheckInQueue implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final int DEFAULT_MAX_BATCH = 4096;
+    public static final long DEFAULT_BLOCK_MILLIS = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    
+    public enum Backpressure {
+        REJECT,      // refuse at once
+        BLOCK,       // wait up to the block timeout for room, then refuse
+        CALLER_RUNS  // mark on the submitting thread, bypassing the queue
+    }
+    
+    public enum Outcome {
+        MARKED,
+        UNKNOWN_STUDENT,
+        CLOSED_DATE,   // the date is in an archived term
+        REJECTED,      // queue full or closed
+        FAILED         // the store could not save the batch
+    }
+    
+    private final AttendanceManager manager;
+    private final Backpressure backpressure;
+    private final long blockNanos;
+    private final int maxBatch;
+    private final int mask;
+    // Slot i is free for the producer claiming position p when sequences[i] == p, and holds
+    // that producer's check-in once it is p + 1.
+    private final CheckIn[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private volatile long head; // written by the consumer thread only
+    private final Thread consumer;
+    private volatile boolean consumerWaiting;
+    private volatile boolean closed;
+    private final AtomicInteger submitting; // producers between the closed check and their offer
+    
+    public CheckInQueue(AttendanceManager manager) {
+        this(manager, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, Backpressure.BLOCK, DEFAULT_BLOCK_MILLIS);
+    }
+    
+    // capacity is rounded up to a power of two; blockMillis only applies to BLOCK.
+    public CheckInQueue(AttendanceManager manager, int capacity, int maxBatch, Backpressure backpressure, long blockMillis) {
+        if (capacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+        int size = Integer.highestOneBit(Math.min(capacity, 1 << 30));
+        size = size < capacity ? size << 1 : size;
+        this.manager = manager;
+        this.backpressure = backpressure;
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+        this.maxBatch = maxBatch;
+        this.mask = size - 1;
+        this.slots = new CheckIn[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.tail = new AtomicLong();
+        this.submitting = new AtomicInteger();
+        this.consumer = new Thread(this::drainLoop, "attendance-check-ins");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+    
+    // Marks the student present today.
+    public CompletableFuture<Outcome> checkIn(String studentId) {
+        return submit(studentId, manager.getCurrentDate(), true);
+    }
+    
+    // Completes once the batch holding the mark is durable (or refused). Throws
+    // IllegalArgumentException for an invalid date.
+    public CompletableFuture<Outcome> submit(String studentId, String date, boolean present) {
+        CheckIn checkIn = new CheckIn(studentId, AttendanceRecord.toDate(AttendanceRecord.toEpochDay(date)), present);
+        submitting.incrementAndGet();
+        try {
+            if (closed) {
+                return reject(checkIn);
+            }
+            if (offer(checkIn)) {
+                return checkIn.result;
+            }
+            if (backpressure == Backpressure.BLOCK) {
+                long deadline = System.nanoTime() + blockNanos;
+                do {
+                    LockSupport.parkNanos(FULL_BACKOFF_NANOS);
+                    if (offer(checkIn)) {
+                        return checkIn.result;
+                    }
+                } while (!closed && System.nanoTime() - deadline < 0);
+                return reject(checkIn);
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        if (backpressure == Backpressure.CALLER_RUNS) {
+            apply(checkIn.date, Collections.singletonList(checkIn));
+            return checkIn.result;
+        }
+        return reject(checkIn);
+    }
+    
+    // Check-ins waiting for the consumer.
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+    
+    public int getCapacity() {
+        return slots.length;
+    }
+    
+    // Stops taking check-ins and waits for the queued ones to be applied.
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Producers that got past the closed check before it was set may still be offering;
+        // once none are, every claimed slot is published and nothing more can arrive.
+        while (submitting.get() > 0) {
+            LockSupport.parkNanos(FULL_BACKOFF_NANOS);
+        }
+        List<CheckIn> late = new ArrayList<>();
+        for (CheckIn checkIn; (checkIn = poll()) != null; ) {
+            late.add(checkIn);
+        }
+        if (!late.isEmpty()) {
+            commit(late);
+        }
+    }
+    
+    private boolean offer(CheckIn checkIn) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = checkIn;
+                    sequences.set(index, position + 1);
+                    AttendanceMetrics.CHECK_INS.increment();
+                    if (consumerWaiting) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // the consumer has not freed this slot yet: full
+            } else {
+                position = tail.get(); // another producer took it
+            }
+        }
+    }
+    
+    private CheckIn poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        CheckIn checkIn = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + slots.length);
+        head++;
+        return checkIn;
+    }
+    
+    private void drainLoop() {
+        List<CheckIn> batch = new ArrayList<>(Math.min(maxBatch, 1024));
+        while (true) {
+            for (CheckIn checkIn; batch.size() < maxBatch && (checkIn = poll()) != null; ) {
+                batch.add(checkIn);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+                continue;
+            }
+            if (closed && tail.get() == head) {
+                return;
+            }
+            // Producers read the flag after publishing, so one of us sees the other.
+            consumerWaiting = true;
+            if (sequences.get((int) head & mask) != head + 1 && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            consumerWaiting = false;
+        }
+    }
+    
+    private void commit(List<CheckIn> batch) {
+        long start = System.nanoTime();
+        Map<String, List<CheckIn>> byDate = new LinkedHashMap<>();
+        for (CheckIn checkIn : batch) {
+            byDate.computeIfAbsent(checkIn.date, k -> new ArrayList<>()).add(checkIn);
+        }
+        for (Map.Entry<String, List<CheckIn>> day : byDate.entrySet()) {
+            try {
+                apply(day.getKey(), day.getValue());
+            } catch (RuntimeException e) {
+                // keep draining; the callers of this date learn it failed
+                AttendanceMetrics.ERRORS.increment();
+                System.err.println("Error applying check-ins: " + e);
+                for (CheckIn checkIn : day.getValue()) {
+                    checkIn.complete(Outcome.FAILED);
+                }
+            }
+        }
+        AttendanceMetrics.CHECK_IN_BATCH.recordSince(start);
+    }
+    
+    // One date's check-ins: the last one per student wins, in a single batch commit.
+    private void apply(String date, List<CheckIn> checkIns) {
+        if (manager.isArchivedDate(date)) {
+            for (CheckIn checkIn : checkIns) {
+                checkIn.complete(Outcome.CLOSED_DATE);
+            }
+            return;
+        }
+        Map<String, Boolean> marks = new LinkedHashMap<>();
+        Map<String, Outcome> outcomes = new HashMap<>();
+        for (CheckIn checkIn : checkIns) {
+            if (marks.containsKey(checkIn.studentId)) {
+                AttendanceMetrics.CHECK_INS_DEDUPLICATED.increment();
+                marks.put(checkIn.studentId, checkIn.present);
+            } else if (outcomes.containsKey(checkIn.studentId)) {
+                AttendanceMetrics.CHECK_INS_DEDUPLICATED.increment();
+            } else if (manager.getStudentById(checkIn.studentId) == null) {
+                outcomes.put(checkIn.studentId, Outcome.UNKNOWN_STUDENT);
+            } else {
+                marks.put(checkIn.studentId, checkIn.present);
+            }
+        }
+        boolean marked = manager.markAttendanceBatch(date, marks);
+        if (!marked) {
+            // A student removed since the lookup fails the whole batch: drop those and try
+            // the rest once more. Otherwise the store failed, and retrying would only fail
+            // again.
+            boolean removed = marks.keySet().removeIf(studentId -> {
+                if (manager.getStudentById(studentId) != null) {
+                    return false;
+                }
+                outcomes.put(studentId, Outcome.UNKNOWN_STUDENT);
+                return true;
+            });
+            marked = removed && manager.markAttendanceBatch(date, marks);
+        }
+        for (String studentId : marks.keySet()) {
+            outcomes.put(studentId, marked ? Outcome.MARKED : Outcome.FAILED);
+        }
+        for (CheckIn checkIn : checkIns) {
+            checkIn.complete(outcomes.get(checkIn.studentId));
+        }
+    }
+    
+    private static CompletableFuture<Outcome> reject(CheckIn checkIn) {
+        AttendanceMetrics.CHECK_INS_REJECTED.increment();
+        checkIn.result.complete(Outcome.REJECTED);
+        return checkIn.result;
+    }
+    
+    private static final class CheckIn {
+        private final String studentId;
+        private final String date;
+        private final boolean present;
+        private final long submittedNanos;
+        private final CompletableFuture<Outcome> result;
+        
+        private CheckIn(String studentId, String date, boolean present) {
+            this.studentId = studentId;
+            this.date = date;
+            this.present = present;
+            this.submittedNanos = System.nanoTime();
+            this.result = new CompletableFuture<>();
+        }
+        
+        private void complete(Outcome outcome) {
+            AttendanceMetrics.CHECK_IN.recordSince(submittedNanos);
+            result.complete(outcome);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide dictionary of class names. Each distinct name is kept once and numbered
+// with a small int code; Student stores only the code, so however the names were read in
+// (journal replay, CSV rows, JSON bodies) a campus shares one String per class. Codes
+// are never reused or dropped, which is fine for a set as small as the class names.
+public final class ClassDictionary {
+    private static final ConcurrentHashMap<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static int size;
+    
+    private ClassDictionary() {
+    }
+    
+    // The name's code, adding it if it is new; -1 for null.
+    public static int code(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer code = CODES.get(name);
+        return code != null ? code : add(name);
+    }
+    
+    public static String name(int code) {
+        return code < 0 ? null : names[code];
+    }
+    
+    // The shared instance equal to the given name.
+    public static String canonical(String name) {
+        return name(code(name));
+    }
+    
+    public static synchronized int size() {
+        return size;
+    }
+    
+    // The array slot is written before the code is published, and the volatile write of
+    // names orders the two, so name(code) never sees an empty slot.
+    private static synchronized int add(String name) {
+        Integer existing = CODES.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = name;
+        names = current;
+        CODES.put(name, size);
+        return size++;
+    }
+}
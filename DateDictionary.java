@@ -0,0 +1,58 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Canonical "dd-MM-yyyy" strings for epoch days, and the reverse lookup. Attendance is
+// stored as epoch-day bitsets (the day number is the code); this covers the String edges,
+// so every date key handed out by attendance maps, reports and trends is one shared
+// String per day, and a date seen before is parsed with a hash lookup instead of a
+// DateTimeFormatter. Bounded: past MAX_ENTRIES days, dates are parsed and formatted afresh.
+public final class DateDictionary {
+    private static final int MAX_ENTRIES = 1 << 16; // about 180 years of days
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final ConcurrentHashMap<String, Integer> DAYS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, String> DATES = new ConcurrentHashMap<>();
+    
+    private DateDictionary() {
+    }
+    
+    // Throws DateTimeParseException for anything that is not a dd-MM-yyyy date. Dates the
+    // formatter adjusts (31-02-2024 reads as 29-02-2024) are not remembered.
+    public static int epochDay(String date) {
+        Integer day = DAYS.get(date);
+        if (day != null) {
+            return day;
+        }
+        int parsed = (int) LocalDate.parse(date, FORMAT).toEpochDay();
+        String canonical = date(parsed);
+        if (canonical.equals(date) && DAYS.size() < MAX_ENTRIES) {
+            DAYS.putIfAbsent(canonical, parsed);
+        }
+        return parsed;
+    }
+    
+    public static String date(int epochDay) {
+        String date = DATES.get(epochDay);
+        if (date != null) {
+            return date;
+        }
+        date = LocalDate.ofEpochDay(epochDay).format(FORMAT);
+        if (DATES.size() < MAX_ENTRIES) {
+            String existing = DATES.putIfAbsent(epochDay, date);
+            return existing != null ? existing : date;
+        }
+        return date;
+    }
+    
+    public static boolean isValid(String date) {
+        if (date == null) {
+            return false;
+        }
+        try {
+            epochDay(date);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
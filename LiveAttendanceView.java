@@ -0,0 +1,154 @@
+import java.util.*;
+import java.util.concurrent.Flow;
+
+// Live "who has checked in" view of one date, for the whole campus or one class. It is
+// filled once from the manager and then kept current by the event stream, so reads never
+// rescan the students. If the bus had to drop events for this view, the next read
+// refills it first. Open with AttendanceManager.openLiveView; close when done.
+public class LiveAttendanceView implements Flow.Subscriber<AttendanceEvent>, AttendanceEventBus.DropAware, AutoCloseable {
+    private final AttendanceManager manager;
+    private final String date;
+    private final String className;
+    private final Map<String, Boolean> attendance;
+    private int presentCount;
+    private volatile boolean stale;
+    private volatile Flow.Subscription subscription;
+    
+    // A null className covers every class.
+    LiveAttendanceView(AttendanceManager manager, String date, String className) {
+        this.manager = manager;
+        this.date = date;
+        this.className = className;
+        this.attendance = new HashMap<>();
+        this.stale = true;
+    }
+    
+    public String getDate() {
+        return date;
+    }
+    
+    public String getClassName() {
+        return className;
+    }
+    
+    // Student id -> present on the date, for every student in scope (as getAttendanceForDate).
+    public synchronized Map<String, Boolean> getAttendance() {
+        refreshIfStale();
+        return new HashMap<>(attendance);
+    }
+    
+    // Ids of the students marked present, in id order.
+    public synchronized List<String> getCheckedIn() {
+        refreshIfStale();
+        List<String> checkedIn = new ArrayList<>(presentCount);
+        for (Map.Entry<String, Boolean> entry : attendance.entrySet()) {
+            if (entry.getValue()) {
+                checkedIn.add(entry.getKey());
+            }
+        }
+        Collections.sort(checkedIn);
+        return checkedIn;
+    }
+    
+    public synchronized int getPresentCount() {
+        refreshIfStale();
+        return presentCount;
+    }
+    
+    public synchronized int getStudentCount() {
+        refreshIfStale();
+        return attendance.size();
+    }
+    
+    public synchronized double getPresentPercentage() {
+        refreshIfStale();
+        return attendance.isEmpty() ? 0.0 : (double) presentCount / attendance.size() * 100;
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE); // applying an event is cheap; overflow is handled by refilling
+    }
+    
+    @Override
+    public synchronized void onNext(AttendanceEvent event) {
+        switch (event.getType()) {
+            case STUDENT_ADDED: {
+                Student student = manager.getStudentById(event.getStudentId());
+                if (student != null && inScope(event.getClassName())) {
+                    put(event.getStudentId(), student.isPresent(date));
+                }
+                break;
+            }
+            case STUDENT_REMOVED:
+                if (Boolean.TRUE.equals(attendance.remove(event.getStudentId()))) {
+                    presentCount--;
+                }
+                break;
+            case ATTENDANCE_MARKED:
+            case BATCH_COMMITTED:
+                if (date.equals(event.getDate())) {
+                    for (AttendanceEvent.Mark mark : event.getMarks()) {
+                        if (inScope(mark.getClassName())) {
+                            put(mark.getStudentId(), mark.isPresent());
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        subscription = null;
+        stale = true;
+    }
+    
+    @Override
+    public void onComplete() {
+        subscription = null;
+    }
+    
+    @Override
+    public void eventsDropped() {
+        stale = true;
+    }
+    
+    @Override
+    public void close() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+            subscription = null;
+        }
+    }
+    
+    // Events that arrive while refilling are applied afterwards; each one sets a student to
+    // the state it had at that event, so the view still ends at the latest state.
+    private void refreshIfStale() {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        Map<String, Boolean> current = className != null
+                ? manager.getClassAttendanceForDate(className, date)
+                : manager.getAttendanceForDate(date);
+        attendance.clear();
+        presentCount = 0;
+        for (Map.Entry<String, Boolean> entry : current.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    private void put(String studentId, boolean present) {
+        Boolean previous = attendance.put(studentId, present);
+        presentCount += (present ? 1 : 0) - (Boolean.TRUE.equals(previous) ? 1 : 0);
+    }
+    
+    private boolean inScope(String eventClassName) {
+        return className == null || className.equals(eventClassName);
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+// Bounded LRU cache for generated reports and stats. Every entry belongs to one scope: a
+// student, a class, or the whole campus. Mutations invalidate exactly the scopes they
+// touch (a mark evicts its student, that student's class and the campus-wide entries),
+// so everything else stays cached. Size is an estimate of the retained characters.
+public class ReportCache {
+    public static final String GLOBAL = "*";
+    
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<String, Set<Key>> keysByScope;
+    private long maxBytes;
+    private long bytes;
+    private long version; // bumped by every invalidation; stale computations are not stored
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    
+    public ReportCache(long maxBytes) {
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.keysByScope = new HashMap<>();
+        this.maxBytes = maxBytes;
+    }
+    
+    public static String studentScope(String studentId) {
+        return "student:" + studentId;
+    }
+    
+    public static String classScope(String className) {
+        return "class:" + className;
+    }
+    
+    // Returns the cached value, or computes, stores and returns it. The computation runs
+    // outside the cache lock; if a scope was invalidated meanwhile, the result is returned
+    // but not kept.
+    @SuppressWarnings("unchecked")
+    public <T> T get(String scope, String kind, Supplier<T> compute) {
+        Key key = new Key(scope, kind);
+        long startVersion;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+            startVersion = version;
+        }
+        
+        T value = compute.get();
+        long size = estimateSize(key, value);
+        synchronized (this) {
+            if (version == startVersion && size <= maxBytes && !entries.containsKey(key)) {
+                entries.put(key, new Entry(value, size));
+                keysByScope.computeIfAbsent(scope, k -> new HashSet<>()).add(key);
+                bytes += size;
+                evictToLimit();
+            }
+        }
+        return value;
+    }
+    
+    public synchronized void invalidate(String scope) {
+        version++;
+        Set<Key> keys = keysByScope.remove(scope);
+        if (keys != null) {
+            for (Key key : keys) {
+                bytes -= entries.remove(key).size;
+                invalidations++;
+            }
+        }
+    }
+    
+    // A student changed: drops that student's, their class's and the campus-wide entries.
+    public void invalidateStudent(String studentId, String className) {
+        synchronized (this) {
+            invalidate(studentScope(studentId));
+            invalidate(classScope(className));
+            invalidate(GLOBAL);
+        }
+    }
+    
+    public synchronized void clear() {
+        version++;
+        entries.clear();
+        keysByScope.clear();
+        bytes = 0;
+    }
+    
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToLimit();
+    }
+    
+    // hits, misses, evictions, invalidations, entries, bytes and maxBytes.
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        stats.put("entries", (long) entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+    
+    private void evictToLimit() {
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> entry = eldest.next();
+            eldest.remove();
+            bytes -= entry.getValue().size;
+            Set<Key> scopeKeys = keysByScope.get(entry.getKey().scope);
+            if (scopeKeys != null && scopeKeys.remove(entry.getKey()) && scopeKeys.isEmpty()) {
+                keysByScope.remove(entry.getKey().scope);
+            }
+            evictions++;
+        }
+    }
+    
+    // Two bytes per character of strings plus a flat overhead for the entry and map nodes.
+    private static long estimateSize(Key key, Object value) {
+        long size = 96 + 2L * (key.scope.length() + key.kind.length());
+        if (value instanceof CharSequence) {
+            size += 2L * ((CharSequence) value).length();
+        } else if (value instanceof Map) {
+            size += 64L * ((Map<?, ?>) value).size();
+        } else if (value instanceof CampusStats) {
+            size += 160L * (((CampusStats) value).getClasses().size() + 1);
+        }
+        return size;
+    }
+    
+    private static final class Key {
+        private final String scope;
+        private final String kind;
+        
+        private Key(String scope, String kind) {
+            this.scope = scope;
+            this.kind = kind;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return scope.equals(other.scope) && kind.equals(other.kind);
+        }
+        
+        @Override
+        public int hashCode() {
+            return scope.hashCode() * 31 + kind.hashCode();
+        }
+    }
+    
+    private static final class Entry {
+        private final Object value;
+        private final long size;
+        
+        private Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
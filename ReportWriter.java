@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+// Streams a report straight to a Writer as it is produced: a title, some summary
+// fields, then tables of rows. Nothing is buffered beyond the current row, so reports
+// of any size run in constant memory and the first bytes go out immediately.
+public abstract class ReportWriter {
+    public enum Format {
+        TEXT, CSV, JSON;
+        
+        public static Format fromName(String name) {
+            if (name == null || name.isEmpty()) {
+                return TEXT;
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown report format: " + name);
+            }
+        }
+        
+        public String getContentType() {
+            switch (this) {
+                case CSV:
+                    return "text/csv; charset=utf-8";
+                case JSON:
+                    return "application/json; charset=utf-8";
+                default:
+                    return "text/plain; charset=utf-8";
+            }
+        }
+    }
+    
+    protected final Writer out;
+    
+    protected ReportWriter(Writer out) {
+        this.out = out;
+    }
+    
+    public static ReportWriter create(Writer out, Format format) {
+        switch (format) {
+            case CSV:
+                return new CsvReportWriter(out);
+            case JSON:
+                return new JsonReportWriter(out);
+            default:
+                return new TextReportWriter(out);
+        }
+    }
+    
+    public abstract void beginReport(String title) throws IOException;
+    
+    // Double values are percentages.
+    public abstract void field(String label, Object value) throws IOException;
+    
+    // textRow is the String.format pattern used for each row in the text format.
+    public abstract void beginTable(String title, String textRow, String... columns) throws IOException;
+    
+    public abstract void row(Object... values) throws IOException;
+    
+    public abstract void endTable() throws IOException;
+    
+    public abstract void endReport() throws IOException;
+    
+    protected static String formatValue(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.1f", (Double) value);
+        }
+        return value != null ? value.toString() : "";
+    }
+    
+    // "Today's Attendance" -> "todaysAttendance"
+    protected static String key(String label) {
+        StringBuilder key = new StringBuilder();
+        boolean upper = false;
+        for (char c : label.toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                key.append(key.length() == 0 ? Character.toLowerCase(c) : upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else if (c == ' ' || c == '-' || c == '_') {
+                upper = true;
+            }
+        }
+        return key.toString();
+    }
+    
+    private static class TextReportWriter extends ReportWriter {
+        private String textRow;
+        private boolean hasFields;
+        
+        private TextReportWriter(Writer out) {
+            super(out);
+        }
+        
+        @Override
+        public void beginReport(String title) throws IOException {
+            out.write("=== " + title + " ===\n");
+        }
+        
+        @Override
+        public void field(String label, Object value) throws IOException {
+            out.write(label + ": " + (value instanceof Double ? String.format("%.1f%%", (Double) value) : String.valueOf(value)) + "\n");
+            hasFields = true;
+        }
+        
+        @Override
+        public void beginTable(String title, String textRow, String... columns) throws IOException {
+            this.textRow = textRow;
+            out.write((hasFields ? "\n" : "") + title + ":\n");
+        }
+        
+        @Override
+        public void row(Object... values) throws IOException {
+            out.write(String.format(textRow, values) + "\n");
+        }
+        
+        @Override
+        public void endTable() {
+            textRow = null;
+        }
+        
+        @Override
+        public void endReport() throws IOException {
+            out.flush();
+        }
+    }
+    
+    private static class CsvReportWriter extends ReportWriter {
+        private CsvReportWriter(Writer out) {
+            super(out);
+        }
+        
+        @Override
+        public void beginReport(String title) throws IOException {
+            out.write("# " + title + "\n");
+        }
+        
+        @Override
+        public void field(String label, Object value) throws IOException {
+            out.write(escape(label) + "," + escape(formatValue(value)) + "\n");
+        }
+        
+        @Override
+        public void beginTable(String title, String textRow, String... columns) throws IOException {
+            out.write("\n# " + title + "\n");
+            for (int i = 0; i < columns.length; i++) {
+                out.write((i > 0 ? "," : "") + escape(columns[i]));
+            }
+            out.write("\n");
+        }
+        
+        @Override
+        public void row(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                out.write((i > 0 ? "," : "") + escape(formatValue(values[i])));
+            }
+            out.write("\n");
+        }
+        
+        @Override
+        public void endTable() {
+        }
+        
+        @Override
+        public void endReport() throws IOException {
+            out.flush();
+        }
+        
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+    
+    private static class JsonReportWriter extends ReportWriter {
+        private String[] columnKeys;
+        private boolean firstRow;
+        
+        private JsonReportWriter(Writer out) {
+            super(out);
+        }
+        
+        @Override
+        public void beginReport(String title) throws IOException {
+            out.write("{\"title\":" + Json.quote(title));
+        }
+        
+        @Override
+        public void field(String label, Object value) throws IOException {
+            out.write("," + Json.quote(key(label)) + ":" + jsonValue(value));
+        }
+        
+        @Override
+        public void beginTable(String title, String textRow, String... columns) throws IOException {
+            columnKeys = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnKeys[i] = key(columns[i]);
+            }
+            firstRow = true;
+            out.write("," + Json.quote(key(title)) + ":[");
+        }
+        
+        @Override
+        public void row(Object... values) throws IOException {
+            out.write(firstRow ? "{" : ",{");
+            firstRow = false;
+            for (int i = 0; i < values.length; i++) {
+                out.write((i > 0 ? "," : "") + Json.quote(columnKeys[i]) + ":" + jsonValue(values[i]));
+            }
+            out.write("}");
+        }
+        
+        @Override
+        public void endTable() throws IOException {
+            out.write("]");
+        }
+        
+        @Override
+        public void endReport() throws IOException {
+            out.write("}\n");
+            out.flush();
+        }
+        
+        private static String jsonValue(Object value) {
+            if (value instanceof Double) {
+                return Json.toJson(value);
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                return value.toString();
+            }
+            return value != null ? Json.quote(value.toString()) : "null";
+        }
+    }
+}
@@ -0,0 +1,660 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// AttendanceStore on the SQLite database that server.js uses (ams.db), through JDBC. The
+// database is the system of record, so there are no snapshots: students map to the
+// students table (student_ext_id is the student id), class names to classes, and marks to
+// attendance rows holding 'present' or 'absent'. Rows written by server.js with 'late' or
+// 'excused' load as recorded but not present, like its own reports count them.
+//
+// The manager keeps one mark per student and day, while server.js can open several
+// sessions of a class on one day. The store never merges them: a mark goes to the day's
+// first session of the student's class (created closed when there is none), and loading
+// reads the day from that same session, falling back to the student's first other session
+// that day. Rows in the remaining sessions stay as server.js wrote them.
+//
+// Like the journal, log calls only queue the write; a single writer thread applies
+// everything queued in one transaction with prepared, batched statements, so concurrent
+// callers share a commit. The database runs in WAL mode so server.js can keep reading.
+//
+// The manager applies a change in memory before its write commits. When a transaction
+// fails, the database is behind memory until the next checkpoint, which the store asks for
+// at once and which rewrites every student changed since the last one (and deletes the
+// removed ones) from their in-memory state. recover() reads the students a page at a time,
+// but still returns every one with its attendance history, as AttendanceManager keeps all
+// of them in memory; closed terms can be archived to bound that history. Meanwhile
+// openLookup() reads single students on a connection of its own. The writer only caches
+// the row ids of recently written students and sessions.
+//
+// Needs a SQLite JDBC driver on the classpath, e.g.
+//   java -cp .:sqlite-jdbc.jar AttendanceSystem --db ams.db
+public class SqliteAttendanceStore implements AttendanceStore {
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS classes (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+            + "code TEXT UNIQUE, teacher_id INTEGER, schedule_json TEXT, created_at TEXT NOT NULL, "
+            + "FOREIGN KEY(teacher_id) REFERENCES users(id))",
+        "CREATE TABLE IF NOT EXISTS students (id INTEGER PRIMARY KEY AUTOINCREMENT, student_ext_id TEXT UNIQUE, "
+            + "name TEXT NOT NULL, email TEXT, class_id INTEGER, created_at TEXT NOT NULL, "
+            + "FOREIGN KEY(class_id) REFERENCES classes(id))",
+        "CREATE TABLE IF NOT EXISTS sessions (id INTEGER PRIMARY KEY AUTOINCREMENT, class_id INTEGER NOT NULL, "
+            + "date TEXT NOT NULL, start_time TEXT, end_time TEXT, "
+            + "status TEXT NOT NULL CHECK(status IN ('scheduled','open','closed','finalized')), "
+            + "created_by INTEGER, created_at TEXT NOT NULL, FOREIGN KEY(class_id) REFERENCES classes(id), "
+            + "FOREIGN KEY(created_by) REFERENCES users(id))",
+        "CREATE TABLE IF NOT EXISTS attendance (id INTEGER PRIMARY KEY AUTOINCREMENT, session_id INTEGER NOT NULL, "
+            + "student_id INTEGER NOT NULL, status TEXT NOT NULL CHECK(status IN ('present','absent','late','excused')), "
+            + "marked_by INTEGER, marked_at TEXT NOT NULL, UNIQUE(session_id, student_id), "
+            + "FOREIGN KEY(session_id) REFERENCES sessions(id), FOREIGN KEY(student_id) REFERENCES students(id), "
+            + "FOREIGN KEY(marked_by) REFERENCES users(id))",
+        "CREATE INDEX IF NOT EXISTS idx_sessions_class_date ON sessions(class_id, date)",
+        "CREATE INDEX IF NOT EXISTS idx_attendance_student_session ON attendance(student_id, session_id)",
+        "CREATE INDEX IF NOT EXISTS idx_students_class ON students(class_id)"
+    };
+    
+    private static final String SELECT_STUDENTS = "SELECT s.id, s.student_ext_id, s.name, s.email, c.name "
+        + "FROM students s LEFT JOIN classes c ON c.id = s.class_id WHERE s.student_ext_id IS NOT NULL";
+    private static final String SELECT_ATTENDANCE = "SELECT a.student_id, sess.date, a.status FROM attendance a "
+        + "JOIN sessions sess ON sess.id = a.session_id JOIN students s ON s.id = a.student_id";
+    // Applied in this order, the last row of a day wins: the student's own class first, then
+    // the lowest session id, which is the session addMark writes to.
+    private static final String DAY_ORDER = " ORDER BY sess.class_id = s.class_id, sess.id DESC";
+    private static final int PAGE_SIZE = 1000;
+    private static final int CACHE_SIZE = 16384;
+    
+    private final String url;
+    private final File archiveDirectory;
+    private final List<Write> pending;
+    private Connection connection;
+    private Statements statements;
+    private Thread writer;
+    private boolean closing;
+    private long appendedRecords;
+    private long durableRecords;
+    private long failedRecords;
+    private SQLException writeFailure;
+    private boolean behindMemory; // a transaction failed since the last checkpoint
+    
+    // Only touched by recover and the writer thread.
+    private final Map<String, Long> classIds;
+    private final Map<String, Long> sessionIds; // "classId:yyyy-MM-dd" -> session id, bounded
+    private final Map<String, long[]> studentRows; // student id -> {row id, class id}, bounded
+    
+    public SqliteAttendanceStore(String databasePath) {
+        this.url = "jdbc:sqlite:" + databasePath;
+        this.archiveDirectory = new File(databasePath + ".archive");
+        this.pending = new ArrayList<>();
+        this.classIds = new HashMap<>();
+        this.sessionIds = boundedCache();
+        this.studentRows = boundedCache();
+    }
+    
+    private static <V> Map<String, V> boundedCache() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+    
+    @Override
+    public synchronized List<Student> recover() throws IOException {
+        try {
+            connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("PRAGMA busy_timeout=5000");
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            connection.setAutoCommit(false);
+            statements = new Statements(connection);
+            List<Student> students = loadStudents();
+            connection.commit();
+            writer = new Thread(this::writeLoop, "attendance-sqlite-writer");
+            writer.setDaemon(true);
+            writer.start();
+            return students;
+        } catch (SQLException e) {
+            closeQuietly();
+            throw new IOException("Cannot open " + url + ": " + e.getMessage(), e);
+        }
+    }
+    
+    // Nothing to look up before server.js or recover() has created the schema.
+    @Override
+    public Lookup openLookup() throws IOException {
+        Connection lookupConnection = null;
+        try {
+            lookupConnection = DriverManager.getConnection(url);
+            try (Statement statement = lookupConnection.createStatement()) {
+                statement.execute("PRAGMA busy_timeout=5000");
+                try (ResultSet tables = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master "
+                        + "WHERE type = 'table' AND name IN ('classes', 'students', 'sessions', 'attendance')")) {
+                    if (!tables.next() || tables.getInt(1) < 4) {
+                        lookupConnection.close();
+                        return null;
+                    }
+                }
+            }
+            return new DatabaseLookup(lookupConnection);
+        } catch (SQLException e) {
+            if (lookupConnection != null) {
+                try {
+                    lookupConnection.close();
+                } catch (SQLException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw new IOException("Cannot open " + url + ": " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public long logAddStudent(Student student) throws IOException {
+        return append(upsert(student));
+    }
+    
+    // Writes the student row and every in-memory day of its history.
+    private Write upsert(Student student) {
+        String studentId = student.getStudentId();
+        String name = student.getName() != null ? student.getName() : "";
+        String email = student.getEmail();
+        String className = student.getClassName();
+        Map<String, Boolean> history = new LinkedHashMap<>(student.getAttendance());
+        return () -> {
+            long classId = classId(className);
+            PreparedStatement upsert = statements.upsertStudent;
+            upsert.setString(1, studentId);
+            upsert.setString(2, name);
+            upsert.setString(3, email);
+            upsert.setLong(4, classId);
+            upsert.setString(5, Instant.now().toString());
+            upsert.executeUpdate();
+            statements.selectStudent.setString(1, studentId);
+            try (ResultSet row = statements.selectStudent.executeQuery()) {
+                row.next();
+                studentRows.put(studentId, new long[] {row.getLong(1), classId});
+            }
+            for (Map.Entry<String, Boolean> entry : history.entrySet()) {
+                addMark(studentId, entry.getKey(), entry.getValue());
+            }
+        };
+    }
+    
+    @Override
+    public long logRemoveStudent(String studentId) throws IOException {
+        return append(delete(studentId));
+    }
+    
+    private Write delete(String studentId) {
+        return () -> {
+            long[] row = studentRows.remove(studentId);
+            if (row == null) {
+                row = lookUpStudent(studentId);
+            }
+            if (row != null) {
+                statements.upsertAttendance.executeBatch(); // queued marks must not outlive the student
+                statements.deleteAttendance.setLong(1, row[0]);
+                statements.deleteAttendance.executeUpdate();
+                statements.deleteStudent.setLong(1, row[0]);
+                statements.deleteStudent.executeUpdate();
+            }
+        };
+    }
+    
+    @Override
+    public long logMark(String studentId, String date, boolean present) throws IOException {
+        return append(() -> addMark(studentId, date, present));
+    }
+    
+    @Override
+    public long logMarkBatch(String date, Map<String, Boolean> marks) throws IOException {
+        Map<String, Boolean> copy = new LinkedHashMap<>(marks);
+        return append(() -> {
+            for (Map.Entry<String, Boolean> entry : copy.entrySet()) {
+                addMark(entry.getKey(), date, entry.getValue());
+            }
+        });
+    }
+    
+    @Override
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        while (durableRecords < sequence && failedRecords < sequence) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the database");
+            }
+        }
+        if (durableRecords < sequence) {
+            throw new IOException("Database write failed: " + writeFailure.getMessage(), writeFailure);
+        }
+    }
+    
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        return behindMemory;
+    }
+    
+    @Override
+    public boolean needsSnapshot() {
+        return false;
+    }
+    
+    // Every logged write already lands in the database, so checkpoints only wait for them,
+    // unless one failed: then the changed students are written again from memory. The
+    // caller keeps other threads from logging meanwhile.
+    @Override
+    public void checkpoint(Collection<Student> changed, Collection<String> removed) throws IOException {
+        if (!awaitWritten()) {
+            return;
+        }
+        List<Write> writes = new ArrayList<>(changed.size() + removed.size());
+        for (String studentId : removed) {
+            writes.add(delete(studentId));
+        }
+        for (Student student : changed) {
+            writes.add(upsert(student));
+        }
+        long record;
+        synchronized (this) {
+            record = appendedRecords;
+        }
+        for (Write write : writes) {
+            record = append(write);
+        }
+        awaitDurable(record);
+        synchronized (this) {
+            behindMemory = false;
+        }
+    }
+    
+    @Override
+    public void snapshot(List<Student> students) throws IOException {
+        checkpoint(students, Collections.emptyList());
+    }
+    
+    // Waits for the writer to finish every queued write; true when one failed since the
+    // last checkpoint.
+    private synchronized boolean awaitWritten() throws IOException {
+        long target = appendedRecords;
+        while (durableRecords < target && failedRecords < target) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the database");
+            }
+        }
+        return behindMemory;
+    }
+    
+    // The database keeps every row (server.js reads them too), so archiving only frees
+    // memory here: closed terms are folded into the archive again each time it loads.
+    @Override
+    public File getArchiveDirectory() {
+        return archiveDirectory;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        Thread writerThread;
+        long target;
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+            writerThread = writer;
+            writer = null;
+            target = appendedRecords;
+        }
+        try {
+            awaitDurable(target);
+        } finally {
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closeQuietly();
+        }
+    }
+    
+    private synchronized long append(Write write) throws IOException {
+        if (writer == null) {
+            throw new IOException("Database store is closed");
+        }
+        pending.add(write);
+        notifyAll();
+        return ++appendedRecords;
+    }
+    
+    // Single writer: applies everything queued since the last round in one transaction.
+    // A failed group is rolled back as a whole and the id caches are rebuilt.
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            long lastRecord;
+            synchronized (this) {
+                while (pending.isEmpty() && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch.addAll(pending);
+                pending.clear();
+                lastRecord = appendedRecords;
+            }
+            
+            try {
+                for (Write write : batch) {
+                    write.apply();
+                }
+                statements.upsertAttendance.executeBatch();
+                long syncStart = System.nanoTime();
+                connection.commit();
+                AttendanceMetrics.STORE_SYNC.recordSince(syncStart);
+                AttendanceMetrics.STORE_SYNCS.increment();
+                AttendanceMetrics.PERSISTED_RECORDS.add(batch.size());
+                synchronized (this) {
+                    durableRecords = lastRecord;
+                    notifyAll();
+                }
+            } catch (SQLException e) {
+                AttendanceMetrics.ERRORS.increment();
+                rollback();
+                synchronized (this) {
+                    failedRecords = lastRecord;
+                    writeFailure = e;
+                    behindMemory = true;
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    // Reads the students in pages of row ids, each with the attendance rows of just that page.
+    private List<Student> loadStudents() throws SQLException {
+        List<Student> students = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT id, name FROM classes")) {
+            while (rows.next()) {
+                classIds.putIfAbsent(rows.getString(2), rows.getLong(1));
+            }
+        }
+        try (PreparedStatement selectPage = connection.prepareStatement(SELECT_STUDENTS + " AND s.id > ? ORDER BY s.id LIMIT ?");
+             PreparedStatement selectAttendance = connection.prepareStatement(SELECT_ATTENDANCE
+                     + " WHERE a.student_id BETWEEN ? AND ?" + DAY_ORDER)) {
+            Map<Long, Student> byRow = new HashMap<>();
+            long lastRow = 0;
+            while (true) {
+                byRow.clear();
+                long firstRow = lastRow + 1;
+                selectPage.setLong(1, lastRow);
+                selectPage.setInt(2, PAGE_SIZE);
+                try (ResultSet rows = selectPage.executeQuery()) {
+                    while (rows.next()) {
+                        Student student = toStudent(rows);
+                        lastRow = rows.getLong(1);
+                        byRow.put(lastRow, student);
+                        students.add(student);
+                    }
+                }
+                if (byRow.isEmpty()) {
+                    return students;
+                }
+                selectAttendance.setLong(1, firstRow);
+                selectAttendance.setLong(2, lastRow);
+                try (ResultSet rows = selectAttendance.executeQuery()) {
+                    while (rows.next()) {
+                        Student student = byRow.get(rows.getLong(1));
+                        if (student != null) {
+                            applyMark(student, rows);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    // Columns of SELECT_STUDENTS.
+    private static Student toStudent(ResultSet row) throws SQLException {
+        String className = row.getString(5) != null ? row.getString(5) : "";
+        return new Student(row.getString(2), row.getString(3), row.getString(4), className);
+    }
+    
+    // Columns of SELECT_ATTENDANCE.
+    private static void applyMark(Student student, ResultSet row) throws SQLException {
+        int epochDay = toEpochDay(row.getString(2));
+        if (epochDay != AttendanceRecord.NO_DAY) {
+            student.getAttendanceRecord().mark(epochDay, "present".equals(row.getString(3)));
+        }
+    }
+    
+    // Adds one attendance upsert to the batch the writer executes before each commit.
+    private void addMark(String studentId, String date, boolean present) throws SQLException {
+        long[] row = studentRows.get(studentId);
+        if (row == null) {
+            row = lookUpStudent(studentId);
+            if (row == null) {
+                return; // removed before the write ran
+            }
+        }
+        if (row[1] == 0) {
+            row[1] = classId(""); // added by server.js without a class
+        }
+        String isoDate = LocalDate.ofEpochDay(AttendanceRecord.toEpochDay(date)).toString();
+        PreparedStatement upsert = statements.upsertAttendance;
+        upsert.setLong(1, sessionId(row[1], isoDate));
+        upsert.setLong(2, row[0]);
+        upsert.setString(3, present ? "present" : "absent");
+        upsert.setString(4, Instant.now().toString());
+        upsert.addBatch();
+    }
+    
+    // For a student missing from the cache: not written since recover, evicted, or reloaded
+    // after a rollback.
+    private long[] lookUpStudent(String studentId) throws SQLException {
+        statements.selectStudentRow.setString(1, studentId);
+        try (ResultSet row = statements.selectStudentRow.executeQuery()) {
+            if (!row.next()) {
+                return null;
+            }
+            long[] ids = {row.getLong(1), row.getLong(2)};
+            studentRows.put(studentId, ids);
+            return ids;
+        }
+    }
+    
+    private long classId(String className) throws SQLException {
+        String name = className != null ? className : "";
+        Long cached = classIds.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        statements.selectClass.setString(1, name);
+        try (ResultSet row = statements.selectClass.executeQuery()) {
+            if (row.next()) {
+                classIds.put(name, row.getLong(1));
+                return row.getLong(1);
+            }
+        }
+        statements.insertClass.setString(1, name);
+        statements.insertClass.setString(2, Instant.now().toString());
+        statements.insertClass.executeUpdate();
+        long id = generatedKey(statements.insertClass);
+        classIds.put(name, id);
+        return id;
+    }
+    
+    // One session per class and day, created closed when server.js has not opened one.
+    private long sessionId(long classId, String isoDate) throws SQLException {
+        String key = classId + ":" + isoDate;
+        Long cached = sessionIds.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        statements.selectSession.setLong(1, classId);
+        statements.selectSession.setString(2, isoDate);
+        long id;
+        try (ResultSet row = statements.selectSession.executeQuery()) {
+            id = row.next() ? row.getLong(1) : -1;
+        }
+        if (id < 0) {
+            statements.insertSession.setLong(1, classId);
+            statements.insertSession.setString(2, isoDate);
+            statements.insertSession.setString(3, Instant.now().toString());
+            statements.insertSession.executeUpdate();
+            id = generatedKey(statements.insertSession);
+        }
+        sessionIds.put(key, id);
+        return id;
+    }
+    
+    private static long generatedKey(PreparedStatement statement) throws SQLException {
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            if (!keys.next()) {
+                throw new SQLException("No id returned for new row");
+            }
+            return keys.getLong(1);
+        }
+    }
+    
+    private static int toEpochDay(String isoDate) {
+        try {
+            return isoDate != null ? (int) LocalDate.parse(isoDate).toEpochDay() : AttendanceRecord.NO_DAY;
+        } catch (DateTimeParseException e) {
+            return AttendanceRecord.NO_DAY;
+        }
+    }
+    
+    private void rollback() {
+        try {
+            connection.rollback();
+            statements.upsertAttendance.clearBatch();
+        } catch (SQLException e) {
+            System.err.println("Error rolling back database writes: " + e.getMessage());
+        }
+        // Rows created in the failed transaction are gone; the caches fill again on demand.
+        classIds.clear();
+        sessionIds.clear();
+        studentRows.clear();
+    }
+    
+    private void closeQuietly() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing database: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+    
+    private interface Write {
+        void apply() throws SQLException;
+    }
+    
+    // Reads in autocommit mode, so no read transaction stays open between lookups.
+    private static final class DatabaseLookup implements Lookup {
+        private final Connection connection;
+        private final PreparedStatement selectStudent;
+        private final PreparedStatement selectAttendance;
+        
+        private DatabaseLookup(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.selectStudent = connection.prepareStatement(SELECT_STUDENTS + " AND s.student_ext_id = ?");
+            this.selectAttendance = connection.prepareStatement(SELECT_ATTENDANCE + " WHERE a.student_id = ?" + DAY_ORDER);
+        }
+        
+        @Override
+        public synchronized Student find(String studentId) throws IOException {
+            try {
+                Student student;
+                long row;
+                selectStudent.setString(1, studentId);
+                try (ResultSet rows = selectStudent.executeQuery()) {
+                    if (!rows.next()) {
+                        return null;
+                    }
+                    student = toStudent(rows);
+                    row = rows.getLong(1);
+                }
+                selectAttendance.setLong(1, row);
+                try (ResultSet rows = selectAttendance.executeQuery()) {
+                    while (rows.next()) {
+                        applyMark(student, rows);
+                    }
+                }
+                return student;
+            } catch (SQLException e) {
+                throw new IOException("Cannot read student " + studentId + ": " + e.getMessage(), e);
+            }
+        }
+        
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new IOException("Cannot close database lookup: " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    private static final class Statements {
+        private final PreparedStatement selectClass;
+        private final PreparedStatement insertClass;
+        private final PreparedStatement selectSession;
+        private final PreparedStatement insertSession;
+        private final PreparedStatement upsertStudent;
+        private final PreparedStatement selectStudent;
+        private final PreparedStatement selectStudentRow;
+        private final PreparedStatement deleteStudent;
+        private final PreparedStatement deleteAttendance;
+        private final PreparedStatement upsertAttendance;
+        
+        private Statements(Connection connection) throws SQLException {
+            selectClass = connection.prepareStatement("SELECT id FROM classes WHERE name = ? ORDER BY id LIMIT 1");
+            insertClass = connection.prepareStatement("INSERT INTO classes(name,created_at) VALUES(?,?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            selectSession = connection.prepareStatement(
+                    "SELECT id FROM sessions WHERE class_id = ? AND date = ? ORDER BY id LIMIT 1");
+            insertSession = connection.prepareStatement(
+                    "INSERT INTO sessions(class_id,date,status,created_at) VALUES(?,?,'closed',?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            upsertStudent = connection.prepareStatement(
+                    "INSERT INTO students(student_ext_id,name,email,class_id,created_at) VALUES(?,?,?,?,?) "
+                    + "ON CONFLICT(student_ext_id) DO UPDATE SET name=excluded.name, email=excluded.email, "
+                    + "class_id=excluded.class_id");
+            selectStudent = connection.prepareStatement("SELECT id FROM students WHERE student_ext_id = ?");
+            selectStudentRow = connection.prepareStatement("SELECT id, class_id FROM students WHERE student_ext_id = ?");
+            deleteStudent = connection.prepareStatement("DELETE FROM students WHERE id = ?");
+            deleteAttendance = connection.prepareStatement("DELETE FROM attendance WHERE student_id = ?");
+            upsertAttendance = connection.prepareStatement(
+                    "INSERT INTO attendance(session_id,student_id,status,marked_at) VALUES(?,?,?,?) "
+                    + "ON CONFLICT(session_id,student_id) DO UPDATE SET status=excluded.status, marked_at=excluded.marked_at");
+        }
+    }
+}
@@ -1,110 +1,188 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Student implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Stream layout kept from the HashMap-based version so existing .ser files still load.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("studentId", String.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("email", String.class),
+        new ObjectStreamField("className", String.class),
+        new ObjectStreamField("attendance", Map.class)
+    };
     
     private String studentId;
     private String name;
     private String email;
-    private String className;
-    private Map<String, Boolean> attendance; // Date -> Present/Absent
+    private transient int classCode; // ClassDictionary code of the class name
+    private transient AttendanceRecord attendance; // Date -> Present/Absent
+    private transient volatile boolean dirty; // changed since the last checkpoint
     
     public Student() {
-        this.attendance = new HashMap<>();
+        this.classCode = -1;
+        this.attendance = new AttendanceRecord();
     }
     
     public Student(String studentId, String name, String email, String className) {
         this.studentId = studentId;
         this.name = name;
         this.email = email;
-        this.className = className;
-        this.attendance = new HashMap<>();
+        this.classCode = ClassDictionary.code(className);
+        this.attendance = new AttendanceRecord();
     }
     
+    public Student(String studentId, String name, String email, String className, AttendanceRecord attendance) {
+        this.studentId = studentId;
+        this.name = name;
+        this.email = email;
+        this.classCode = ClassDictionary.code(className);
+        this.attendance = attendance;
+    }
+    
+    // The setters only fill in a student that has not been added to an AttendanceManager
+    // yet: the manager indexes students by id, class, name and email, and a change made
+    // behind its back would leave those indexes pointing at the old values.
     public String getStudentId() {
         return studentId;
     }
     
-    public void setStudentId(String studentId) {
+    void setStudentId(String studentId) {
         this.studentId = studentId;
+        dirty = true;
     }
     
     public String getName() {
         return name;
     }
     
-    public void setName(String name) {
+    void setName(String name) {
         this.name = name;
+        dirty = true;
     }
     
     public String getEmail() {
         return email;
     }
     
-    public void setEmail(String email) {
+    void setEmail(String email) {
         this.email = email;
+        dirty = true;
     }
     
     public String getClassName() {
-        return className;
+        return ClassDictionary.name(classCode);
     }
     
-    public void setClassName(String className) {
-        this.className = className;
+    void setClassName(String className) {
+        this.classCode = ClassDictionary.code(className);
+        dirty = true;
     }
     
     public Map<String, Boolean> getAttendance() {
-        return attendance;
+        return attendance.asMap();
     }
     
-    public void setAttendance(Map<String, Boolean> attendance) {
-        this.attendance = attendance;
+    void setAttendance(Map<String, Boolean> attendance) {
+        this.attendance.clear();
+        this.attendance.asMap().putAll(attendance);
+        dirty = true;
+    }
+    
+    public AttendanceRecord getAttendanceRecord() {
+        return attendance;
     }
     
     public void markPresent(String date) {
-        attendance.put(date, true);
+        attendance.mark(AttendanceRecord.toEpochDay(date), true);
+        dirty = true;
     }
     
     public void markAbsent(String date) {
-        attendance.put(date, false);
+        attendance.mark(AttendanceRecord.toEpochDay(date), false);
+        dirty = true;
+    }
+    
+    // Set by every setter and mark, and by AttendanceManager for changes it makes through
+    // the attendance record; cleared once the student is persisted in a checkpoint.
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    public void markDirty() {
+        dirty = true;
+    }
+    
+    public void clearDirty() {
+        dirty = false;
     }
     
     public boolean isPresent(String date) {
-        return attendance.getOrDefault(date, false);
+        return Boolean.TRUE.equals(attendance.asMap().get(date));
     }
     
     public double getAttendancePercentage() {
-        if (attendance.isEmpty()) {
+        int total;
+        int present;
+        // Both counts under the record's lock, so a concurrent mark cannot tear the ratio.
+        synchronized (attendance) {
+            total = attendance.getRecordedCount();
+            present = attendance.getPresentCount();
+        }
+        if (total == 0) {
             return 0.0;
         }
         
-        long presentCount = attendance.values().stream()
-                .mapToLong(present -> present ? 1 : 0)
-                .sum();
-        
-        return (double) presentCount / attendance.size() * 100;
+        return (double) present / total * 100;
     }
     
     public int getTotalClasses() {
-        return attendance.size();
+        return attendance.getRecordedCount();
     }
     
     public int getPresentClasses() {
-        return (int) attendance.values().stream()
-                .mapToLong(present -> present ? 1 : 0)
-                .sum();
+        return attendance.getPresentCount();
     }
     
     public int getAbsentClasses() {
-        return getTotalClasses() - getPresentClasses();
+        synchronized (attendance) {
+            return attendance.getRecordedCount() - attendance.getPresentCount();
+        }
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("studentId", studentId);
+        fields.put("name", name);
+        fields.put("email", email);
+        fields.put("className", getClassName());
+        fields.put("attendance", new HashMap<>(attendance.asMap()));
+        out.writeFields();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        studentId = (String) fields.get("studentId", null);
+        name = (String) fields.get("name", null);
+        email = (String) fields.get("email", null);
+        classCode = ClassDictionary.code((String) fields.get("className", null));
+        attendance = new AttendanceRecord();
+        Map<String, Boolean> saved = (Map<String, Boolean>) fields.get("attendance", null);
+        if (saved != null) {
+            attendance.asMap().putAll(saved);
+        }
     }
     
     @Override
     public String toString() {
         return String.format("Student{ID='%s', Name='%s', Email='%s', Class='%s', Attendance=%.1f%%}",
-                studentId, name, email, className, getAttendancePercentage());
+                studentId, name, email, getClassName(), getAttendancePercentage());
     }
     
     @Override
@@ -0,0 +1,165 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// One page of a student listing or search, in student id order. Rows hold only the
+// requested fields, read from the live students as the page is built. The next-page
+// token encodes the last id on the page (keyset paging), so a page costs the same at any
+// depth and adds or removals elsewhere never shift later pages; it is null on the last
+// page.
+public final class StudentPage {
+    public enum Field {
+        ID("studentId"),
+        NAME("name"),
+        EMAIL("email"),
+        CLASS("className"),
+        TOTAL_CLASSES("totalClasses"),
+        PRESENT_CLASSES("presentClasses"),
+        ATTENDANCE("attendancePercentage");
+        
+        private final String key;
+        
+        Field(String key) {
+            this.key = key;
+        }
+        
+        // The JSON name of the field.
+        public String getKey() {
+            return key;
+        }
+        
+        Object read(Student student) {
+            switch (this) {
+                case ID:
+                    return student.getStudentId();
+                case NAME:
+                    return student.getName();
+                case EMAIL:
+                    return student.getEmail();
+                case CLASS:
+                    return student.getClassName();
+                case TOTAL_CLASSES:
+                    return student.getTotalClasses();
+                case PRESENT_CLASSES:
+                    return student.getPresentClasses();
+                default:
+                    return student.getAttendancePercentage();
+            }
+        }
+        
+        // A comma-separated list of keys ("studentId,name"); null or empty means every field.
+        public static Set<Field> parse(String keys) {
+            if (keys == null || keys.trim().isEmpty()) {
+                return EnumSet.allOf(Field.class);
+            }
+            Set<Field> fields = EnumSet.noneOf(Field.class);
+            for (String key : keys.split(",")) {
+                fields.add(forKey(key.trim()));
+            }
+            return fields;
+        }
+        
+        public static Field forKey(String key) {
+            for (Field field : values()) {
+                if (field.key.equals(key)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown field: " + key);
+        }
+    }
+    
+    private final List<Row> rows;
+    private final String nextPageToken;
+    private final int totalCount;
+    
+    private StudentPage(List<Row> rows, String nextPageToken, int totalCount) {
+        this.rows = rows;
+        this.nextPageToken = nextPageToken;
+        this.totalCount = totalCount;
+    }
+    
+    // students holds up to limit + 1 entries; the extra one only shows another page exists.
+    static StudentPage of(List<Student> students, int limit, Set<Field> fields, int totalCount) {
+        Field[] projection = fields.toArray(new Field[0]);
+        int size = Math.min(students.size(), limit);
+        List<Row> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Student student = students.get(i);
+            Object[] values = new Object[projection.length];
+            for (int f = 0; f < projection.length; f++) {
+                values[f] = projection[f].read(student);
+            }
+            rows.add(new Row(student.getStudentId(), projection, values));
+        }
+        String nextPageToken = students.size() > limit ? encodeToken(students.get(limit - 1).getStudentId()) : null;
+        return new StudentPage(Collections.unmodifiableList(rows), nextPageToken, totalCount);
+    }
+    
+    public List<Row> getRows() {
+        return rows;
+    }
+    
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+    
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+    
+    // Students in the whole listing (or matching the search), not just on this page.
+    public int getTotalCount() {
+        return totalCount;
+    }
+    
+    static String encodeToken(String lastStudentId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastStudentId.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // The id a page token resumes after; null for no token (the first page).
+    static String decodeToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+    }
+    
+    public static final class Row {
+        private final String studentId;
+        private final Field[] fields;
+        private final Object[] values;
+        
+        private Row(String studentId, Field[] fields, Object[] values) {
+            this.studentId = studentId;
+            this.fields = fields;
+            this.values = values;
+        }
+        
+        // Always available, whether or not ID was requested.
+        public String getStudentId() {
+            return studentId;
+        }
+        
+        // The field's value, or null if it was not requested.
+        public Object get(Field field) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == field) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+        
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < fields.length; i++) {
+                map.put(fields[i].getKey(), values[i]);
+            }
+            return map;
+        }
+    }
+}
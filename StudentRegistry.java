@@ -0,0 +1,121 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Primary id index plus a secondary index by class name (members sorted by id).
+// Adds and removes are serialized; lookups and listings never lock.
+public class StudentRegistry {
+    private final Map<String, Student> studentsById;
+    private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, Student>> studentsByClass;
+    private final Map<String, Integer> classSizes;
+
+    public StudentRegistry() {
+        this.studentsById = new ConcurrentHashMap<>();
+        this.studentsByClass = new ConcurrentSkipListMap<>();
+        this.classSizes = new ConcurrentHashMap<>();
+    }
+
+    public synchronized boolean add(Student student) {
+        if (studentsById.putIfAbsent(student.getStudentId(), student) != null) {
+            return false;
+        }
+        studentsByClass.computeIfAbsent(student.getClassName(), k -> new ConcurrentSkipListMap<>())
+                .put(student.getStudentId(), student);
+        classSizes.merge(student.getClassName(), 1, Integer::sum);
+        return true;
+    }
+
+    public synchronized Student remove(String studentId) {
+        Student student = studentsById.remove(studentId);
+        if (student != null) {
+            Map<String, Student> classStudents = studentsByClass.get(student.getClassName());
+            if (classStudents != null) {
+                classStudents.remove(studentId);
+                if (classStudents.isEmpty()) {
+                    studentsByClass.remove(student.getClassName());
+                }
+            }
+            classSizes.computeIfPresent(student.getClassName(), (k, size) -> size > 1 ? size - 1 : null);
+        }
+        return student;
+    }
+
+    public Student get(String studentId) {
+        return studentsById.get(studentId);
+    }
+
+    public Collection<Student> getAll() {
+        return studentsById.values();
+    }
+
+    public Collection<Student> getByClass(String className) {
+        Map<String, Student> classStudents = studentsByClass.get(className);
+        return classStudents != null ? classStudents.values() : Collections.emptyList();
+    }
+
+    // Up to limit students with ids after afterId (null: from the first), in id order, from
+    // one class or (className null) all of them. The class indexes are already sorted by
+    // id, so the whole roster is a merge of their tails: a page costs O(limit log classes)
+    // whatever its depth and however many students there are.
+    public List<Student> page(String className, String afterId, int limit) {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        if (className != null) {
+            addCursor(cursors, studentsByClass.get(className), afterId);
+        } else {
+            for (ConcurrentSkipListMap<String, Student> classStudents : studentsByClass.values()) {
+                addCursor(cursors, classStudents, afterId);
+            }
+        }
+        List<Student> page = new ArrayList<>(Math.min(limit, 1024));
+        while (page.size() < limit && !cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            page.add(cursor.head);
+            if (cursor.rest.hasNext()) {
+                cursor.head = cursor.rest.next();
+                cursors.add(cursor);
+            }
+        }
+        return page;
+    }
+
+    public Set<String> getClassNames() {
+        return studentsByClass.keySet();
+    }
+
+    public int size() {
+        return studentsById.size();
+    }
+
+    public int classSize(String className) {
+        return classSizes.getOrDefault(className, 0);
+    }
+
+    public boolean isEmpty() {
+        return studentsById.isEmpty();
+    }
+
+    private static void addCursor(PriorityQueue<Cursor> cursors, ConcurrentSkipListMap<String, Student> classStudents, String afterId) {
+        if (classStudents == null) {
+            return;
+        }
+        Iterator<Student> rest = (afterId != null ? classStudents.tailMap(afterId, false) : classStudents).values().iterator();
+        if (rest.hasNext()) {
+            cursors.add(new Cursor(rest.next(), rest));
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private Student head;
+        private final Iterator<Student> rest;
+
+        private Cursor(Student head, Iterator<Student> rest) {
+            this.head = head;
+            this.rest = rest;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return head.getStudentId().compareTo(other.head.getStudentId());
+        }
+    }
+}
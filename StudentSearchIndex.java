@@ -0,0 +1,302 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+// Substring search over student name, id, email and class. Each field is lower-cased once
+// when the student is indexed; every trigram points at a sorted posting list of documents.
+// A query intersects the posting lists of its trigrams (rarest first) and only verifies the
+// surviving candidates. Queries shorter than a trigram scan the pre-normalized fields.
+// Prefix matches come from a sorted term map that also serves autocompletion.
+public class StudentSearchIndex {
+    private static final int NAME = 0;
+    private static final int ID = 1;
+    private static final int EMAIL = 2;
+    private static final int CLASS = 3;
+    
+    private final ReentrantReadWriteLock lock;
+    private final Map<Long, IntList> postings;
+    private final Map<String, Integer> documentsByStudentId;
+    private final NavigableMap<String, Integer> completions; // "term\0studentId" -> document
+    private Student[] students;
+    private String[][] fields;
+    private int documentCount;
+    private int removedCount;
+    
+    public StudentSearchIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.postings = new HashMap<>();
+        this.documentsByStudentId = new HashMap<>();
+        this.completions = new TreeMap<>();
+        this.students = new Student[16];
+        this.fields = new String[16][];
+    }
+    
+    public void add(Student student) {
+        lock.writeLock().lock();
+        try {
+            if (documentsByStudentId.containsKey(student.getStudentId())) {
+                return;
+            }
+            addDocument(student);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(String studentId) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentsByStudentId.remove(studentId);
+            if (document == null) {
+                return;
+            }
+            for (String term : completionTerms(fields[document])) {
+                completions.remove(term + '\0' + studentId);
+            }
+            students[document] = null;
+            fields[document] = null;
+            removedCount++;
+            if (removedCount > 1024 && removedCount * 2 > documentCount) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Matches ranked in two tiers, stopping as soon as limit results are found: first students
+    // whose id, full name or a name word starts with the query (exact matches first), then the
+    // remaining substring matches in the order the students were indexed.
+    public List<Student> search(String query, int limit) {
+        String normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            List<Student> results = new ArrayList<>();
+            Set<Integer> included = new HashSet<>();
+            if (!normalized.isEmpty()) {
+                for (int document : completions.subMap(normalized, true, normalized + '\uffff', true).values()) {
+                    if (included.add(document)) {
+                        if (results.size() >= limit) {
+                            return results;
+                        }
+                        results.add(students[document]);
+                    }
+                }
+            }
+            
+            if (results.size() < limit) {
+                Predicate<Student> collect = student -> {
+                    results.add(student);
+                    return results.size() < limit;
+                };
+                if (normalized.length() < 3) {
+                    scan(normalized, included, collect);
+                } else {
+                    intersect(normalized, included, collect);
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Every match of the query, unranked, handed to the action in index order until it
+    // returns false; for callers that order or page the matches themselves. The action
+    // runs under the index's read lock and must be quick.
+    public void forEachMatch(String query, Predicate<Student> action) {
+        String normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (normalized.length() < 3) {
+                scan(normalized, Collections.emptySet(), action);
+            } else {
+                intersect(normalized, Collections.emptySet(), action);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Distinct student names and ids that start with the prefix (or have a name word that does).
+    public List<String> autocomplete(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        List<String> suggestions = new ArrayList<>();
+        if (normalized.isEmpty()) {
+            return suggestions;
+        }
+        lock.readLock().lock();
+        try {
+            Set<String> seen = new HashSet<>();
+            for (Map.Entry<String, Integer> entry : completions.subMap(normalized, true, normalized + '\uffff', true).entrySet()) {
+                String term = entry.getKey().substring(0, entry.getKey().indexOf('\0'));
+                Student student = students[entry.getValue()];
+                String suggestion = normalize(student.getStudentId()).startsWith(term) ? student.getStudentId() : student.getName();
+                if (seen.add(suggestion)) {
+                    suggestions.add(suggestion);
+                    if (suggestions.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void addDocument(Student student) {
+        if (documentCount == students.length) {
+            students = Arrays.copyOf(students, documentCount * 2);
+            fields = Arrays.copyOf(fields, documentCount * 2);
+        }
+        int document = documentCount++;
+        String[] documentFields = {
+            normalize(student.getName()),
+            normalize(student.getStudentId()),
+            normalize(student.getEmail()),
+            normalize(student.getClassName())
+        };
+        students[document] = student;
+        fields[document] = documentFields;
+        documentsByStudentId.put(student.getStudentId(), document);
+        
+        Set<Long> trigrams = new HashSet<>();
+        for (String field : documentFields) {
+            for (int i = 0; i + 3 <= field.length(); i++) {
+                trigrams.add(trigram(field, i));
+            }
+        }
+        for (Long trigram : trigrams) {
+            postings.computeIfAbsent(trigram, k -> new IntList()).add(document);
+        }
+        for (String term : completionTerms(documentFields)) {
+            completions.put(term + '\0' + student.getStudentId(), document);
+        }
+    }
+    
+    // Drops removed documents from every posting list by re-indexing the live ones.
+    private void rebuild() {
+        Student[] live = new Student[documentCount - removedCount];
+        int count = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (students[document] != null) {
+                live[count++] = students[document];
+            }
+        }
+        postings.clear();
+        documentsByStudentId.clear();
+        completions.clear();
+        students = new Student[Math.max(16, live.length * 2)];
+        fields = new String[students.length][];
+        documentCount = 0;
+        removedCount = 0;
+        for (Student student : live) {
+            addDocument(student);
+        }
+    }
+    
+    // Walks the rarest posting list and keeps documents present in every other list of the
+    // query's trigrams, verifying each one before it counts towards the limit.
+    // Offers each match not in skip to the sink until it returns false.
+    private void intersect(String query, Set<Integer> skip, Predicate<Student> sink) {
+        List<IntList> lists = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            long trigram = trigram(query, i);
+            if (!seen.add(trigram)) {
+                continue;
+            }
+            IntList list = postings.get(trigram);
+            if (list == null) {
+                return;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        
+        IntList rarest = lists.get(0);
+        int[] positions = new int[lists.size()];
+        candidates:
+        for (int i = 0; i < rarest.size; i++) {
+            int document = rarest.values[i];
+            for (int l = 1; l < lists.size(); l++) {
+                IntList list = lists.get(l);
+                positions[l] = seek(list.values, positions[l], list.size, document);
+                if (positions[l] >= list.size) {
+                    return;
+                }
+                if (list.values[positions[l]] != document) {
+                    continue candidates;
+                }
+            }
+            if (fields[document] != null && !skip.contains(document) && matches(fields[document], query)
+                    && !sink.test(students[document])) {
+                return;
+            }
+        }
+    }
+    
+    // Galloping search for the first position at or after from holding a value >= target.
+    private static int seek(int[] values, int from, int size, int target) {
+        int step = 1;
+        int high = from;
+        while (high < size && values[high] < target) {
+            from = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int index = Arrays.binarySearch(values, from, Math.min(high + 1, size), target);
+        return index >= 0 ? index : -index - 1;
+    }
+    
+    private void scan(String query, Set<Integer> skip, Predicate<Student> sink) {
+        for (int document = 0; document < documentCount; document++) {
+            String[] documentFields = fields[document];
+            if (documentFields != null && !skip.contains(document) && matches(documentFields, query)
+                    && !sink.test(students[document])) {
+                return;
+            }
+        }
+    }
+    
+    private static boolean matches(String[] documentFields, String query) {
+        return documentFields[NAME].contains(query)
+                || documentFields[ID].contains(query)
+                || documentFields[EMAIL].contains(query)
+                || documentFields[CLASS].contains(query);
+    }
+    
+    private static List<String> completionTerms(String[] documentFields) {
+        List<String> terms = new ArrayList<>();
+        terms.add(documentFields[ID]);
+        terms.add(documentFields[NAME]);
+        for (String word : documentFields[NAME].split(" ")) {
+            if (!word.isEmpty() && !word.equals(documentFields[NAME])) {
+                terms.add(word);
+            }
+        }
+        return terms;
+    }
+    
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+    
+    private static String normalize(String value) {
+        return value != null ? value.toLowerCase(Locale.ROOT) : "";
+    }
+    
+    // Growable sorted array of document numbers; documents are only ever appended in order.
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+        
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Small JMH-style harness (the project has no external dependencies): each benchmark runs
+// timed warm-up iterations, then measured iterations, and reports the average time per
+// operation with its standard deviation. Results can be written as CSV and compared
+// against a checked-in baseline so regressions fail the run.
+public final class BenchmarkHarness {
+    public interface Operation {
+        Object run() throws Exception;
+    }
+    
+    // Per-invocation setup and teardown for single-shot benchmarks; neither is timed.
+    public interface Fixture {
+        void setUp() throws Exception;
+        
+        void tearDown() throws Exception;
+    }
+    
+    public static final class Result {
+        private final String benchmark;
+        private final String params;
+        private final String mode;
+        private final int samples;
+        private final double score;
+        private final double error;
+        
+        private Result(String benchmark, String params, String mode, int samples, double score, double error) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.mode = mode;
+            this.samples = samples;
+            this.score = score;
+            this.error = error;
+        }
+        
+        public String getBenchmark() {
+            return benchmark;
+        }
+        
+        public String getParams() {
+            return params;
+        }
+        
+        public double getScore() {
+            return score;
+        }
+        
+        private String key() {
+            return benchmark + "|" + params;
+        }
+    }
+    
+    private static volatile int sink; // consumes results so the JIT cannot drop the work
+    
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final List<Result> results;
+    
+    public BenchmarkHarness(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+        this.results = new ArrayList<>();
+    }
+    
+    // Calls the operation back to back for each iteration's time budget; the score is the
+    // mean time per call in microseconds.
+    public Result averageTime(String benchmark, String params, Operation operation) throws Exception {
+        double[] samples = new double[measurementIterations];
+        for (int i = -warmupIterations; i < measurementIterations; i++) {
+            long operations = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                consume(operation.run());
+                operations++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < iterationNanos);
+            if (i >= 0) {
+                samples[i] = elapsed / 1000.0 / operations;
+            }
+        }
+        return record(benchmark, params, "avgt", samples);
+    }
+    
+    // Times one call per iteration with untimed setup/teardown around it, for operations
+    // too heavy or too stateful to loop (loading a dataset, writing a snapshot).
+    public Result singleShot(String benchmark, String params, Fixture fixture, Operation operation) throws Exception {
+        double[] samples = new double[measurementIterations];
+        for (int i = -warmupIterations; i < measurementIterations; i++) {
+            fixture.setUp();
+            long start = System.nanoTime();
+            consume(operation.run());
+            long elapsed = System.nanoTime() - start;
+            fixture.tearDown();
+            if (i >= 0) {
+                samples[i] = elapsed / 1000.0;
+            }
+        }
+        return record(benchmark, params, "ss", samples);
+    }
+    
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+    
+    public void writeCsv(File file) throws IOException {
+        writeCsv(file, null);
+    }
+    
+    // With a comment line after the header, e.g. how a baseline was run.
+    public void writeCsv(File file, String comment) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.println("benchmark,params,mode,samples,score,error,unit");
+            if (comment != null) {
+                out.println("# " + comment);
+            }
+            for (Result result : results) {
+                out.printf(Locale.ROOT, "%s,\"%s\",%s,%d,%.3f,%.3f,us/op%n", result.benchmark, result.params,
+                        result.mode, result.samples, result.score, result.error);
+            }
+        }
+    }
+    
+    // Prints each result next to its baseline score and returns how many are slower than
+    // the baseline by more than the threshold (0.25 = 25%).
+    public int compareWithBaseline(File baselineFile, double threshold) throws IOException {
+        Map<String, Double> baseline = readCsv(baselineFile);
+        int regressions = 0;
+        System.out.println();
+        System.out.printf("%-34s %-28s %12s %12s %9s%n", "Benchmark", "Params", "Baseline", "Current", "Change");
+        for (Result result : results) {
+            Double previous = baseline.get(result.key());
+            if (previous == null) {
+                System.out.printf("%-34s %-28s %12s %12.3f %9s%n", result.benchmark, result.params, "-", result.score, "new");
+                continue;
+            }
+            double change = (result.score - previous) / previous;
+            boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf(Locale.ROOT, "%-34s %-28s %12.3f %12.3f %+8.1f%%%s%n", result.benchmark, result.params,
+                    previous, result.score, change * 100, regressed ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+    
+    private Result record(String benchmark, String params, String mode, double[] samples) {
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample;
+        }
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0.0;
+        
+        Result result = new Result(benchmark, params, mode, samples.length, mean, error);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-34s %-28s %-4s %14.3f +- %10.3f us/op%n", benchmark, params, mode, mean, error);
+        return result;
+    }
+    
+    private static Map<String, Double> readCsv(File file) throws IOException {
+        Map<String, Double> scores = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = in.readLine(); // header
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int paramsStart = line.indexOf(",\"");
+                int paramsEnd = line.indexOf("\",", paramsStart + 2);
+                if (paramsStart < 0 || paramsEnd < 0) {
+                    continue;
+                }
+                String[] rest = line.substring(paramsEnd + 2).split(",");
+                scores.put(line.substring(0, paramsStart) + "|" + line.substring(paramsStart + 2, paramsEnd),
+                        Double.parseDouble(rest[2]));
+            }
+        }
+        return scores;
+    }
+    
+    private static void consume(Object value) {
+        if (value != null) {
+            sink += value.hashCode();
+        }
+    }
+}
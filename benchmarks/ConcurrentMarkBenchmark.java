@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Multi-teacher stress run: N threads mark attendance concurrently, then the run checks
+// that no mark was lost, neither in memory nor after recovering from disk.
+// Run from the project root after compiling the main sources:
+//   javac -d out *.java && javac -cp out -d out benchmarks/*.java && java -cp out ConcurrentMarkBenchmark
+public class ConcurrentMarkBenchmark {
+    private static final int STUDENTS = 2000;
+    private static final int CLASS_SIZE = 50;
+    private static final int MARKS_PER_THREAD = 2000;
+    private static final int FIRST_DAY = (int) LocalDate.of(2024, 1, 1).toEpochDay();
+    
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = {1, 2, 4, 8, 16};
+        System.out.printf("%-8s %-12s %-14s %-10s%n", "Threads", "Marks", "Marks/sec", "Verified");
+        System.out.println("-".repeat(46));
+        for (int threads : threadCounts) {
+            File dir = Files.createTempDirectory("ams-stress").toFile();
+            String dataFile = new File(dir, "attendance_data.ser").getPath();
+            
+            AttendanceManager manager = new AttendanceManager(dataFile);
+            for (int i = 0; i < STUDENTS; i++) {
+                manager.addStudent(new Student(studentId(i), "Student " + i, "s" + i + "@example.com", "CLASS-" + (i / CLASS_SIZE)));
+            }
+            
+            double seconds = run(manager, threads);
+            verify(manager, threads);
+            manager = new AttendanceManager(dataFile); // recover from snapshot + journal without a clean close
+            verify(manager, threads);
+            manager.close();
+            
+            System.out.printf("%-8d %-12d %-14.0f %-10s%n", threads, threads * MARKS_PER_THREAD,
+                    threads * MARKS_PER_THREAD / seconds, "yes");
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    // Every (student, day) pair is marked exactly once across all threads.
+    private static double run(AttendanceManager manager, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < MARKS_PER_THREAD; i++) {
+                    int mark = thread * MARKS_PER_THREAD + i;
+                    manager.markAttendance(studentId(mark % STUDENTS), AttendanceRecord.toDate(FIRST_DAY + mark / STUDENTS), isPresent(mark));
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        pool.shutdown();
+        return seconds;
+    }
+    
+    private static void verify(AttendanceManager manager, int threads) {
+        int totalMarks = threads * MARKS_PER_THREAD;
+        int expectedPresent = 0;
+        for (int mark = 0; mark < totalMarks; mark++) {
+            expectedPresent += isPresent(mark) ? 1 : 0;
+        }
+        
+        int recorded = 0;
+        int present = 0;
+        double percentageSum = 0;
+        List<Student> students = manager.getAllStudents();
+        for (Student student : students) {
+            recorded += student.getTotalClasses();
+            present += student.getPresentClasses();
+            percentageSum += student.getAttendancePercentage();
+        }
+        if (recorded != totalMarks || present != expectedPresent) {
+            throw new IllegalStateException("Lost updates: recorded " + recorded + "/" + totalMarks
+                    + ", present " + present + "/" + expectedPresent);
+        }
+        if (Math.abs(percentageSum / students.size() - manager.getOverallAttendancePercentage()) > 1e-6) {
+            throw new IllegalStateException("Overall average drifted from the per-student values");
+        }
+    }
+    
+    private static boolean isPresent(int mark) {
+        return mark % 3 != 0;
+    }
+    
+    private static String studentId(int i) {
+        return String.format("STU%05d", i);
+    }
+}
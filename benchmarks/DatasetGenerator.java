@@ -0,0 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+
+// Synthetic campus for the benchmarks: students x school days x classes. Students fill
+// classes of a fixed size (or, with a class skew, are spread over the same number of
+// classes with Zipf-distributed sizes), each has their own attendance rate, and history
+// covers the given number of weekdays from 01-01-2024. The same seed always gives the
+// same data.
+public final class DatasetGenerator {
+    private static final String[] FIRST_NAMES = {
+        "Aarav", "Priya", "Rahul", "Ananya", "Vikram", "Sneha", "Arjun", "Kavya", "Rohan", "Meera",
+        "John", "Emma", "Liam", "Olivia", "Noah", "Ava", "Lucas", "Mia", "Ethan", "Sofia"
+    };
+    private static final String[] LAST_NAMES = {
+        "Sharma", "Patel", "Reddy", "Iyer", "Gupta", "Nair", "Rao", "Khan", "Singh", "Das",
+        "Smith", "Johnson", "Brown", "Garcia", "Miller", "Davis", "Wilson", "Moore", "Clark", "Lewis"
+    };
+    
+    private final int studentCount;
+    private final int dayCount;
+    private final int classSize;
+    private final double classSkew;
+    private final int[] classOf; // null when classes are filled in order
+    private final long seed;
+    private final List<String> schoolDays;
+    
+    public DatasetGenerator(int studentCount, int dayCount, int classSize, long seed) {
+        this(studentCount, dayCount, classSize, 0, seed);
+    }
+    
+    // classSkew is the Zipf exponent of the class sizes: 0 fills every class evenly, 1
+    // makes the largest class about twice the second and ten times the tenth.
+    public DatasetGenerator(int studentCount, int dayCount, int classSize, double classSkew, long seed) {
+        this.studentCount = studentCount;
+        this.dayCount = dayCount;
+        this.classSize = classSize;
+        this.classSkew = classSkew;
+        this.seed = seed;
+        this.classOf = classSkew > 0 ? assignClasses() : null;
+        this.schoolDays = new ArrayList<>(dayCount);
+        LocalDate day = LocalDate.of(2024, 1, 1);
+        while (schoolDays.size() < dayCount) {
+            if (day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                schoolDays.add(AttendanceRecord.toDate((int) day.toEpochDay()));
+            }
+            day = day.plusDays(1);
+        }
+    }
+    
+    public List<Student> generate() {
+        Random random = new Random(seed);
+        List<Student> students = new ArrayList<>(studentCount);
+        for (int i = 0; i < studentCount; i++) {
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            Student student = new Student(studentId(i), name, "student" + i + "@example.com", className(i));
+            double rate = 0.6 + random.nextDouble() * 0.4;
+            for (String day : schoolDays) {
+                if (random.nextDouble() < rate) {
+                    student.markPresent(day);
+                } else {
+                    student.markAbsent(day);
+                }
+            }
+            students.add(student);
+        }
+        return students;
+    }
+    
+    // Writes the dataset as a snapshot in a new temporary directory and returns its data file.
+    public String writeSnapshot() throws IOException {
+        File dir = Files.createTempDirectory("ams-bench").toFile();
+        String dataFile = new File(dir, "attendance_data.ser").getPath();
+        AttendanceJournal journal = new AttendanceJournal(dataFile, dataFile + ".log", Integer.MAX_VALUE);
+        journal.recover();
+        journal.snapshot(generate());
+        journal.close();
+        return dataFile;
+    }
+    
+    public static void delete(String dataFile) {
+        File dir = new File(dataFile).getParentFile();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+    
+    public String studentId(int index) {
+        return String.format("STU%07d", index);
+    }
+    
+    public String className(int studentIndex) {
+        return "CLASS-" + (classOf != null ? classOf[studentIndex] : studentIndex / classSize);
+    }
+    
+    public int getClassCount() {
+        return (studentCount + classSize - 1) / classSize;
+    }
+    
+    public List<String> getSchoolDays() {
+        return schoolDays;
+    }
+    
+    // e.g. "students=10000 days=60 classSize=30"
+    public String describe() {
+        return "students=" + studentCount + " days=" + dayCount + " classSize=" + classSize
+                + (classSkew > 0 ? " classSkew=" + classSkew : "");
+    }
+    
+    private int[] assignClasses() {
+        int classes = getClassCount();
+        double[] cumulative = new double[classes];
+        double total = 0;
+        for (int c = 0; c < classes; c++) {
+            total += 1 / Math.pow(c + 1, classSkew);
+            cumulative[c] = total;
+        }
+        Random random = new Random(seed ^ 0x5deece66dL);
+        int[] assignment = new int[studentCount];
+        for (int i = 0; i < studentCount; i++) {
+            int c = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            assignment[i] = Math.min(c < 0 ? -c - 1 : c, classes - 1);
+        }
+        return assignment;
+    }
+}
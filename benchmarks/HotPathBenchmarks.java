@@ -0,0 +1,175 @@
+import java.io.File;
+import java.time.LocalDate;
+import java.util.*;
+
+// Benchmarks for the AttendanceManager hot paths on a synthetic campus. Run from the
+// project root with run_benchmarks.bat / run_benchmarks.sh, or by hand:
+//   javac -d out *.java && javac -cp out -d out benchmarks/*.java
+//   java -cp out HotPathBenchmarks --baseline benchmarks/baseline-results.csv
+// Options: --students N --days N --class-size N (dataset), --quick (fewer, shorter
+// iterations), --output FILE (CSV results), --baseline FILE and --threshold PERCENT
+// (exit with status 2 when a benchmark is slower than its baseline by more than that),
+// --update-baseline (write the results over the --baseline file instead of comparing).
+// Quick runs are too short to compare with a full baseline, so they skip the comparison
+// and cannot update it.
+public class HotPathBenchmarks {
+    private static final String[] QUERIES = {"sharma", "STU00012", "priya", "class-1", "@example", "ol"};
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        boolean quick = options.containsKey("quick");
+        boolean updateBaseline = options.containsKey("update-baseline");
+        if (updateBaseline && (quick || !options.containsKey("baseline"))) {
+            throw new IllegalArgumentException("--update-baseline needs --baseline FILE and a full (non-quick) run");
+        }
+        int students = Integer.parseInt(options.getOrDefault("students", "10000"));
+        int days = Integer.parseInt(options.getOrDefault("days", "60"));
+        int classSize = Integer.parseInt(options.getOrDefault("class-size", "30"));
+        
+        DatasetGenerator dataset = new DatasetGenerator(students, days, classSize, 42);
+        String params = dataset.describe();
+        BenchmarkHarness harness = quick ? new BenchmarkHarness(2, 3, 200) : new BenchmarkHarness(5, 10, 1000);
+        System.out.println("Dataset: " + params);
+        
+        String dataFile = dataset.writeSnapshot();
+        try {
+            AttendanceManager manager = new AttendanceManager(dataFile);
+            run(harness, manager, dataset, params);
+            manager.close();
+            runLoadData(harness, dataFile, params);
+        } finally {
+            DatasetGenerator.delete(dataFile);
+        }
+        
+        if (options.containsKey("output")) {
+            harness.writeCsv(new File(options.get("output")));
+        }
+        if (updateBaseline) {
+            File baselineFile = new File(options.get("baseline"));
+            harness.writeCsv(baselineFile, "Full run (5 warm-up + 10 measured 1s iterations) on Java "
+                    + System.getProperty("java.version") + ", " + System.getProperty("os.name") + " "
+                    + System.getProperty("os.arch"));
+            System.out.println("Baseline written to " + baselineFile);
+        } else if (quick && options.containsKey("baseline")) {
+            System.out.println("Quick run: not compared with the baseline, which holds full runs");
+        } else if (options.containsKey("baseline")) {
+            double threshold = Double.parseDouble(options.getOrDefault("threshold", "25")) / 100;
+            int regressions = harness.compareWithBaseline(new File(options.get("baseline")), threshold);
+            if (regressions > 0) {
+                System.out.println(regressions + " benchmark(s) regressed");
+                System.exit(2);
+            }
+        }
+    }
+    
+    private static void run(BenchmarkHarness harness, AttendanceManager manager, DatasetGenerator dataset, String params) throws Exception {
+        int studentCount = manager.getAllStudents().size();
+        Random random = new Random(7);
+        
+        harness.averageTime("getStudentById", params,
+                () -> manager.getStudentById(dataset.studentId(random.nextInt(studentCount))));
+        
+        // Re-marks one school day, so every call is a journal append and group commit.
+        // Checkpoints run on the manager's background flusher.
+        String markDay = dataset.getSchoolDays().get(0);
+        harness.averageTime("markAttendance", params, () -> {
+            manager.markAttendance(dataset.studentId(random.nextInt(studentCount)), markDay, random.nextBoolean());
+            return null;
+        });
+        
+        harness.averageTime("markAttendanceForClass", params, () -> {
+            int classIndex = random.nextInt(dataset.getClassCount());
+            Map<String, Boolean> marks = new HashMap<>();
+            for (Student student : manager.getStudentsByClass("CLASS-" + classIndex)) {
+                marks.put(student.getStudentId(), random.nextInt(10) > 0);
+            }
+            manager.markAttendanceForClass("CLASS-" + classIndex, markDay, marks);
+            return marks;
+        });
+        
+        int[] query = {0};
+        harness.averageTime("searchStudents", params,
+                () -> manager.searchStudents(QUERIES[query[0]++ % QUERIES.length]));
+        harness.averageTime("searchStudents(limit=20)", params,
+                () -> manager.searchStudents(QUERIES[query[0]++ % QUERIES.length], 20));
+        
+        harness.averageTime("getOverallAttendancePercentage", params, manager::getOverallAttendancePercentage);
+        harness.averageTime("getDailyAttendance", params, () -> manager.getDailyAttendance(null,
+                dataset.getSchoolDays().get(0), dataset.getSchoolDays().get(dataset.getSchoolDays().size() - 1)));
+        // Uncached, so it times building the report rather than a ReportCache hit; the cached
+        // path is measured on its own.
+        long cacheLimit = manager.getReportCacheStats().get("maxBytes");
+        manager.setReportCacheLimit(0);
+        harness.averageTime("generateOverallStats", params, manager::generateOverallStats);
+        manager.setReportCacheLimit(cacheLimit);
+        harness.averageTime("generateOverallStats(cached)", params, manager::generateOverallStats);
+        // The uncached pass behind getCampusStats.
+        List<Student> all = manager.getAllStudents();
+        int today = (int) LocalDate.now().toEpochDay();
+        harness.averageTime("CampusStats.compute", params, () -> CampusStats.compute(all, today));
+        
+        // One class's roll call changes before each save, so each call is an incremental
+        // checkpoint of one class rather than a rewrite of the whole campus.
+        harness.singleShot("saveData", params, new BenchmarkHarness.Fixture() {
+            @Override
+            public void setUp() {
+                int classIndex = random.nextInt(dataset.getClassCount());
+                Map<String, Boolean> marks = new HashMap<>();
+                for (Student student : manager.getStudentsByClass("CLASS-" + classIndex)) {
+                    marks.put(student.getStudentId(), random.nextBoolean());
+                }
+                manager.markAttendanceForClass("CLASS-" + classIndex, markDay, marks);
+            }
+            
+            @Override
+            public void tearDown() {
+            }
+        }, () -> {
+            manager.saveData();
+            return null;
+        });
+    }
+    
+    // Cold start: recover the whole dataset from its snapshot, and separately the time until
+    // the first by-id lookup is answered, which does not wait for the full load.
+    private static void runLoadData(BenchmarkHarness harness, String dataFile, String params) throws Exception {
+        AttendanceManager[] loaded = new AttendanceManager[1];
+        BenchmarkHarness.Fixture fixture = new BenchmarkHarness.Fixture() {
+            @Override
+            public void setUp() {
+                System.gc();
+            }
+            
+            @Override
+            public void tearDown() {
+                loaded[0].close();
+            }
+        };
+        harness.singleShot("loadData", params, fixture, () -> {
+            loaded[0] = new AttendanceManager(dataFile);
+            return loaded[0].getStudentCount();
+        });
+        harness.singleShot("loadData(firstLookup)", params, fixture, () -> {
+            loaded[0] = new AttendanceManager(dataFile);
+            return loaded[0].getStudentById("STU0000042");
+        });
+    }
+    
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("quick") || name.equals("update-baseline")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+        return options;
+    }
+}
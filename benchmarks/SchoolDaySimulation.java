@@ -0,0 +1,579 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Load simulation of one compressed school day on a synthetic campus, phase by phase:
+//   restart  loadData from the generated store
+//   morning  self check-ins on an arrival curve, then every class's roll call is closed
+//   midday   open-loop mix of report reads and attendance corrections
+//   storm    end-of-term overall and class reports from every thread at once
+//   restart  close (final checkpoint) and reopen, repeated
+// Open-loop requests are dispatched at their scheduled time and timed from it, so requests
+// that queue behind a stall are charged for the wait. Each phase reports p50/p99/p999
+// latency and throughput per operation, heap use and GC activity; --output writes the
+// whole run as JSON, so runs with different stores or ingest modes can be compared.
+// Run from the project root after compiling:
+//   java -cp out SchoolDaySimulation --students 50000 --threads 32 --output day.json
+// Options: --students N --days N --class-size N --class-skew S (campus, see
+// DatasetGenerator), --threads N, --ingest direct|queue (check-ins through markAttendance
+// or CheckInQueue), --store journal|sqlite (sqlite needs the JDBC driver on the class
+// path), --arrivals normal|uniform|bell (bell: 80% in the last tenth of the morning),
+// --morning-seconds S, --present-rate R, --midday-seconds S, --midday-rate OPS,
+// --read-ratio R, --storm-requests N, --restarts N, --seed N, --label TEXT, --output FILE.
+public class SchoolDaySimulation {
+    private static final String[] READS = {"individualReport", "classAttendance", "listStudents", "search", "trend", "atRisk"};
+    private static final String[] QUERIES = {"sharma", "priya", "STU00001", "class-1", "@example", "ol"};
+    
+    private final Map<String, String> options;
+    private final int studentCount;
+    private final int threads;
+    private final String ingest;
+    private final String store;
+    private final String arrivals;
+    private final double morningSeconds;
+    private final double presentRate;
+    private final double middaySeconds;
+    private final double middayRate;
+    private final double readRatio;
+    private final int stormRequests;
+    private final int restarts;
+    private final long seed;
+    private final DatasetGenerator dataset;
+    private final List<Map<String, Object>> phases;
+    private ExecutorService pool;
+    private AttendanceManager manager;
+    private String dataFile;
+    private String day;
+    private String[] classNames;
+    
+    public static void main(String[] args) throws Exception {
+        SchoolDaySimulation simulation = new SchoolDaySimulation(parseOptions(args));
+        Map<String, Object> report = simulation.run();
+        String output = simulation.options.get("output");
+        if (output != null) {
+            try (Writer out = new OutputStreamWriter(Files.newOutputStream(new File(output).toPath()), StandardCharsets.UTF_8)) {
+                out.write(Json.toJson(report));
+                out.write('\n');
+            }
+            System.out.println("Report written to " + output);
+        }
+    }
+    
+    public SchoolDaySimulation(Map<String, String> options) {
+        this.options = options;
+        this.studentCount = Integer.parseInt(options.getOrDefault("students", "20000"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        this.ingest = options.getOrDefault("ingest", "queue");
+        this.store = options.getOrDefault("store", "journal");
+        this.arrivals = options.getOrDefault("arrivals", "normal");
+        this.morningSeconds = Double.parseDouble(options.getOrDefault("morning-seconds", "10"));
+        this.presentRate = Double.parseDouble(options.getOrDefault("present-rate", "0.9"));
+        this.middaySeconds = Double.parseDouble(options.getOrDefault("midday-seconds", "10"));
+        this.middayRate = Double.parseDouble(options.getOrDefault("midday-rate", "2000"));
+        this.readRatio = Double.parseDouble(options.getOrDefault("read-ratio", "0.9"));
+        this.stormRequests = Integer.parseInt(options.getOrDefault("storm-requests", "2000"));
+        this.restarts = Integer.parseInt(options.getOrDefault("restarts", "2"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        if (!ingest.equals("direct") && !ingest.equals("queue")) {
+            throw new IllegalArgumentException("--ingest must be direct or queue");
+        }
+        if (!store.equals("journal") && !store.equals("sqlite")) {
+            throw new IllegalArgumentException("--store must be journal or sqlite");
+        }
+        this.dataset = new DatasetGenerator(studentCount, Integer.parseInt(options.getOrDefault("days", "60")),
+                Integer.parseInt(options.getOrDefault("class-size", "30")),
+                Double.parseDouble(options.getOrDefault("class-skew", "0")), seed);
+        this.phases = new ArrayList<>();
+    }
+    
+    public Map<String, Object> run() throws Exception {
+        System.out.println("Campus: " + dataset.describe() + ", threads=" + threads + " ingest=" + ingest + " store=" + store);
+        dataFile = prepareStore();
+        day = nextSchoolDay();
+        pool = Executors.newFixedThreadPool(threads);
+        System.out.printf(Locale.ROOT, "%-8s %-18s %9s %11s %10s %10s %10s %10s %7s%n",
+                "Phase", "Operation", "Count", "Ops/sec", "p50 ms", "p99 ms", "p999 ms", "max ms", "Errors");
+        try {
+            phase("restart", recorder -> manager = timed(recorder, "loadData", this::openManager));
+            classNames = manager.getAllClasses().toArray(new String[0]);
+            phase("morning", this::morning);
+            phase("midday", this::midday);
+            phase("storm", this::storm);
+            phase("restart", recorder -> {
+                for (int i = 0; i < restarts; i++) {
+                    timed(recorder, "close", () -> {
+                        manager.close();
+                        return null;
+                    });
+                    manager = timed(recorder, "loadData", this::openManager);
+                }
+            });
+        } finally {
+            pool.shutdown();
+            if (manager != null) {
+                manager.close();
+            }
+            DatasetGenerator.delete(dataFile);
+        }
+        
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", options.getOrDefault("label", ingest + "-" + store));
+        Map<String, Object> scenario = new LinkedHashMap<>(new TreeMap<>(options));
+        scenario.put("dataset", dataset.describe());
+        scenario.put("threads", threads);
+        scenario.put("ingest", ingest);
+        scenario.put("store", store);
+        scenario.put("arrivals", arrivals);
+        scenario.put("day", day);
+        report.put("scenario", scenario);
+        report.put("jvm", jvmJson());
+        report.put("phases", phases);
+        return report;
+    }
+    
+    // Each present student checks in once, arriving on the chosen curve; afterwards each
+    // class's teacher marks everyone who did not check in as absent.
+    private void morning(Recorder recorder) throws Exception {
+        Random random = new Random(seed + 1);
+        List<String> arriving = new ArrayList<>();
+        for (int i = 0; i < studentCount; i++) {
+            if (random.nextDouble() < presentRate) {
+                arriving.add(dataset.studentId(i));
+            }
+        }
+        Collections.shuffle(arriving, random);
+        CheckInQueue queue = ingest.equals("queue") ? new CheckInQueue(manager) : null;
+        openLoop(arrivalCurve(arriving.size(), morningSeconds, random), recorder, i -> {
+            String studentId = arriving.get(i);
+            if (queue != null) {
+                return new Request("checkIn", () -> queue.submit(studentId, day, true).thenApply(outcome -> {
+                    if (outcome != CheckInQueue.Outcome.MARKED) {
+                        throw new IllegalStateException("Check-in " + outcome);
+                    }
+                    return outcome;
+                }));
+            }
+            return new Request("checkIn", () -> {
+                manager.markAttendance(studentId, day, true);
+                return null;
+            });
+        });
+        if (queue != null) {
+            queue.close();
+        }
+        
+        closedLoop(classNames.length, recorder, i -> new Request("closeRollCall", () -> {
+            Map<String, Boolean> absent = new HashMap<>();
+            for (Map.Entry<String, Boolean> entry : manager.getClassAttendanceForDate(classNames[i], day).entrySet()) {
+                if (!entry.getValue()) {
+                    absent.put(entry.getKey(), false);
+                }
+            }
+            manager.markAttendanceForClass(classNames[i], day, absent);
+            return null;
+        }));
+    }
+    
+    // Poisson arrivals at the midday rate: mostly report and lookup reads, the rest
+    // corrections to the day's marks.
+    private void midday(Recorder recorder) throws Exception {
+        Random random = new Random(seed + 2);
+        int count = (int) (middayRate * middaySeconds);
+        long[] offsets = new long[count];
+        double meanGapNanos = 1e9 / middayRate;
+        double at = 0;
+        for (int i = 0; i < count; i++) {
+            at += -Math.log(1 - random.nextDouble()) * meanGapNanos;
+            offsets[i] = (long) at;
+        }
+        String firstDay = dataset.getSchoolDays().get(0);
+        openLoop(offsets, recorder, i -> {
+            Random local = ThreadLocalRandom.current();
+            String studentId = dataset.studentId(local.nextInt(studentCount));
+            String className = classNames[local.nextInt(classNames.length)];
+            if (local.nextDouble() >= readRatio) {
+                boolean present = local.nextBoolean();
+                return new Request("correction", () -> {
+                    manager.markAttendance(studentId, day, present);
+                    return null;
+                });
+            }
+            String read = READS[local.nextInt(READS.length)];
+            switch (read) {
+                case "individualReport":
+                    return new Request(read, () -> sink(manager.generateIndividualReport(studentId)));
+                case "classAttendance":
+                    return new Request(read, () -> sink(manager.getClassAttendanceForDate(className, day)));
+                case "listStudents":
+                    return new Request(read, () -> sink(manager.listStudents(className, null, 50,
+                            EnumSet.allOf(StudentPage.Field.class))));
+                case "search":
+                    String query = QUERIES[local.nextInt(QUERIES.length)];
+                    return new Request(read, () -> sink(manager.searchStudents(query, 20)));
+                case "trend":
+                    return new Request(read, () -> sink(manager.getAttendanceTrend(null, firstDay, day, ChronoUnit.WEEKS)));
+                default:
+                    return new Request(read, () -> sink(manager.getStudentsBelow(75, null, 50)));
+            }
+        });
+    }
+    
+    // Every thread asks for reports back to back, with a few marks landing in between so
+    // cached reports keep being invalidated.
+    private void storm(Recorder recorder) throws Exception {
+        closedLoop(stormRequests, recorder, i -> {
+            Random local = ThreadLocalRandom.current();
+            int kind = local.nextInt(20);
+            if (kind == 0) {
+                String studentId = dataset.studentId(local.nextInt(studentCount));
+                boolean present = local.nextBoolean();
+                return new Request("correction", () -> {
+                    manager.markAttendance(studentId, day, present);
+                    return null;
+                });
+            }
+            if (kind < 10) {
+                return new Request("overallStats", () -> sink(manager.generateOverallStats()));
+            }
+            String className = classNames[local.nextInt(classNames.length)];
+            return new Request("classReport", () -> sink(manager.generateClassReport(className)));
+        });
+    }
+    
+    // Starts request i at offsets[i] nanoseconds after the call and waits until every
+    // request, including asynchronous ones, has finished. Latency counts from the
+    // scheduled start.
+    private void openLoop(long[] offsets, Recorder recorder, RequestSource requests) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(offsets.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < offsets.length; i++) {
+            long due = start + offsets[i];
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Request request = requests.get(i);
+            pool.execute(() -> execute(request, due, recorder, done));
+        }
+        done.await();
+    }
+    
+    // count requests spread over every pool thread, each starting when its thread is free.
+    private void closedLoop(int count, Recorder recorder, RequestSource requests) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger next = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                for (int i; (i = next.getAndIncrement()) < count; ) {
+                    CountDownLatch one = new CountDownLatch(1);
+                    execute(requests.get(i), System.nanoTime(), recorder, one);
+                    try {
+                        one.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+    }
+    
+    private static void execute(Request request, long startNanos, Recorder recorder, CountDownLatch done) {
+        try {
+            CompletableFuture<?> pending = request.call.run();
+            if (pending == null) {
+                recorder.record(request.operation, System.nanoTime() - startNanos, false);
+                done.countDown();
+            } else {
+                pending.whenComplete((result, error) -> {
+                    recorder.record(request.operation, System.nanoTime() - startNanos, error != null);
+                    done.countDown();
+                });
+            }
+        } catch (Exception e) {
+            recorder.record(request.operation, System.nanoTime() - startNanos, true);
+            done.countDown();
+        }
+    }
+    
+    private static <T> T timed(Recorder recorder, String operation, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        T result = call.call();
+        recorder.record(operation, System.nanoTime() - start, false);
+        return result;
+    }
+    
+    private void phase(String name, PhaseBody body) throws Exception {
+        Recorder recorder = new Recorder();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+                heapPools.add(memoryPool);
+            }
+        }
+        Map<String, long[]> gcBefore = gcCounts();
+        long start = System.nanoTime();
+        body.run(recorder);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        Map<String, Object> operations = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Samples> entry : recorder.merge().entrySet()) {
+            Samples samples = entry.getValue();
+            samples.sort();
+            total += samples.size;
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("count", samples.size);
+            json.put("errors", samples.errors);
+            json.put("throughput", samples.size / seconds);
+            json.put("p50Us", samples.percentile(0.5) / 1e3);
+            json.put("p99Us", samples.percentile(0.99) / 1e3);
+            json.put("p999Us", samples.percentile(0.999) / 1e3);
+            json.put("maxUs", samples.percentile(1.0) / 1e3);
+            operations.put(entry.getKey(), json);
+            System.out.printf(Locale.ROOT, "%-8s %-18s %9d %11.0f %10.3f %10.3f %10.3f %10.3f %7d%n",
+                    name, entry.getKey(), samples.size, samples.size / seconds, samples.percentile(0.5) / 1e6,
+                    samples.percentile(0.99) / 1e6, samples.percentile(0.999) / 1e6, samples.percentile(1.0) / 1e6,
+                    samples.errors);
+        }
+        
+        long peak = 0;
+        for (MemoryPoolMXBean memoryPool : heapPools) {
+            peak += memoryPool.getPeakUsage().getUsed();
+        }
+        Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("usedMb", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0);
+        heap.put("peakMb", peak / 1048576.0);
+        heap.put("committedMb", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted() / 1048576.0);
+        Map<String, Object> gc = new LinkedHashMap<>();
+        long collections = 0;
+        long pauseMillis = 0;
+        for (Map.Entry<String, long[]> collector : gcCounts().entrySet()) {
+            long[] before = gcBefore.getOrDefault(collector.getKey(), new long[2]);
+            long count = collector.getValue()[0] - before[0];
+            long millis = collector.getValue()[1] - before[1];
+            collections += count;
+            pauseMillis += millis;
+            gc.put(collector.getKey(), Map.of("collections", count, "timeMs", millis));
+        }
+        gc.put("collections", collections);
+        gc.put("timeMs", pauseMillis);
+        
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("phase", name);
+        json.put("seconds", seconds);
+        json.put("operations", total);
+        json.put("throughput", total / seconds);
+        json.put("latency", operations);
+        json.put("heap", heap);
+        json.put("gc", gc);
+        phases.add(json);
+        System.out.printf(Locale.ROOT, "%-8s %.2fs, heap %.0f MB used / %.0f MB peak, %d GCs (%d ms)%n",
+                name, seconds, (Double) heap.get("usedMb"), peak / 1048576.0, collections, pauseMillis);
+    }
+    
+    // Sorted arrival offsets in nanoseconds for count arrivals over the window.
+    private long[] arrivalCurve(int count, double seconds, Random random) {
+        long window = (long) (seconds * 1e9);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            double at;
+            switch (arrivals) {
+                case "uniform":
+                    at = random.nextDouble();
+                    break;
+                case "bell":
+                    at = random.nextDouble() < 0.8 ? 0.9 + random.nextDouble() * 0.1 : random.nextDouble();
+                    break;
+                case "normal":
+                    do {
+                        at = 0.5 + random.nextGaussian() / 6;
+                    } while (at < 0 || at >= 1);
+                    break;
+                default:
+                    throw new IllegalArgumentException("--arrivals must be normal, uniform or bell");
+            }
+            offsets[i] = (long) (at * window);
+        }
+        Arrays.sort(offsets);
+        return offsets;
+    }
+    
+    private String prepareStore() throws IOException {
+        if (store.equals("journal")) {
+            return dataset.writeSnapshot();
+        }
+        File dir = Files.createTempDirectory("ams-sim").toFile();
+        String dbFile = new File(dir, "ams.db").getPath();
+        AttendanceManager loader = new AttendanceManager(new SqliteAttendanceStore(dbFile));
+        loader.addStudents(dataset.generate());
+        loader.close();
+        return dbFile;
+    }
+    
+    private AttendanceManager openManager() {
+        return store.equals("sqlite") ? new AttendanceManager(new SqliteAttendanceStore(dataFile)) : new AttendanceManager(dataFile);
+    }
+    
+    // The first weekday after the generated history.
+    private String nextSchoolDay() {
+        List<String> history = dataset.getSchoolDays();
+        LocalDate next = LocalDate.ofEpochDay(AttendanceRecord.toEpochDay(history.get(history.size() - 1))).plusDays(1);
+        while (next.getDayOfWeek() == DayOfWeek.SATURDAY || next.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            next = next.plusDays(1);
+        }
+        return AttendanceRecord.toDate((int) next.toEpochDay());
+    }
+    
+    private static Map<String, long[]> gcCounts() {
+        Map<String, long[]> counts = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counts.put(collector.getName(), new long[] {collector.getCollectionCount(), collector.getCollectionTime()});
+        }
+        return counts;
+    }
+    
+    private static Map<String, Object> jvmJson() {
+        Runtime runtime = Runtime.getRuntime();
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("version", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        jvm.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        jvm.put("processors", runtime.availableProcessors());
+        jvm.put("maxHeapMb", runtime.maxMemory() / 1048576.0);
+        List<String> collectors = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collectors.add(collector.getName());
+        }
+        jvm.put("collectors", collectors);
+        jvm.put("arguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        return jvm;
+    }
+    
+    private static volatile int sink; // consumes results so the JIT cannot drop the work
+    
+    private static CompletableFuture<?> sink(Object value) {
+        if (value != null) {
+            sink += value.hashCode();
+        }
+        return null;
+    }
+    
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+    
+    private interface PhaseBody {
+        void run(Recorder recorder) throws Exception;
+    }
+    
+    private interface RequestSource {
+        Request get(int index);
+    }
+    
+    private interface Call {
+        // Returns null when the work is done, or a future that completes when it is.
+        CompletableFuture<?> run() throws Exception;
+    }
+    
+    private static final class Request {
+        private final String operation;
+        private final Call call;
+        
+        private Request(String operation, Call call) {
+            this.operation = operation;
+            this.call = call;
+        }
+    }
+    
+    // Latency samples by operation. Every thread appends to its own buffers, merged once
+    // the phase is over.
+    private static final class Recorder {
+        private final Queue<Map<String, Samples>> buffers = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Map<String, Samples>> local = ThreadLocal.withInitial(() -> {
+            Map<String, Samples> buffer = new HashMap<>();
+            buffers.add(buffer);
+            return buffer;
+        });
+        
+        private void record(String operation, long nanos, boolean failed) {
+            Samples samples = local.get().computeIfAbsent(operation, k -> new Samples());
+            samples.add(nanos);
+            if (failed) {
+                samples.errors++;
+            }
+        }
+        
+        private Map<String, Samples> merge() {
+            Map<String, Samples> merged = new TreeMap<>();
+            for (Map<String, Samples> buffer : buffers) {
+                for (Map.Entry<String, Samples> entry : buffer.entrySet()) {
+                    merged.computeIfAbsent(entry.getKey(), k -> new Samples()).addAll(entry.getValue());
+                }
+            }
+            return merged;
+        }
+    }
+    
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+        private int errors;
+        
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        private void addAll(Samples other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + other.size));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            errors += other.errors;
+        }
+        
+        private void sort() {
+            Arrays.sort(values, 0, size);
+        }
+        
+        // Nearest-rank percentile of the sorted samples.
+        private long percentile(double quantile) {
+            if (size == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * size);
+            return values[Math.min(Math.max(rank, 1), size) - 1];
+        }
+    }
+}
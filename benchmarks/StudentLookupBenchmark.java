@@ -0,0 +1,83 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+// Measures getStudentById and markAttendanceForClass latency as the roster grows.
+// Run from the project root after compiling the main sources:
+//   javac -d out *.java && javac -cp out -d out benchmarks/*.java && java -cp out StudentLookupBenchmark
+public class StudentLookupBenchmark {
+    private static final int CLASS_SIZE = 30;
+    private static final int LOOKUPS = 1000000;
+    private static final int CLASS_MARKS = 20;
+    
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1000, 10000, 100000, 1000000};
+        System.out.printf("%-10s %-18s %-18s%n", "Students", "Lookup (ns/op)", "Class mark (ms/op)");
+        System.out.println("-".repeat(48));
+        for (int size : sizes) {
+            File dir = Files.createTempDirectory("ams-bench").toFile();
+            String dataFile = new File(dir, "attendance_data.ser").getPath();
+            writeDataset(dataFile, size);
+            
+            AttendanceManager manager = new AttendanceManager(dataFile);
+            System.out.printf("%-10d %-18.1f %-18.3f%n", size, measureLookup(manager, size), measureClassMark(manager, size));
+            manager.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    private static void writeDataset(String dataFile, int size) throws IOException {
+        List<Student> students = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            students.add(new Student(studentId(i), "Student " + i, "student" + i + "@example.com", "CLASS-" + (i / CLASS_SIZE)));
+        }
+        AttendanceJournal journal = new AttendanceJournal(dataFile, dataFile + ".log", Integer.MAX_VALUE);
+        journal.recover();
+        journal.snapshot(students);
+        journal.close();
+    }
+    
+    private static double measureLookup(AttendanceManager manager, int size) {
+        Random random = new Random(42);
+        String[] ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = studentId(random.nextInt(size));
+        }
+        
+        int found = 0;
+        for (int i = 0; i < LOOKUPS; i++) { // warm-up
+            found += manager.getStudentById(ids[i & 1023]) != null ? 1 : 0;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += manager.getStudentById(ids[i & 1023]) != null ? 1 : 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != 2 * LOOKUPS) {
+            throw new IllegalStateException("Lookup missed students");
+        }
+        return (double) elapsed / LOOKUPS;
+    }
+    
+    private static double measureClassMark(AttendanceManager manager, int size) {
+        String className = "CLASS-" + (size / CLASS_SIZE / 2);
+        Map<String, Boolean> attendanceMap = new HashMap<>();
+        for (Student student : manager.getStudentsByClass(className)) {
+            attendanceMap.put(student.getStudentId(), true);
+        }
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < CLASS_MARKS; i++) {
+            manager.markAttendanceForClass(className, String.format("%02d-01-2024", i + 1), attendanceMap);
+        }
+        return (System.nanoTime() - start) / 1e6 / CLASS_MARKS;
+    }
+    
+    private static String studentId(int i) {
+        return String.format("STU%07d", i);
+    }
+}
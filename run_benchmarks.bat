@@ -0,0 +1,34 @@
+@echo off
+echo ========================================
+echo Attendance Management System Benchmarks
+echo ========================================
+echo.
+
+echo Compiling Java files...
+if not exist out mkdir out
+javac -d out *.java
+if %errorlevel% neq 0 goto failed
+javac -cp out -d out benchmarks\*.java
+if %errorlevel% neq 0 goto failed
+
+echo.
+echo Running hot path benchmarks (--quick for a short run, --update-baseline to rewrite the baseline)...
+echo.
+java -cp out HotPathBenchmarks --output benchmark-results.csv --baseline benchmarks\baseline-results.csv %*
+if %errorlevel% equ 2 (
+    echo.
+    echo WARNING: Some benchmarks are slower than the baseline!
+    pause
+    exit /b 2
+)
+
+echo.
+echo Results written to benchmark-results.csv
+pause
+exit /b 0
+
+:failed
+echo.
+echo ERROR: Compilation failed!
+pause
+exit /b 1
@@ -0,0 +1,9 @@
+#!/bin/sh
+# Compiles the sources and benchmarks into out/ and runs the hot path benchmarks against
+# the checked-in baseline. Extra arguments are passed on, e.g. ./run_benchmarks.sh --quick,
+# or ./run_benchmarks.sh --update-baseline to rewrite the baseline from a full run.
+set -e
+mkdir -p out
+javac -d out *.java
+javac -cp out -d out benchmarks/*.java
+java -cp out HotPathBenchmarks --output benchmark-results.csv --baseline benchmarks/baseline-results.csv "$@"